@@ -6,9 +6,33 @@
  */ 
 
 #include "Message.h"
+#include "TimeUtil.h"
 
 extern void kill(void);
 
+//Handle the body of an RPC request, writing the response body
+int parseRequest(const unsigned char *request, int len, unsigned char *response) {
+	
+	if(len < 1) {
+		return -1;
+	}
+	switch(request[0]) {
+		case 'i': {
+			//reply with the time of the last update
+			response[0] = (timer >> 24) & 0xFF;
+			response[1] = (timer >> 16) & 0xFF;
+			response[2] = (timer >> 8) & 0xFF;
+			response[3] = timer & 0xFF;
+			return 4;
+		} case 'k': {
+			kill();
+			return 0;
+		}
+	}
+	return -1;
+
+}
+
 void parseMessage(unsigned char *data, int len) {
 	
 	unsigned char command = data[0];
@@ -19,6 +43,34 @@ void parseMessage(unsigned char *data, int len) {
 		} case 'k': {
 			kill();
 			break;
+		} case RPC_REQUEST: {
+			unsigned char response[RPC_MAX_LEN];
+			int responseLen = answerRpc(data, len, response, parseRequest);
+			if(responseLen > 0) {
+				writeRawMessage(response, responseLen);
+			}
+			break;
+		} case PING: {
+			unsigned char response[PROBE_LEN];
+			int responseLen = answerPing(data, len, response);
+			if(responseLen > 0) {
+				writeRawMessage(response, responseLen);
+			}
+			break;
+		} case HELLO: {
+			unsigned char response[HELLO_LEN];
+			int responseLen = answerHello(data, len, response);
+			if(responseLen > 0) {
+				writeRawMessage(response, responseLen);
+			}
+			break;
+		} case CLOCK_SYNC_REQUEST: {
+			unsigned char response[CLOCK_SYNC_RESPONSE_LEN];
+			int responseLen = answerClockSync(data, len, response);
+			if(responseLen > 0) {
+				writeRawMessage(response, responseLen);
+			}
+			break;
 		}
 		
 	}
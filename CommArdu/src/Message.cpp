@@ -74,6 +74,73 @@ void writeMessage(unsigned char *data, int len) {
 
 }
 
+//Write a message without the length byte prepended by writeMessage, for 
+//replies to host protocols that the host decodes byte for byte
+void writeRawMessage(unsigned char *data, int len) {
+	
+	stuffData(data, len, writeBuffer);
+
+	writeComm(writeBuffer, len + 2);
+
+}
+
+//Answer an RPC request [RPC_REQUEST][id:2][request] with 
+//[RPC_RESPONSE][id:2][response]. The handler writes at most 
+//RPC_MAX_LEN - RPC_HEADER_LEN bytes of response and returns its length, or
+//-1 to send no response
+int answerRpc(const unsigned char *request, int len, unsigned char *response, RequestHandler handler) {
+	
+	if(len < RPC_HEADER_LEN || request[0] != RPC_REQUEST) {
+		return 0;
+	}
+	int responseLen = handler(request + RPC_HEADER_LEN, len - RPC_HEADER_LEN, response + RPC_HEADER_LEN);
+	if(responseLen < 0) {
+		return 0;
+	}
+	response[0] = RPC_RESPONSE;
+	response[1] = request[1];
+	response[2] = request[2];
+	return RPC_HEADER_LEN + responseLen;
+
+}
+
+//Echo a link monitor ping as a pong
+int answerPing(const unsigned char *request, int len, unsigned char *response) {
+	
+	if(len != PROBE_LEN || request[0] != PING) {
+		return 0;
+	}
+	response[0] = PONG;
+	for(int i = 1; i < PROBE_LEN; i++) {
+		response[i] = request[i];
+	}
+	return PROBE_LEN;
+
+}
+
+//Answer a capability hello with the fixed capabilities of this library:
+//COBS frames without a check, READ_MESSAGE_BUFFER_SIZE and BAUD_RATE
+int answerHello(const unsigned char *request, int len, unsigned char *response) {
+	
+	if(len != HELLO_LEN || request[0] != HELLO || request[1] != 0) {
+		return 0;
+	}
+	unsigned long rate = BAUD_RATE / 10;
+	response[0] = HELLO;
+	response[1] = 1;
+	response[2] = HANDSHAKE_VERSION;
+	SHORT_TO_BYTES(READ_MESSAGE_BUFFER_SIZE, response, 3);
+	response[5] = 0x01;
+	response[6] = 0x01;
+	response[7] = 0;
+	response[8] = (rate >> 24) & 0xFF;
+	response[9] = (rate >> 16) & 0xFF;
+	response[10] = (rate >> 8) & 0xFF;
+	response[11] = rate & 0xFF;
+	return HELLO_LEN;
+
+}
+
 void unStuffData(const unsigned char *ptr, unsigned char length, unsigned char *dst)
 {
 	const unsigned char *end = ptr + length - 1;
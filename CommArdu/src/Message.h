@@ -13,6 +13,28 @@ void initMessage(void);
 void updateMessage(void);
 
 void writeMessage(unsigned char *data, int len);
+void writeRawMessage(unsigned char *data, int len);
+
+#define RPC_REQUEST 0x01
+#define RPC_RESPONSE 0x02
+#define RPC_HEADER_LEN 3
+#define RPC_MAX_LEN 254
+
+typedef int (*RequestHandler)(const unsigned char *request, int len, unsigned char *response);
+
+int answerRpc(const unsigned char *request, int len, unsigned char *response, RequestHandler handler);
+
+#define PING 0x05
+#define PONG 0x06
+#define PROBE_LEN 11
+
+int answerPing(const unsigned char *request, int len, unsigned char *response);
+
+#define HELLO 0x0C
+#define HELLO_LEN 12
+#define HANDSHAKE_VERSION 1
+
+int answerHello(const unsigned char *request, int len, unsigned char *response);
 
 
 
@@ -17,4 +17,24 @@ void updateTime(void) {
 	timer=millis();
 	timerDelta = timer - timerOld;
 
+}
+
+
+//Echo a clock sync request with the current time appended, big-endian
+int answerClockSync(const unsigned char *request, int len, unsigned char *response) {
+	
+	if(len != CLOCK_SYNC_REQUEST_LEN || request[0] != CLOCK_SYNC_REQUEST) {
+		return 0;
+	}
+	unsigned long now = millis();
+	response[0] = CLOCK_SYNC_RESPONSE;
+	for(int i = 1; i < CLOCK_SYNC_REQUEST_LEN; i++) {
+		response[i] = request[i];
+	}
+	response[11] = (now >> 24) & 0xFF;
+	response[12] = (now >> 16) & 0xFF;
+	response[13] = (now >> 8) & 0xFF;
+	response[14] = now & 0xFF;
+	return CLOCK_SYNC_RESPONSE_LEN;
+
 }
\ No newline at end of file
@@ -14,9 +14,16 @@
 extern unsigned long timer;
 extern unsigned long timerDelta;
 
+#define CLOCK_SYNC_REQUEST 0x07
+#define CLOCK_SYNC_RESPONSE 0x08
+#define CLOCK_SYNC_REQUEST_LEN 11
+#define CLOCK_SYNC_RESPONSE_LEN 15
+
 void initTime(void);
 void updateTime(void);
 
+int answerClockSync(const unsigned char *request, int len, unsigned char *response);
+
 
 
 
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+import util.BufferLease;
+import util.BufferPool;
+import util.ErrorCause;
+import util.ErrorStats;
+
+/**
+ * A base class for frame decoders that accumulate a decoded message in a 
+ * fixed size buffer.
+ * 
+ * Messages exceeding the buffer are discarded when their frame ends. If the
+ * frame has a check trailer, the check is updated with each decoded piece of
+ * the message while it is still in cache, lagging by the trailer length as the
+ * trailer is only known once the frame ends.
+ * 
+ * Discarded frames are counted once each in the "FrameDecoder" ErrorStats.
+ * 
+ * The buffer is leased from a BufferPool and reused for the next message 
+ * unless the callback retains the lease, in which case a new buffer is leased.
+ * 
+ * @author Andrew_2
+ */
+abstract class AbstractFrameDecoder implements FrameDecoder {
+
+    protected static final ErrorStats errors = ErrorStats.forComponent("FrameDecoder");
+    
+    /**
+     * The buffer containing the message being decoded
+     */
+    protected ByteBuffer message;
+    private final BufferPool pool;
+    private BufferLease lease;
+    /**
+     * Whether the current frame is valid so far
+     */
+    protected boolean valid = true;
+    
+    private final FrameCheck check;
+    private final Checksum checksum;
+    /**
+     * The position in the message up to which the check has been updated
+     */
+    private int checked;
+    
+    private BlockOutputCallback callback;
+
+    /**
+     * Construct the decoder with the specified maximum message length
+     * 
+     * @param maxMessageLength the maximum length of a decoded message
+     * @param check the check trailing each message
+     */
+    protected AbstractFrameDecoder(int maxMessageLength, FrameCheck check) {
+        pool = new BufferPool(maxMessageLength + check.length());
+        lease = pool.acquire();
+        message = lease.buffer();
+        this.check = check;
+        this.checksum = check.createChecksum();
+    }
+
+    @Override
+    public void setBlockAvailableCallback(BlockOutputCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Append a decoded byte to the current message, invalidating the frame if
+     * the message length is exceeded
+     * 
+     * @param b the decoded byte
+     */
+    protected final void append(byte b) {
+        if (message.hasRemaining()) {
+            message.put(b);
+        } else {
+            invalidate(ErrorCause.OVERSIZE, "Message length exceeded in decoder.");
+        }
+    }
+    
+    /**
+     * Append a run of decoded bytes to the current message, invalidating the
+     * frame if the message length is exceeded
+     * 
+     * @param data the buffer containing the run at its position
+     * @param length the length of the run
+     */
+    protected final void append(ByteBuffer data, int length) {
+        if (length > message.remaining()) {
+            invalidate(ErrorCause.OVERSIZE, "Message length exceeded in decoder.");
+        } else if (data.hasArray()) {
+            message.put(data.array(), data.arrayOffset() + data.position(), length);
+        } else {
+            ByteBuffer run = data.duplicate();
+            run.limit(run.position() + length);
+            message.put(run);
+        }
+        data.position(data.position() + length);
+    }
+    
+    /**
+     * Invalidate the current frame, recording the error if the frame was valid
+     * 
+     * @param cause the cause of the error
+     * @param description the description of the error
+     */
+    protected final void invalidate(ErrorCause cause, String description) {
+        if (valid) {
+            errors.record(cause, description);
+            valid = false;
+        }
+    }
+    
+    /**
+     * Update the check with the bytes decoded since the last update that
+     * cannot be part of the trailer. Called after decoding each piece of data
+     */
+    protected final void updateCheck() {
+        if (checksum != null && valid) {
+            int end = message.position() - check.length();
+            if (end > checked) {
+                checksum.update(message.array(), message.arrayOffset() + checked, end - checked);
+                checked = end;
+            }
+        }
+    }
+    
+    /**
+     * End the current frame, passing the message to the callback if it is
+     * valid, not empty, and passes the check
+     */
+    protected void endFrame() {
+        if (valid && message.position() > 0) {
+            int length = message.position() - check.length();
+            if (checksum != null && length > 0) {
+                updateCheck();
+                if (checksum.getValue() != check.getValue(message, length)) {
+                    invalidate(ErrorCause.CHECK_FAILED, "Frame check failed in decoder.");
+                }
+            }
+            if (valid && length > 0 && callback != null) {
+                message.limit(length);
+                message.position(0);
+                try {
+                    callback.onBlockOutput(message, lease);
+                } catch (RuntimeException ex) {
+                    //keep decoding the rest of the input for later messages
+                    errors.record(ErrorCause.CALLBACK_FAILED, "Message callback failed: " + ex);
+                }
+                if (lease.isShared()) {
+                    lease.release();
+                    lease = pool.acquire();
+                    message = lease.buffer();
+                }
+            }
+        }
+        reset();
+    }
+
+    @Override
+    public void reset() {
+        message.clear();
+        valid = true;
+        checked = 0;
+        if (checksum != null) {
+            checksum.reset();
+        }
+    }
+    
+}
@@ -0,0 +1,127 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+import util.Utility;
+
+/**
+ * A base class for framing codecs with an optional integrity check trailer.
+ * 
+ * Encoders copy the message in runs of bytes needing no modification, updating
+ * the check with each run as it is copied so the message is traversed once.
+ * 
+ * @author Andrew_2
+ */
+public abstract class AbstractFramingCodec implements FramingCodec {
+
+    /**
+     * The integrity check appended to each frame
+     */
+    protected final FrameCheck check;
+
+    /**
+     * Construct the codec with the specified integrity check
+     * 
+     * @param check the integrity check appended to each frame
+     */
+    protected AbstractFramingCodec(FrameCheck check) {
+        this.check = check;
+    }
+    
+    /**
+     * Get the name of the framing excluding the check
+     * 
+     * @return the name of the framing
+     */
+    protected abstract String getFramingName();
+
+    @Override
+    public String getName() {
+        if (check == FrameCheck.NONE) {
+            return getFramingName();
+        } else {
+            return getFramingName() + " + " + check;
+        }
+    }
+
+    @Override
+    public FrameCheck getFrameCheck() {
+        return check;
+    }
+    
+    /**
+     * Create the trailer for a message
+     * 
+     * @param checksum the checksum updated with the message
+     * @return a buffer containing the trailer
+     */
+    protected ByteBuffer createTrailer(Checksum checksum) {
+        ByteBuffer trailer = ByteBuffer.allocate(check.length());
+        check.putValue(trailer, checksum.getValue());
+        trailer.flip();
+        return trailer;
+    }
+    
+    /**
+     * Get the total remaining bytes of the parts of a message
+     * 
+     * @param parts the parts of the message
+     * @return the length of the message
+     */
+    protected static int remaining(ByteBuffer[] parts) {
+        return Utility.remaining(parts);
+    }
+    
+    /**
+     * Copy a run of bytes from the source to the frame, updating the checksum
+     * with the run
+     * 
+     * @param source the buffer containing the run at its position
+     * @param length the length of the run
+     * @param frame the buffer to copy the run to
+     * @param checksum the checksum to update or null
+     */
+    protected static void copyRun(ByteBuffer source, int length, ByteBuffer frame, Checksum checksum) {
+        if (source.hasArray()) {
+            byte[] array = source.array();
+            int offset = source.arrayOffset() + source.position();
+            frame.put(array, offset, length);
+            if (checksum != null) {
+                checksum.update(array, offset, length);
+            }
+            source.position(source.position() + length);
+        } else {
+            ByteBuffer run = source.duplicate();
+            run.limit(run.position() + length);
+            if (checksum != null) {
+                checksum.update(run.duplicate());
+            }
+            frame.put(run);
+            source.position(run.limit());
+        }
+    }
+    
+}
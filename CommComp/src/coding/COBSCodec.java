@@ -0,0 +1,216 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+import util.ErrorCause;
+
+/**
+ * A framing codec using consistent overhead byte stuffing (COBS).
+ * 
+ * Each frame is the stuffed message followed by a zero delimiter. Messages of
+ * up to 254 bytes are encoded as a single COBS block, matching the framing of 
+ * the embedded codebase. Longer messages are split into standard 254 byte 
+ * blocks.
+ * 
+ * @author Andrew_2
+ */
+public class COBSCodec extends AbstractFramingCodec {
+
+    private static final ByteBuffer EMPTY = ByteBuffer.allocate(0);
+
+    /**
+     * Construct a COBS codec without an integrity check
+     */
+    public COBSCodec() {
+        this(FrameCheck.NONE);
+    }
+    
+    /**
+     * Construct a COBS codec with the specified integrity check
+     * 
+     * @param check the integrity check appended to each frame
+     */
+    public COBSCodec(FrameCheck check) {
+        super(check);
+    }
+
+    @Override
+    protected String getFramingName() {
+        return "COBS";
+    }
+
+    @Override
+    public int maxFrameLength(int messageLength) {
+        int length = messageLength + check.length();
+        //one code byte per 254 bytes of message and a delimiter
+        return length + Math.max(1, (length + 253) / 254) + 1;
+    }
+
+    @Override
+    public boolean encode(ByteBuffer message, ByteBuffer frame) {
+        return encode(null, message, frame);
+    }
+
+    @Override
+    public boolean encode(ByteBuffer[] parts, ByteBuffer frame) {
+        return encode(parts, null, frame);
+    }
+    
+    /**
+     * Encode the parts of a message, or a single message if the parts are 
+     * null. Blocks span the boundaries between parts.
+     */
+    private boolean encode(ByteBuffer[] parts, ByteBuffer message, ByteBuffer frame) {
+        int length = parts != null ? remaining(parts) : message.remaining();
+        if (frame.remaining() < maxFrameLength(length)) {
+            return false;
+        }
+        Checksum checksum = check.createChecksum();
+        int count = parts != null ? parts.length : 1;
+        int part = 0;
+        ByteBuffer source = parts == null ? message : count > 0 ? parts[0] : EMPTY;
+        boolean inMessage = true;
+        //the number of bytes to encode after the current source
+        int following = length - source.remaining() + (checksum != null ? check.length() : 0);
+        int codeIndex = frame.position();
+        frame.position(codeIndex + 1);
+        int code = 1;
+        while (true) {
+            while (source.hasRemaining()) {
+                //copy the run of non zero bytes that fits in the current block
+                int start = source.position();
+                int end = Math.min(source.limit(), start + 0xFF - code);
+                int index = start;
+                while (index < end && source.get(index) != 0) {
+                    index++;
+                }
+                copyRun(source, index - start, frame, inMessage ? checksum : null);
+                code += index - start;
+
+                if (code == 0xFF) {
+                    //a full block has no implied zero, so is only ended 
+                    //here if more data follows
+                    if (!source.hasRemaining() && following == 0) {
+                        continue;
+                    }
+                } else if (source.hasRemaining()) {
+                    //the run ended at a zero
+                    source.get();
+                    if (inMessage && checksum != null) {
+                        checksum.update(0);
+                    }
+                } else {
+                    //the run continues in the next source
+                    continue;
+                }
+                //end the block
+                frame.put(codeIndex, (byte) code);
+                codeIndex = frame.position();
+                frame.position(codeIndex + 1);
+                code = 1;
+            }
+            if (part + 1 < count) {
+                source = parts[++part];
+            } else if (inMessage && checksum != null) {
+                source = createTrailer(checksum);
+                inMessage = false;
+            } else {
+                break;
+            }
+            following -= source.remaining();
+        }
+        frame.put(codeIndex, (byte) code);
+        frame.put((byte) 0);
+        return true;
+    }
+
+    @Override
+    public FrameDecoder createDecoder(int maxMessageLength) {
+        return new COBSDecoder(maxMessageLength, check);
+    }
+    
+    /**
+     * A decoder of COBS frames.
+     * 
+     * Unstuffs bytes as they arrive rather than buffering the stuffed frame.
+     */
+    private static class COBSDecoder extends AbstractFrameDecoder {
+
+        /**
+         * The code of the current block or 0 at the start of a frame
+         */
+        private int code;
+        /**
+         * The number of data bytes remaining in the current block
+         */
+        private int remaining;
+
+        private COBSDecoder(int maxMessageLength, FrameCheck check) {
+            super(maxMessageLength, check);
+        }
+
+        @Override
+        public void decode(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                byte current = data.get(data.position());
+                if (current == 0) {
+                    data.get();
+                    if (remaining != 0) {
+                        invalidate(ErrorCause.MALFORMED, "Frame ended within a COBS block.");
+                    }
+                    endFrame();
+                } else if (remaining == 0) {
+                    data.get();
+                    if (code != 0 && code != 0xFF) {
+                        append((byte) 0);
+                    }
+                    code = current & 0xFF;
+                    remaining = code - 1;
+                } else {
+                    //unstuff the run of non zero bytes in the current block
+                    int start = data.position();
+                    int end = Math.min(data.limit(), start + remaining);
+                    int index = start + 1;
+                    while (index < end && data.get(index) != 0) {
+                        index++;
+                    }
+                    append(data, index - start);
+                    remaining -= index - start;
+                }
+            }
+            updateCheck();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            code = 0;
+            remaining = 0;
+        }
+
+    }
+
+}
@@ -24,10 +24,6 @@
 
 package coding;
 
-import util.BlockOutput;
-import util.StreamInput;
-import java.io.IOException;
-import java.io.InputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -37,18 +33,7 @@ import java.nio.ByteBuffer;
  * 
  * @author Andrew_2
  */
-public class COBSReader implements StreamInput, BlockOutput {
-
-    private InputStream in;
-    private byte[] rawBuffer;
-    private ByteBuffer buffer, stuffed, unstuffed;
-    private int bufferSize, unstuffedLength;
-    private boolean validMessage = true;
-
-    /**
-     * the callback for when a message is unstuffed
-     */
-    private BlockOutputCallback callback;
+public class COBSReader extends FrameReader {
 
     /**
      * Construct a reader with the appropriate parameters
@@ -56,79 +41,7 @@ public class COBSReader implements StreamInput, BlockOutput {
      * @param unstuffedLength the max size of an unstuffed message
      */
     public COBSReader(int bufferSize, int unstuffedLength) {
-
-        this.bufferSize = bufferSize;
-        this.unstuffedLength = unstuffedLength;
-        rawBuffer = new byte[bufferSize];
-        buffer = ByteBuffer.wrap(rawBuffer);
-        stuffed = ByteBuffer.allocate(unstuffedLength + 2);
-        unstuffed = ByteBuffer.allocate(unstuffedLength);
-    }
-    
-    /**
-     * Set the InputStream that stuffed data is read from
-     * 
-     * @param in The inputstream to be read
-     */
-    @Override
-    public void setInputStream(InputStream in) {
-        this.in = in;
-    }
-
-    /**
-     * Set the callback used when a COBS block is unstuffed
-     * 
-     * @param callback the callback used when a COBS block is unstuffed
-     */
-    @Override
-    public void setBlockAvailableCallback(BlockOutputCallback callback) {
-        this.callback = callback;
-    }
-    
-
-    /**
-     * Read data from the InputStream, decode, and pass to callback
-     * @throws IOException 
-     */
-    public void read() throws IOException {
-        //add timeout later
-
-        if (in.available() > 0) {
-            int numRead = in.read(rawBuffer);
-            buffer.clear();
-            buffer.limit(numRead);
-            while (buffer.hasRemaining()) {
-                byte current = buffer.get();
-                //System.out.println(0xFF & current);
-
-                //System.out.println(current);
-                if (stuffed.hasRemaining()) {
-                    stuffed.put(current);
-                } else {
-                    System.err.println("Message length exceeded in reader.");
-                    validMessage = false;
-                }
-
-                if (current == 0) {
-                    if (validMessage) {
-                        stuffed.flip();
-                        if (!unstuffBytes(stuffed, unstuffed)) {
-                            System.err.println("Invalid Message. Message could not be unstuffed");
-                        } else {
-                            //Utility.printBytes(unstuffed);
-                            
-                            callback.onBlockOutput(unstuffed);
-                        }
-                    }
-                    validMessage = true;
-                    stuffed.clear();
-                    unstuffed.clear();
-
-                }
-
-            }
-        }
-
+        super(new COBSCodec(), bufferSize, unstuffedLength);
     }
 
     /**
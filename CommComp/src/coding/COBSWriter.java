@@ -23,10 +23,6 @@
  */
 package coding;
 
-import util.BlockInput;
-import util.StreamOutput;
-import java.io.IOException;
-import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -35,11 +31,7 @@ import java.nio.ByteBuffer;
  *
  * @author Andrew_2
  */
-public class COBSWriter implements BlockInput, StreamOutput {
-
-    private OutputStream out;
-    private byte[] rawStuffed;
-    private ByteBuffer stuffed;
+public class COBSWriter extends FrameWriter {
 
     /**
      * Constructs a writer with the appropriate parameters
@@ -47,39 +39,7 @@ public class COBSWriter implements BlockInput, StreamOutput {
      * @param unstuffedMessageLength the maximum unstuffed message length
      */
     public COBSWriter(int unstuffedMessageLength) {
-        rawStuffed = new byte[unstuffedMessageLength + 2];
-        stuffed = ByteBuffer.wrap(rawStuffed);
-    }
-
-    /**
-     * Set the OutputStream where stuffed data is output
-     * 
-     * @param out the OutputStream to write stuffed data to
-     */
-    @Override
-    public void setOutputStream(OutputStream out) {
-        this.out = out;
-    }
-
-    /**
-     * Write a message to the writer
-     *
-     * @param unstuffed the message to be written
-     * @return whether the write was successful or not
-     */
-    @Override
-    public synchronized boolean writeBlock(ByteBuffer unstuffed) {
-        boolean success = stuffBytes(unstuffed, stuffed);
-        if (success) {
-            try {
-                out.write(rawStuffed, 0, stuffed.remaining());
-                out.flush();
-            } catch (IOException ex) {
-                success = false;
-                ex.printStackTrace();
-            }
-        }
-        return success;
+        super(new COBSCodec(), unstuffedMessageLength);
     }
 
     /**
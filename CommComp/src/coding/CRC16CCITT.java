@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.util.zip.Checksum;
+
+/**
+ * A Checksum computing the CRC-16/CCITT (also known as CCITT-FALSE) of data.
+ * 
+ * Uses polynomial 0x1021 and initial value 0xFFFF with no reflection or final
+ * XOR. Arrays are processed eight bytes at a time using slicing-by-8 tables.
+ * 
+ * @author Andrew_2
+ */
+public class CRC16CCITT implements Checksum {
+
+    public static final int POLYNOMIAL = 0x1021;
+    public static final int INITIAL_VALUE = 0xFFFF;
+    
+    /**
+     * TABLE[k][n] is the CRC of the byte n followed by k zero bytes
+     */
+    private static final int[][] TABLE = new int[8][256];
+    
+    static {
+        for (int n = 0; n < 256; n++) {
+            int crc = n << 8;
+            for (int bit = 0; bit < 8; bit++) {
+                crc = (crc & 0x8000) != 0 ? (crc << 1) ^ POLYNOMIAL : crc << 1;
+            }
+            TABLE[0][n] = crc & 0xFFFF;
+        }
+        for (int k = 1; k < 8; k++) {
+            for (int n = 0; n < 256; n++) {
+                int prev = TABLE[k - 1][n];
+                TABLE[k][n] = ((prev << 8) ^ TABLE[0][prev >>> 8]) & 0xFFFF;
+            }
+        }
+    }
+    
+    private int crc = INITIAL_VALUE;
+
+    @Override
+    public void update(int b) {
+        crc = ((crc << 8) ^ TABLE[0][((crc >>> 8) ^ b) & 0xFF]) & 0xFFFF;
+    }
+
+    @Override
+    public void update(byte[] b, int off, int len) {
+        int c = crc;
+        final int[] t0 = TABLE[0], t1 = TABLE[1], t2 = TABLE[2], t3 = TABLE[3],
+                t4 = TABLE[4], t5 = TABLE[5], t6 = TABLE[6], t7 = TABLE[7];
+        while (len >= 8) {
+            c ^= ((b[off] & 0xFF) << 8) | (b[off + 1] & 0xFF);
+            c = t7[c >>> 8] ^ t6[c & 0xFF]
+                    ^ t5[b[off + 2] & 0xFF] ^ t4[b[off + 3] & 0xFF]
+                    ^ t3[b[off + 4] & 0xFF] ^ t2[b[off + 5] & 0xFF]
+                    ^ t1[b[off + 6] & 0xFF] ^ t0[b[off + 7] & 0xFF];
+            off += 8;
+            len -= 8;
+        }
+        while (len-- > 0) {
+            c = ((c << 8) ^ t0[((c >>> 8) ^ b[off++]) & 0xFF]) & 0xFFFF;
+        }
+        crc = c;
+    }
+
+    @Override
+    public long getValue() {
+        return crc;
+    }
+
+    @Override
+    public void reset() {
+        crc = INITIAL_VALUE;
+    }
+    
+}
@@ -0,0 +1,195 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+import util.ErrorCause;
+
+/**
+ * A framing codec delimiting frames with a flag byte and escaping occurrences
+ * of the flag and escape bytes within the message.
+ * 
+ * Each frame begins and ends with the flag so noise received between frames is
+ * discarded as an invalid frame. An escape followed by anything other than an
+ * escaped flag or escape invalidates the frame.
+ * 
+ * @author Andrew_2
+ */
+public abstract class FlagEscapeCodec extends AbstractFramingCodec {
+
+    private final byte flag, escape, escapedFlag, escapedEscape;
+
+    /**
+     * Construct the codec with the specified special bytes
+     * 
+     * @param flag the byte delimiting frames
+     * @param escape the byte beginning an escape sequence
+     * @param escapedFlag the byte following the escape to represent the flag
+     * @param escapedEscape the byte following the escape to represent the escape
+     * @param check the integrity check appended to each frame
+     */
+    protected FlagEscapeCodec(byte flag, byte escape, byte escapedFlag, byte escapedEscape,
+            FrameCheck check) {
+        super(check);
+        this.flag = flag;
+        this.escape = escape;
+        this.escapedFlag = escapedFlag;
+        this.escapedEscape = escapedEscape;
+    }
+
+    @Override
+    public int maxFrameLength(int messageLength) {
+        return 2 * (messageLength + check.length()) + 2;
+    }
+
+    @Override
+    public boolean encode(ByteBuffer message, ByteBuffer frame) {
+        if (frame.remaining() < maxFrameLength(message.remaining())) {
+            return false;
+        }
+        Checksum checksum = check.createChecksum();
+        frame.put(flag);
+        encodeEscaped(message, frame, checksum);
+        if (checksum != null) {
+            encodeEscaped(createTrailer(checksum), frame, null);
+        }
+        frame.put(flag);
+        return true;
+    }
+
+    @Override
+    public boolean encode(ByteBuffer[] parts, ByteBuffer frame) {
+        if (frame.remaining() < maxFrameLength(remaining(parts))) {
+            return false;
+        }
+        Checksum checksum = check.createChecksum();
+        frame.put(flag);
+        for (ByteBuffer part : parts) {
+            encodeEscaped(part, frame, checksum);
+        }
+        if (checksum != null) {
+            encodeEscaped(createTrailer(checksum), frame, null);
+        }
+        frame.put(flag);
+        return true;
+    }
+    
+    /**
+     * Escape the source into the frame, copying runs without special bytes
+     * 
+     * @param source the bytes to be escaped
+     * @param frame the buffer to write the escaped bytes to
+     * @param checksum the checksum to update with the source or null
+     */
+    private void encodeEscaped(ByteBuffer source, ByteBuffer frame, Checksum checksum) {
+        while (source.hasRemaining()) {
+            int start = source.position();
+            int index = start;
+            byte current = 0;
+            while (index < source.limit()) {
+                current = source.get(index);
+                if (current == flag || current == escape) {
+                    break;
+                }
+                index++;
+            }
+            copyRun(source, index - start, frame, checksum);
+            if (source.hasRemaining()) {
+                source.get();
+                if (checksum != null) {
+                    checksum.update(current);
+                }
+                frame.put(escape);
+                frame.put(current == flag ? escapedFlag : escapedEscape);
+            }
+        }
+    }
+
+    @Override
+    public FrameDecoder createDecoder(int maxMessageLength) {
+        return new FlagEscapeDecoder(maxMessageLength, check);
+    }
+    
+    /**
+     * A decoder of flag delimited, escaped frames
+     */
+    private class FlagEscapeDecoder extends AbstractFrameDecoder {
+
+        private boolean escaping;
+        
+        private FlagEscapeDecoder(int maxMessageLength, FrameCheck check) {
+            super(maxMessageLength, check);
+        }
+        
+        @Override
+        public void decode(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                byte current = data.get(data.position());
+                if (current == flag) {
+                    data.get();
+                    if (escaping) {
+                        //escape followed by flag aborts the frame
+                        invalidate(ErrorCause.MALFORMED, "Frame aborted by escape.");
+                    }
+                    endFrame();
+                } else if (escaping) {
+                    data.get();
+                    escaping = false;
+                    if (current == escapedFlag) {
+                        append(flag);
+                    } else if (current == escapedEscape) {
+                        append(escape);
+                    } else {
+                        invalidate(ErrorCause.MALFORMED, "Invalid escape sequence in frame.");
+                    }
+                } else if (current == escape) {
+                    data.get();
+                    escaping = true;
+                } else {
+                    //copy the run of bytes up to the next special byte
+                    int start = data.position();
+                    int index = start + 1;
+                    while (index < data.limit()) {
+                        byte next = data.get(index);
+                        if (next == flag || next == escape) {
+                            break;
+                        }
+                        index++;
+                    }
+                    append(data, index - start);
+                }
+            }
+            updateCheck();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            escaping = false;
+        }
+        
+    }
+    
+}
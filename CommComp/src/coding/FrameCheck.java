@@ -0,0 +1,126 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32C;
+import java.util.zip.Checksum;
+
+/**
+ * The integrity checks that may be appended to a frame.
+ * 
+ * The check value of the message is appended as a big-endian trailer before
+ * the message is framed, so the trailer is stuffed along with the message.
+ * Each check is identified in capability handshakes by its wire bit, which 
+ * must never change or be reused.
+ * 
+ * @author Andrew_2
+ */
+public enum FrameCheck {
+    
+    NONE("None", 0, 0),
+    CRC16_CCITT("CRC-16/CCITT", 2, 1),
+    /**
+     * CRC-32C computed by the JDK, which uses hardware instructions where 
+     * available
+     */
+    CRC32C("CRC-32C", 4, 2);
+    
+    private final String displayName;
+    private final int length;
+    private final int wireBit;
+
+    FrameCheck(String displayName, int length, int wireBit) {
+        this.displayName = displayName;
+        this.length = length;
+        this.wireBit = wireBit;
+    }
+    
+    /**
+     * Get the bit identifying this check in capability handshakes
+     * 
+     * @return the bit index from 0 to 7
+     */
+    public int wireBit() {
+        return wireBit;
+    }
+    
+    /**
+     * Get the length of the check trailer
+     * 
+     * @return the length of the trailer in bytes
+     */
+    public int length() {
+        return length;
+    }
+    
+    /**
+     * Create a Checksum computing this check
+     * 
+     * @return the created Checksum or null if there is no check
+     */
+    public Checksum createChecksum() {
+        switch (this) {
+            case CRC16_CCITT:
+                return new CRC16CCITT();
+            case CRC32C:
+                return new CRC32C();
+            default:
+                return null;
+        }
+    }
+    
+    /**
+     * Write a check value as a trailer
+     * 
+     * @param dest the buffer to write the trailer to
+     * @param value the check value
+     */
+    public void putValue(ByteBuffer dest, long value) {
+        for (int shift = 8 * (length - 1); shift >= 0; shift -= 8) {
+            dest.put((byte) (value >>> shift));
+        }
+    }
+    
+    /**
+     * Read a check value from a trailer
+     * 
+     * @param src the buffer containing the trailer
+     * @param index the index of the trailer in the buffer
+     * @return the check value
+     */
+    public long getValue(ByteBuffer src, int index) {
+        long value = 0;
+        for (int i = 0; i < length; i++) {
+            value = (value << 8) | (src.get(index + i) & 0xFF);
+        }
+        return value;
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+    
+}
@@ -0,0 +1,53 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+import util.BlockOutput;
+
+/**
+ * An interface for incremental decoders of framed data.
+ * 
+ * Data may be passed to the decoder in arbitrary pieces. Each complete message 
+ * is passed to the block callback as soon as its frame ends. The buffer passed
+ * to the callback is reused by the decoder after the callback returns.
+ * 
+ * @author Andrew_2
+ */
+public interface FrameDecoder extends BlockOutput {
+    
+    /**
+     * Decode the remaining bytes of the given data, passing each complete
+     * message to the callback
+     * 
+     * @param data the framed data to decode
+     */
+    public void decode(ByteBuffer data);
+    
+    /**
+     * Discard any partially decoded frame
+     */
+    public void reset();
+    
+}
@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import util.BlockOutput;
+import util.StreamInput;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A class that reads an InputStream of frames, decodes the frames with a 
+ * FramingCodec, and passes the resulting messages as blocks to a callback for
+ * processing
+ * 
+ * @author Andrew_2
+ */
+public class FrameReader implements StreamInput, BlockOutput {
+
+    private InputStream in;
+    private final byte[] rawBuffer;
+    private final ByteBuffer buffer;
+    private final FrameDecoder decoder;
+
+    /**
+     * Construct a reader with the appropriate parameters
+     * 
+     * @param codec the codec used to decode frames
+     * @param bufferSize the size of the internal read buffer
+     * @param maxMessageLength the maximum length of a decoded message
+     */
+    public FrameReader(FramingCodec codec, int bufferSize, int maxMessageLength) {
+        rawBuffer = new byte[bufferSize];
+        buffer = ByteBuffer.wrap(rawBuffer);
+        decoder = codec.createDecoder(maxMessageLength);
+    }
+
+    /**
+     * Set the InputStream that frames are read from.
+     * Any partially decoded frame is discarded
+     * 
+     * @param in The InputStream to be read
+     */
+    @Override
+    public void setInputStream(InputStream in) {
+        this.in = in;
+        decoder.reset();
+    }
+
+    /**
+     * Set the callback used when a message is decoded
+     * 
+     * @param callback the callback used when a message is decoded
+     */
+    @Override
+    public void setBlockAvailableCallback(BlockOutputCallback callback) {
+        decoder.setBlockAvailableCallback(callback);
+    }
+
+    /**
+     * Read data from the InputStream, decode, and pass to callback
+     * 
+     * Blocks until data is available on the InputStream
+     * @throws IOException if the InputStream could not be read or has ended
+     */
+    @Override
+    public void read() throws IOException {
+        int numRead = in.read(rawBuffer);
+        if (numRead < 0) {
+            throw new EOFException("End of framed input stream");
+        }
+        buffer.clear();
+        buffer.limit(numRead);
+        decoder.decode(buffer);
+    }
+    
+}
@@ -0,0 +1,153 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import util.BlockInput;
+import util.ErrorCause;
+import util.ErrorStats;
+import util.StreamOutput;
+import util.Utility;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+
+/**
+ * A class that encodes messages as frames with a FramingCodec and writes the
+ * frames to an OutputStream
+ * 
+ * @author Andrew_2
+ */
+public class FrameWriter implements BlockInput, StreamOutput {
+
+    private static final ErrorStats errors = ErrorStats.forComponent("FrameWriter");
+
+    private final FramingCodec codec;
+    private final int maxMessageLength;
+    private OutputStream out;
+    private final byte[] rawFrame;
+    private final ByteBuffer frame;
+
+    /**
+     * Construct a writer with the appropriate parameters
+     * 
+     * @param codec the codec used to encode messages
+     * @param maxMessageLength the maximum length of a message
+     */
+    public FrameWriter(FramingCodec codec, int maxMessageLength) {
+        this.codec = codec;
+        this.maxMessageLength = maxMessageLength;
+        rawFrame = new byte[codec.maxFrameLength(maxMessageLength)];
+        frame = ByteBuffer.wrap(rawFrame);
+    }
+
+    /**
+     * Set the OutputStream where frames are output
+     * 
+     * @param out the OutputStream to write frames to
+     */
+    @Override
+    public void setOutputStream(OutputStream out) {
+        this.out = out;
+    }
+
+    /**
+     * Write a message to the writer
+     *
+     * @param block the message to be written
+     * @return whether the write was successful or not
+     */
+    @Override
+    public synchronized boolean writeBlock(ByteBuffer block) {
+        if (!checkLength(block.remaining())) {
+            return false;
+        }
+        frame.clear();
+        return writeFrame(codec.encode(block, frame));
+    }
+
+    /**
+     * Write a message gathered from several parts, encoding the parts in 
+     * place as a single frame
+     *
+     * @param parts the parts of the message to be written
+     * @return whether the write was successful or not
+     */
+    @Override
+    public synchronized boolean writeBlock(ByteBuffer... parts) {
+        if (!checkLength(Utility.remaining(parts))) {
+            return false;
+        }
+        frame.clear();
+        return writeFrame(codec.encode(parts, frame));
+    }
+    
+    /**
+     * Check that a message can be framed
+     * 
+     * @param length the length of the message
+     * @return whether the message is neither empty nor too long
+     */
+    private boolean checkLength(int length) {
+        if (length == 0) {
+            errors.record(ErrorCause.EMPTY, "Cannot frame empty message");
+            return false;
+        }
+        if (length > maxMessageLength) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in writer.");
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Write the encoded frame to the OutputStream
+     * 
+     * @param encoded whether the message was encoded into the frame
+     * @return whether the frame was written
+     */
+    private boolean writeFrame(boolean encoded) {
+        if (!encoded) {
+            errors.record(ErrorCause.OVERSIZE, "Message could not be framed");
+            return false;
+        }
+        try {
+            out.write(rawFrame, 0, frame.position());
+            out.flush();
+        } catch (IOException ex) {
+            errors.record(ErrorCause.IO_ERROR, "Could not write frame: " + ex.getMessage());
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Get the codec used to encode messages
+     * 
+     * @return the codec used to encode messages
+     */
+    public FramingCodec getCodec() {
+        return codec;
+    }
+    
+}
@@ -0,0 +1,82 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+/**
+ * The framings of messages supported by the framing codecs. 
+ * 
+ * Each framing is identified in capability handshakes by its wire bit, which
+ * must never change or be reused.
+ * 
+ * @author Andrew_2
+ */
+public enum Framing {
+    
+    COBS("COBS", 0),
+    SLIP("SLIP", 1),
+    HDLC("HDLC", 2),
+    LENGTH_PREFIX("Length Prefix", 3);
+    
+    private final String displayName;
+    private final int wireBit;
+
+    Framing(String displayName, int wireBit) {
+        this.displayName = displayName;
+        this.wireBit = wireBit;
+    }
+    
+    /**
+     * Get the bit identifying this framing in capability handshakes
+     * 
+     * @return the bit index from 0 to 7
+     */
+    public int wireBit() {
+        return wireBit;
+    }
+    
+    /**
+     * Create a codec of this framing
+     * 
+     * @param check the integrity check appended to each frame
+     * @return the created codec
+     */
+    public FramingCodec createCodec(FrameCheck check) {
+        switch (this) {
+            case SLIP:
+                return new SLIPCodec(check);
+            case HDLC:
+                return new HDLCCodec(check);
+            case LENGTH_PREFIX:
+                return new LengthPrefixCodec(check);
+            default:
+                return new COBSCodec(check);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return displayName;
+    }
+    
+}
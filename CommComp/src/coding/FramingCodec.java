@@ -0,0 +1,99 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+
+/**
+ * An interface for framing codecs that delimit messages within a stream of
+ * bytes.
+ * 
+ * A codec encodes a message as a single self-delimiting frame and creates
+ * decoders which recover messages from a stream of frames. Encoding appends to 
+ * the destination buffer so several frames may be packed together. Frames may
+ * carry an integrity check trailer, in which case decoders discard frames that
+ * fail the check.
+ * 
+ * @author Andrew_2
+ */
+public interface FramingCodec {
+    
+    /**
+     * Get the name of the framing
+     * 
+     * @return the name of the framing
+     */
+    public String getName();
+    
+    /**
+     * Get the integrity check appended to each frame
+     * 
+     * @return the integrity check of each frame
+     */
+    public FrameCheck getFrameCheck();
+    
+    /**
+     * Get the maximum length of a frame encoding a message of the given length
+     * 
+     * @param messageLength the length of the message to be encoded
+     * @return the maximum length of the encoded frame
+     */
+    public int maxFrameLength(int messageLength);
+    
+    /**
+     * Encode the remaining bytes of a message as a frame written at the 
+     * position of the frame buffer.
+     * 
+     * On success the message is consumed and the frame position is advanced
+     * past the encoded frame. On failure neither buffer is modified.
+     * 
+     * @param message the message to be encoded
+     * @param frame the buffer to write the frame to
+     * @return whether the encoding was successful
+     */
+    public boolean encode(ByteBuffer message, ByteBuffer frame);
+    
+    /**
+     * Encode the remaining bytes of the parts of a message, in order, as a 
+     * single frame written at the position of the frame buffer. The parts are
+     * encoded in place without being concatenated.
+     * 
+     * On success the parts are consumed and the frame position is advanced
+     * past the encoded frame. On failure no buffer is modified.
+     * 
+     * @param parts the parts of the message to be encoded
+     * @param frame the buffer to write the frame to
+     * @return whether the encoding was successful
+     */
+    public boolean encode(ByteBuffer[] parts, ByteBuffer frame);
+    
+    /**
+     * Create a decoder for frames of this codec
+     * 
+     * @param maxMessageLength the maximum length of a decoded message
+     * @return the created decoder
+     */
+    public FrameDecoder createDecoder(int maxMessageLength);
+    
+}
@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+/**
+ * A framing codec using the asynchronous HDLC-style flag and escape framing
+ * also used by PPP (RFC 1662)
+ * 
+ * The escaped form of a special byte is the byte with bit 5 inverted.
+ * 
+ * @author Andrew_2
+ */
+public class HDLCCodec extends FlagEscapeCodec {
+
+    public static final byte FLAG = 0x7E;
+    public static final byte ESCAPE = 0x7D;
+    
+    /**
+     * Construct an HDLC codec without an integrity check
+     */
+    public HDLCCodec() {
+        this(FrameCheck.NONE);
+    }
+    
+    /**
+     * Construct an HDLC codec with the specified integrity check
+     * 
+     * @param check the integrity check appended to each frame
+     */
+    public HDLCCodec(FrameCheck check) {
+        super(FLAG, ESCAPE, (byte) (FLAG ^ 0x20), (byte) (ESCAPE ^ 0x20), check);
+    }
+
+    @Override
+    protected String getFramingName() {
+        return "HDLC";
+    }
+    
+}
@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+import java.util.zip.Checksum;
+import util.ErrorCause;
+
+/**
+ * A framing codec prefixing each message with its length as a varint.
+ * 
+ * The message itself is copied without modification, so no per byte work is
+ * done. As there is no delimiter the framing cannot resynchronize after lost 
+ * or corrupted bytes and should be used only over reliable streams such as TCP.
+ * The length includes the check trailer if there is one.
+ * 
+ * @author Andrew_2
+ */
+public class LengthPrefixCodec extends AbstractFramingCodec {
+
+    /**
+     * Construct a length prefix codec without an integrity check
+     */
+    public LengthPrefixCodec() {
+        this(FrameCheck.NONE);
+    }
+    
+    /**
+     * Construct a length prefix codec with the specified integrity check
+     * 
+     * @param check the integrity check appended to each frame
+     */
+    public LengthPrefixCodec(FrameCheck check) {
+        super(check);
+    }
+
+    @Override
+    protected String getFramingName() {
+        return "Length Prefix";
+    }
+
+    @Override
+    public int maxFrameLength(int messageLength) {
+        int length = messageLength + check.length();
+        return Varint.size(length) + length;
+    }
+
+    @Override
+    public boolean encode(ByteBuffer message, ByteBuffer frame) {
+        int length = message.remaining();
+        if (frame.remaining() < maxFrameLength(length)) {
+            return false;
+        }
+        Checksum checksum = check.createChecksum();
+        Varint.put(frame, length + check.length());
+        copyRun(message, length, frame, checksum);
+        if (checksum != null) {
+            check.putValue(frame, checksum.getValue());
+        }
+        return true;
+    }
+
+    @Override
+    public boolean encode(ByteBuffer[] parts, ByteBuffer frame) {
+        int length = remaining(parts);
+        if (frame.remaining() < maxFrameLength(length)) {
+            return false;
+        }
+        Checksum checksum = check.createChecksum();
+        Varint.put(frame, length + check.length());
+        for (ByteBuffer part : parts) {
+            copyRun(part, part.remaining(), frame, checksum);
+        }
+        if (checksum != null) {
+            check.putValue(frame, checksum.getValue());
+        }
+        return true;
+    }
+
+    @Override
+    public FrameDecoder createDecoder(int maxMessageLength) {
+        return new LengthPrefixDecoder(maxMessageLength, check);
+    }
+    
+    /**
+     * A decoder of length prefixed frames.
+     * 
+     * Message bodies are copied in bulk. Messages exceeding the maximum
+     * length are skipped.
+     */
+    private static class LengthPrefixDecoder extends AbstractFrameDecoder {
+
+        /**
+         * The number of body bytes remaining or -1 while reading the prefix
+         */
+        private int remaining = -1;
+        private int prefix, prefixShift;
+        
+        private LengthPrefixDecoder(int maxMessageLength, FrameCheck check) {
+            super(maxMessageLength, check);
+        }
+
+        @Override
+        public void decode(ByteBuffer data) {
+            while (data.hasRemaining()) {
+                if (remaining < 0) {
+                    int b = data.get() & 0xFF;
+                    prefix |= (b & 0x7F) << prefixShift;
+                    prefixShift += 7;
+                    if ((b & 0x80) == 0) {
+                        if (prefix < 0) {
+                            errors.record(ErrorCause.MALFORMED, "Invalid length prefix in decoder.");
+                            reset();
+                            continue;
+                        }
+                        remaining = prefix;
+                        if (remaining > message.capacity()) {
+                            invalidate(ErrorCause.OVERSIZE, "Message length exceeded in decoder.");
+                        }
+                    } else if (prefixShift >= 7 * Varint.MAX_LENGTH) {
+                        errors.record(ErrorCause.MALFORMED, "Invalid length prefix in decoder.");
+                        reset();
+                        continue;
+                    }
+                } else {
+                    int num = Math.min(remaining, data.remaining());
+                    if (valid) {
+                        append(data, num);
+                    } else {
+                        data.position(data.position() + num);
+                    }
+                    remaining -= num;
+                }
+                if (remaining == 0) {
+                    endFrame();
+                }
+            }
+            updateCheck();
+        }
+
+        @Override
+        public void reset() {
+            super.reset();
+            remaining = -1;
+            prefix = 0;
+            prefixShift = 0;
+        }
+        
+    }
+    
+}
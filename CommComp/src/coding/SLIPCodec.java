@@ -0,0 +1,60 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+/**
+ * A framing codec using the serial line internet protocol (SLIP) framing of
+ * RFC 1055
+ * 
+ * @author Andrew_2
+ */
+public class SLIPCodec extends FlagEscapeCodec {
+
+    public static final byte END = (byte) 0xC0;
+    public static final byte ESC = (byte) 0xDB;
+    public static final byte ESC_END = (byte) 0xDC;
+    public static final byte ESC_ESC = (byte) 0xDD;
+    
+    /**
+     * Construct a SLIP codec without an integrity check
+     */
+    public SLIPCodec() {
+        this(FrameCheck.NONE);
+    }
+    
+    /**
+     * Construct a SLIP codec with the specified integrity check
+     * 
+     * @param check the integrity check appended to each frame
+     */
+    public SLIPCodec(FrameCheck check) {
+        super(END, ESC, ESC_END, ESC_ESC, check);
+    }
+
+    @Override
+    protected String getFramingName() {
+        return "SLIP";
+    }
+    
+}
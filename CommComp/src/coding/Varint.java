@@ -0,0 +1,96 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package coding;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Utility methods for unsigned variable length integers.
+ * 
+ * Integers are encoded seven bits per byte, least significant group first, 
+ * with the high bit of each byte set if more bytes follow.
+ * 
+ * @author Andrew_2
+ */
+public class Varint {
+    
+    /**
+     * The maximum encoded length of an int
+     */
+    public static final int MAX_LENGTH = 5;
+    
+    private Varint() {
+    }
+    
+    /**
+     * Get the encoded length of the given value
+     * 
+     * @param value the unsigned value to be encoded
+     * @return the number of bytes required to encode the value
+     */
+    public static int size(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+    
+    /**
+     * Write the value to the buffer as a varint
+     * 
+     * @param buffer the buffer to write to
+     * @param value the unsigned value to be written
+     */
+    public static void put(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+    
+    /**
+     * Read a varint from the buffer
+     * 
+     * @param buffer the buffer to read from
+     * @return the value read or -1 if the buffer does not contain a valid varint
+     */
+    public static int get(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 7 * MAX_LENGTH; shift += 7) {
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int b = buffer.get() & 0xFF;
+            value |= (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value < 0 ? -1 : value;
+            }
+        }
+        return -1;
+    }
+    
+}
@@ -24,6 +24,8 @@
 package comm;
 
 import java.nio.ByteBuffer;
+import util.BufferLease;
+import util.Utility;
 
 /**
  * An abstraction of a communication channel that transfers data in blocks.
@@ -48,6 +50,18 @@ public interface BlockComm extends Comm {
      */
     public void writeBlock(ByteBuffer block);
     
+    /**
+     * Write a block of data gathered from several parts, in order, to the 
+     * communication channel. The default implementation concatenates the 
+     * parts, so implementations able to write the parts in place should 
+     * override it.
+     * 
+     * @param parts The parts of the block of data to be written
+     */
+    public default void writeBlock(ByteBuffer... parts) {
+        writeBlock(Utility.concatenate(parts));
+    }
+    
     /**
      * The callback to be used when blocks are received by the communication channel
      */
@@ -59,6 +73,19 @@ public interface BlockComm extends Comm {
          * @param block the block received
          */
         public void onBlockReceived(BlockComm comm, ByteBuffer block);
+        
+        /**
+         * Called when the specified block communication channel receives a 
+         * block backed by a pooled buffer. The block is only valid during the
+         * call unless the lease is retained.
+         * 
+         * @param comm the block communication channel that received the block
+         * @param block the block received
+         * @param lease the lease of the buffer backing the block
+         */
+        public default void onBlockReceived(BlockComm comm, ByteBuffer block, BufferLease lease) {
+            onBlockReceived(comm, block);
+        }
     
     }
     
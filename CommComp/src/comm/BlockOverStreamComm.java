@@ -24,8 +24,11 @@
 package comm;
 
 import util.DefaultThread;
+import util.ErrorCause;
+import util.ErrorStats;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.OutputStream;
 import java.nio.ByteBuffer;
 
 /**
@@ -39,6 +42,8 @@ import java.nio.ByteBuffer;
  */
 public class BlockOverStreamComm implements BlockComm {
 
+    private static final ErrorStats errors = ErrorStats.forComponent("BlockOverStreamComm");
+
     private StreamComm streamComm;
     private DefaultThread readThread;
     private BlockReceivedCallback readCallback;
@@ -63,7 +68,7 @@ public class BlockOverStreamComm implements BlockComm {
                         readCallback.onBlockReceived(BlockOverStreamComm.this, ByteBuffer.wrap(inBuf, 0, numRead));
                     }
                 } catch (IOException ex) {
-                    ex.printStackTrace();
+                    errors.record(ErrorCause.IO_ERROR, "Could not read stream: " + ex.getMessage());
                 }
             }
         });
@@ -76,14 +81,40 @@ public class BlockOverStreamComm implements BlockComm {
     }
 
     @Override
-    public void writeBlock(ByteBuffer block) {
+    public synchronized void writeBlock(ByteBuffer block) {
         byte blockArray[] = new byte[block.remaining()];
         block.get(blockArray);
         try {
             streamComm.getOutputStream().write(blockArray);
             streamComm.getOutputStream().flush();
         } catch (IOException ex) {
-            ex.printStackTrace();
+            errors.record(ErrorCause.IO_ERROR, "Could not write stream: " + ex.getMessage());
+        }
+    }
+
+    /**
+     * Write the parts of a block to the stream in turn, flushing once after 
+     * the last part
+     * 
+     * @param parts the parts of the block of data to be written
+     */
+    @Override
+    public synchronized void writeBlock(ByteBuffer... parts) {
+        OutputStream out = streamComm.getOutputStream();
+        try {
+            for (ByteBuffer part : parts) {
+                if (part.hasArray()) {
+                    out.write(part.array(), part.arrayOffset() + part.position(), part.remaining());
+                    part.position(part.limit());
+                } else {
+                    byte partArray[] = new byte[part.remaining()];
+                    part.get(partArray);
+                    out.write(partArray);
+                }
+            }
+            out.flush();
+        } catch (IOException ex) {
+            errors.record(ErrorCause.IO_ERROR, "Could not write stream: " + ex.getMessage());
         }
     }
 
@@ -29,6 +29,8 @@ import gnu.io.NoSuchPortException;
 import gnu.io.PortInUseException;
 import gnu.io.SerialPort;
 import gnu.io.UnsupportedCommOperationException;
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.OutputStream;
@@ -46,7 +48,7 @@ public class SerialComm implements StreamComm {
     private int baudrate, databits, stopbits, parity;
     private String portName;
     private SerialPort serialPort;
-    private boolean connected;
+    private volatile boolean connected;
 
     private InputStream in;
     private OutputStream out;
@@ -94,6 +96,20 @@ public class SerialComm implements StreamComm {
         this.parity = parity;
     }
 
+    /**
+     * Get the number of bytes per second the port can transfer with its 
+     * configured baud rate, each byte being framed by a start bit, the 
+     * parity bit if any and the stop bits
+     * 
+     * @return the capacity of the port in bytes per second
+     */
+    public double getBytesPerSecond() {
+        double stop = stopbits == SerialPort.STOPBITS_2 ? 2 
+                : stopbits == SerialPort.STOPBITS_1_5 ? 1.5 : 1;
+        int parityBits = parity == SerialPort.PARITY_NONE ? 0 : 1;
+        return baudrate / (1 + databits + parityBits + stop);
+    }
+
     /**
      * Connect to the serial port
      * 
@@ -117,8 +133,8 @@ public class SerialComm implements StreamComm {
                     serialPort = (SerialPort) commPort;
                     serialPort.setSerialPortParams(baudrate, databits, stopbits, parity);
 
-                    in = serialPort.getInputStream();
-                    out = serialPort.getOutputStream();
+                    in = new PortInputStream(serialPort.getInputStream());
+                    out = new PortOutputStream(serialPort.getOutputStream());
 
                     connected = true;
 
@@ -155,7 +171,9 @@ public class SerialComm implements StreamComm {
     }
 
     /**
-     * Returns if the serial is connected
+     * Returns if the serial is connected, that is the port is open and no 
+     * read or write has failed since, for example when a USB device is 
+     * unplugged
      * 
      * @return whether the serial comm is connected
      */
@@ -256,5 +274,79 @@ public class SerialComm implements StreamComm {
         }
         return h;
     }
+    
+    /**
+     * An InputStream from the serial port marking the comm disconnected when
+     * a read fails
+     */
+    private class PortInputStream extends FilterInputStream {
+
+        PortInputStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            try {
+                return in.read();
+            } catch (IOException ex) {
+                connected = false;
+                throw ex;
+            }
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            try {
+                return in.read(b, off, len);
+            } catch (IOException ex) {
+                connected = false;
+                throw ex;
+            }
+        }
+        
+    }
+    
+    /**
+     * An OutputStream to the serial port marking the comm disconnected when a
+     * write fails
+     */
+    private class PortOutputStream extends FilterOutputStream {
+
+        PortOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            try {
+                out.write(b);
+            } catch (IOException ex) {
+                connected = false;
+                throw ex;
+            }
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            try {
+                out.write(b, off, len);
+            } catch (IOException ex) {
+                connected = false;
+                throw ex;
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            try {
+                out.flush();
+            } catch (IOException ex) {
+                connected = false;
+                throw ex;
+            }
+        }
+        
+    }
 
 }
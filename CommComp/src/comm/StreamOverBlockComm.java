@@ -83,11 +83,19 @@ public class StreamOverBlockComm implements StreamComm {
 
     @Override
     public boolean connect() {
+        bin.open();
         return blockComm.connect();
     }
 
+    /**
+     * Disconnect the wrapped BlockComm and close the InputStream, releasing
+     * any thread blocked reading it
+     * 
+     * @return whether the disconnect was successful
+     */
     @Override
     public boolean disconnect() {
+        bin.close();
         return blockComm.disconnect();
 
     }
@@ -23,7 +23,12 @@
  */
 package comm;
 
+import util.BufferLease;
+import util.BufferPool;
 import util.DefaultThread;
+import util.ErrorCause;
+import util.ErrorStats;
+import util.Utility;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
@@ -40,16 +45,21 @@ import java.nio.ByteBuffer;
  */
 public class UDPBlockComm implements BlockComm {
 
+    private static final ErrorStats errors = ErrorStats.forComponent("UDPBlockComm");
+
     private int port;
     private InetAddress address;
     private DatagramSocket socket;
 
-    private boolean connected;
+    private volatile boolean connected;
 
     private BlockReceivedCallback blockReceivedCallback;
     private DefaultThread readThread;
 
     private int packetBufferSize;
+    private final BufferPool packetPool;
+    private final byte[] gatherArray;
+    private final DatagramPacket gatherPacket;
 
     /**
      * The default address for UDP which is the loopback address for localhost
@@ -87,6 +97,9 @@ public class UDPBlockComm implements BlockComm {
         this.address = address;
         this.port = port;
         this.packetBufferSize = defaultPacketBufferSize;
+        this.packetPool = new BufferPool(packetBufferSize);
+        this.gatherArray = new byte[packetBufferSize];
+        this.gatherPacket = new DatagramPacket(gatherArray, 0);
 
         try {
             socket = new DatagramSocket();
@@ -122,8 +135,11 @@ public class UDPBlockComm implements BlockComm {
         socket.connect(address, port);
 
         connected = true;
+        //each read thread receives into its own packet, as a stopped thread 
+        //may still be waiting in receive when the next one starts
+        DatagramPacket receivePacket = new DatagramPacket(new byte[0], 0);
         readThread = new DefaultThread(() -> {
-            readUDP();
+            readUDP(receivePacket);
         });
         readThread.start();
 
@@ -137,13 +153,16 @@ public class UDPBlockComm implements BlockComm {
      */
     @Override
     public boolean disconnect() {
+        connected = false;
         readThread.stop();
         socket.disconnect();
         return true;
     }
 
     /**
-     * Returns whether the UDP is connected
+     * Returns whether the UDP is connected, that is connect has been called 
+     * and no send or receive has failed since, for example when the network 
+     * becomes unreachable or the peer refuses the datagrams
      *
      * @return whether the UDP is connected
      */
@@ -153,12 +172,18 @@ public class UDPBlockComm implements BlockComm {
     }
 
     /**
-     * Internal function for reading from UDP and writing data to the stream
+     * Internal function for reading from UDP and writing data to the stream.
+     * 
+     * Packets are received into buffers leased from a pool, which are reused
+     * for later packets unless the callback retains them
+     * 
+     * @param receivePacket the packet of the calling read thread
      */
-    private void readUDP() {
+    private void readUDP(DatagramPacket receivePacket) {
         boolean invalid = false;
-        byte[] rec = new byte[packetBufferSize];
-        DatagramPacket receivePacket = new DatagramPacket(rec, rec.length);
+        BufferLease lease = packetPool.acquire();
+        ByteBuffer buf = lease.buffer();
+        receivePacket.setData(buf.array(), buf.arrayOffset(), buf.capacity());
         
         /*
          If no packet is received by the timeout, a SocketTimeoutException 
@@ -172,16 +197,16 @@ public class UDPBlockComm implements BlockComm {
             //udp timeout invalidates packet
             invalid = true;
         } catch (IOException ex) {
-            System.err.println("Could not read from UDP");
+            invalid = true;
+            connected = false;
+            errors.record(ErrorCause.IO_ERROR, "Could not read from UDP");
         }
 
         if (receivePacket.getLength() != 0 && !invalid) {
-            ByteBuffer buf = ByteBuffer.wrap(rec);
-            buf.position(receivePacket.getOffset());
-            buf.limit(receivePacket.getLength() + buf.position());
-            blockReceivedCallback.onBlockReceived(this, buf.slice());
-
+            buf.limit(receivePacket.getLength());
+            blockReceivedCallback.onBlockReceived(this, buf, lease);
         }
+        lease.release();
     }
 
     /**
@@ -192,18 +217,64 @@ public class UDPBlockComm implements BlockComm {
     @Override
     public void writeBlock(ByteBuffer block) {
         if (!isConnected()) {
-            System.err.println("Cannot write to UDP when disconnected");
+            errors.record(ErrorCause.DISCONNECTED, "Cannot write to UDP when disconnected");
         } else if(!block.hasRemaining()) {
-            System.err.println("Cannot write empty block to UDP");
+            errors.record(ErrorCause.EMPTY, "Cannot write empty block to UDP");
         } else {
             
-            byte[] blockArray = new byte[block.remaining()];
-            block.get(blockArray);
-            DatagramPacket sendPacket = new DatagramPacket(blockArray, blockArray.length, address, port);
+            DatagramPacket sendPacket;
+            if (block.hasArray()) {
+                //send directly from the backing array of the block
+                sendPacket = new DatagramPacket(block.array(), block.arrayOffset() + block.position(),
+                        block.remaining(), address, port);
+                block.position(block.limit());
+            } else {
+                byte[] blockArray = new byte[block.remaining()];
+                block.get(blockArray);
+                sendPacket = new DatagramPacket(blockArray, blockArray.length, address, port);
+            }
             try {
                 socket.send(sendPacket);
             } catch (IOException ex) {
-                System.err.println("Could not send to UDP");
+                connected = false;
+                errors.record(ErrorCause.IO_ERROR, "Could not send to UDP");
+            }
+        }
+    }
+
+    /**
+     * Gather the parts of a block into a datagram and send it. The parts are
+     * copied into a send buffer reused for every datagram, as a datagram must
+     * be sent from one array.
+     * 
+     * @param parts the parts of the block of data to be written
+     */
+    @Override
+    public void writeBlock(ByteBuffer... parts) {
+        int length = Utility.remaining(parts);
+        if (!isConnected()) {
+            errors.record(ErrorCause.DISCONNECTED, "Cannot write to UDP when disconnected");
+        } else if (length == 0) {
+            errors.record(ErrorCause.EMPTY, "Cannot write empty block to UDP");
+        } else if (length > gatherArray.length) {
+            errors.record(ErrorCause.OVERSIZE, "Block exceeds UDP packet buffer");
+        } else {
+            synchronized (gatherPacket) {
+                int offset = 0;
+                for (ByteBuffer part : parts) {
+                    int partLength = part.remaining();
+                    part.get(gatherArray, offset, partLength);
+                    offset += partLength;
+                }
+                gatherPacket.setData(gatherArray, 0, length);
+                gatherPacket.setAddress(address);
+                gatherPacket.setPort(port);
+                try {
+                    socket.send(gatherPacket);
+                } catch (IOException ex) {
+                    connected = false;
+                    errors.record(ErrorCause.IO_ERROR, "Could not send to UDP");
+                }
             }
         }
     }
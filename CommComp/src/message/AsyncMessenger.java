@@ -0,0 +1,302 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import util.ErrorCause;
+import util.Utility;
+
+/**
+ * A Messenger sending messages asynchronously from a bounded outbox.
+ * 
+ * Messages are copied into the outbox and written to the wrapped Messenger by
+ * a dedicated I/O thread, so a stalled channel does not block the sending 
+ * thread. {@link #sendAsync(ByteBuffer)} returns a future completed once the
+ * message has been written, with whether the write succeeded. 
+ * {@link #trySend(ByteBuffer)} never blocks, and the behaviour of the other 
+ * send methods when the outbox is full is set by the OverflowPolicy.
+ * 
+ * The outbox slots are allocated once, so sending without futures allocates
+ * nothing in steady state.
+ * 
+ * @author Andrew_2
+ */
+public class AsyncMessenger extends OutboxMessenger<CompletableFuture<Boolean>> {
+
+    public static final int defaultCapacity = 64;
+    public static final int defaultMaxMessageLen = 254;
+    public static final long defaultBlockTimeout = 1000;
+    
+    /**
+     * The behaviour when a message is sent while the outbox is full
+     */
+    public enum OverflowPolicy {
+        /**
+         * Wait for space up to the block timeout, then reject the new message
+         */
+        BLOCK,
+        /**
+         * Reject the new message
+         */
+        DROP_NEWEST,
+        /**
+         * Discard the oldest queued message to make space for the new message
+         */
+        DROP_OLDEST
+    }
+    
+    private final Entry[] outbox;
+    private int head, count;
+    private OverflowPolicy overflowPolicy = OverflowPolicy.BLOCK;
+    private long blockTimeout = defaultBlockTimeout;
+    
+    /**
+     * Construct an AsyncMessenger with the default outbox capacity and maximum
+     * message length
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public AsyncMessenger(Messenger messenger) {
+        this(messenger, defaultCapacity, defaultMaxMessageLen);
+    }
+    
+    /**
+     * Construct an AsyncMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param capacity the maximum number of messages in the outbox
+     * @param maxMessageLen the maximum length of a message
+     */
+    public AsyncMessenger(Messenger messenger, int capacity, int maxMessageLen) {
+        super(messenger, maxMessageLen, "Async messenger sender");
+        outbox = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            outbox[i] = new Entry(maxMessageLen);
+        }
+    }
+    
+    /**
+     * Set the behaviour when the outbox is full
+     * 
+     * @param overflowPolicy the overflow policy
+     */
+    public synchronized void setOverflowPolicy(OverflowPolicy overflowPolicy) {
+        this.overflowPolicy = overflowPolicy;
+    }
+    
+    /**
+     * Set the maximum time to wait for space with the BLOCK overflow policy
+     * 
+     * @param blockTimeout the timeout in milliseconds
+     */
+    public synchronized void setBlockTimeout(long blockTimeout) {
+        this.blockTimeout = blockTimeout;
+    }
+
+    /**
+     * Queue a message to be sent, applying the overflow policy if the outbox 
+     * is full
+     * 
+     * @param msg the message to send
+     * @return whether the message was queued
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return enqueue(msg, null, null, overflowPolicy);
+    }
+    
+    /**
+     * Queue a message gathered from several parts, copying the parts straight
+     * into the outbox slot, applying the overflow policy if the outbox is full
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was queued
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return enqueue(null, parts, null, overflowPolicy);
+    }
+    
+    /**
+     * Queue a message to be sent if there is space, never blocking
+     * 
+     * @param msg the message to send
+     * @return whether the message was queued
+     */
+    public boolean trySend(ByteBuffer msg) {
+        return enqueue(msg, null, null, OverflowPolicy.DROP_NEWEST);
+    }
+    
+    /**
+     * Queue a message to be sent, applying the overflow policy if the outbox 
+     * is full
+     * 
+     * @param msg the message to send
+     * @return a future completed with whether the message was written, or 
+     * false if it was not queued or was discarded
+     */
+    public CompletableFuture<Boolean> sendAsync(ByteBuffer msg) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        if (!enqueue(msg, null, future, overflowPolicy)) {
+            future.complete(false);
+        }
+        return future;
+    }
+    
+    /**
+     * Copy a message into the outbox. The future of a discarded message is 
+     * completed after the lock is released, so that its callbacks cannot 
+     * block the outbox.
+     * 
+     * @param msg the message to queue, or null to queue the parts
+     * @param parts the parts of the message if msg is null
+     * @param future the future to complete when written or null
+     * @param policy the overflow policy to apply
+     * @return whether the message was queued
+     */
+    private boolean enqueue(ByteBuffer msg, ByteBuffer[] parts, CompletableFuture<Boolean> future, OverflowPolicy policy) {
+        int length = msg != null ? msg.remaining() : Utility.remaining(parts);
+        if (length > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in async messenger.");
+            return false;
+        }
+        CompletableFuture<Boolean> discarded = null;
+        boolean queued = false;
+        synchronized (this) {
+            if (count == outbox.length) {
+                switch (policy) {
+                    case BLOCK:
+                        long deadline = System.currentTimeMillis() + blockTimeout;
+                        try {
+                            while (running && count == outbox.length) {
+                                long wait = deadline - System.currentTimeMillis();
+                                if (wait <= 0) {
+                                    break;
+                                }
+                                wait(wait);
+                            }
+                        } catch (InterruptedException ex) {
+                            Thread.currentThread().interrupt();
+                        }
+                        break;
+                    case DROP_OLDEST:
+                        discarded = outbox[head].future;
+                        outbox[head].future = null;
+                        head = (head + 1) % outbox.length;
+                        count--;
+                        errors.record(ErrorCause.OVERFLOW);
+                        break;
+                    default:
+                        break;
+                }
+            }
+            if (!running) {
+                errors.record(ErrorCause.DISCONNECTED, "Cannot send when disconnected.");
+            } else if (count == outbox.length) {
+                errors.record(ErrorCause.OVERFLOW);
+            } else {
+                Entry entry = outbox[(head + count) % outbox.length];
+                entry.length = length;
+                if (msg != null) {
+                    msg.get(entry.data, 0, length);
+                } else {
+                    int offset = 0;
+                    for (ByteBuffer part : parts) {
+                        int partLength = part.remaining();
+                        part.get(entry.data, offset, partLength);
+                        offset += partLength;
+                    }
+                }
+                entry.future = future;
+                count++;
+                notifyAll();
+                queued = true;
+            }
+        }
+        if (discarded != null) {
+            discarded.complete(false);
+        }
+        return queued;
+    }
+    
+    /**
+     * Get the number of messages waiting in the outbox
+     * 
+     * @return the number of queued messages
+     */
+    public synchronized int getQueuedCount() {
+        return count;
+    }
+    
+    @Override
+    protected boolean isOutboxEmpty() {
+        return count == 0;
+    }
+
+    @Override
+    protected CompletableFuture<Boolean> takeNext(ByteBuffer buffer) {
+        Entry entry = outbox[head];
+        buffer.put(entry.data, 0, entry.length);
+        CompletableFuture<Boolean> future = entry.future;
+        entry.future = null;
+        head = (head + 1) % outbox.length;
+        count--;
+        return future;
+    }
+
+    @Override
+    protected void discardAll(List<CompletableFuture<Boolean>> futures) {
+        while (count > 0) {
+            if (outbox[head].future != null) {
+                futures.add(outbox[head].future);
+                outbox[head].future = null;
+            }
+            head = (head + 1) % outbox.length;
+            count--;
+        }
+    }
+
+    @Override
+    protected void onWritten(CompletableFuture<Boolean> future, boolean sent) {
+        future.complete(sent);
+    }
+    
+    /**
+     * A slot of the outbox
+     */
+    private static class Entry {
+        
+        final byte[] data;
+        int length;
+        CompletableFuture<Boolean> future;
+
+        Entry(int capacity) {
+            data = new byte[capacity];
+        }
+        
+    }
+    
+}
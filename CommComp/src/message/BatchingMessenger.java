@@ -0,0 +1,260 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.Varint;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import util.BufferLease;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+import util.Utility;
+
+/**
+ * A Messenger packing many small messages into one message of the wrapped
+ * Messenger, so that each frame or datagram carries a batch of messages.
+ * 
+ * Each message in a batch is preceded by its length as a varint. A batch is
+ * sent when the next message would not fit in the frame, when it holds the
+ * maximum count of messages or when its oldest message has waited for the
+ * maximum delay. Received batches are unpacked and each message delivered in
+ * turn as a slice of the batch.
+ * 
+ * @author Andrew_2
+ */
+public class BatchingMessenger extends MessengerWrapper {
+
+    public static final int defaultFrameSize = 254;
+    public static final int defaultMaxCount = 32;
+    public static final long defaultMaxDelay = 5;
+    
+    private final ByteBuffer batch;
+    private final int maxCount;
+    private final long maxDelay;
+    private int count;
+    
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> deadline;
+    private final Runnable deadlineTask = this::flush;
+    
+    private long batchCount;
+    private long messageCount;
+
+    /**
+     * Construct a BatchingMessenger with the default frame size, maximum count
+     * and maximum delay
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public BatchingMessenger(Messenger messenger) {
+        this(messenger, defaultFrameSize, defaultMaxCount, defaultMaxDelay);
+    }
+    
+    /**
+     * Construct a BatchingMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param frameSize the maximum message length of the wrapped Messenger
+     * @param maxCount the maximum number of messages in a batch
+     * @param maxDelay the maximum time a message waits for its batch to be 
+     * sent in milliseconds
+     */
+    public BatchingMessenger(Messenger messenger, int frameSize, int maxCount, long maxDelay) {
+        super(messenger);
+        this.batch = ByteBuffer.allocate(frameSize);
+        this.maxCount = maxCount;
+        this.maxDelay = maxDelay;
+    }
+
+    /**
+     * Add a message to the current batch. The batch is sent immediately if it
+     * is full, otherwise within the maximum delay. If the messenger is not
+     * connected the batch is sent immediately.
+     * 
+     * @param msg the message to send
+     * @return whether the message was added to a batch and any batch sent 
+     * in making room for it was sent successfully
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return add(msg, null);
+    }
+    
+    /**
+     * Add a message gathered from several parts to the current batch, copying
+     * the parts straight into the batch
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was added to a batch and any batch sent 
+     * in making room for it was sent successfully
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return add(null, parts);
+    }
+    
+    /**
+     * Add a message or the parts of a message to the current batch
+     * 
+     * @param msg the message, or null to add the parts
+     * @param parts the parts of the message if msg is null
+     * @return whether the message was added
+     */
+    private boolean add(ByteBuffer msg, ByteBuffer[] parts) {
+        int length = msg != null ? msg.remaining() : Utility.remaining(parts);
+        int size = Varint.size(length) + length;
+        if (size > batch.capacity()) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in batching messenger.");
+            return false;
+        }
+        boolean sent = true;
+        synchronized (batch) {
+            if (size > batch.remaining()) {
+                sent = sendBatch();
+            }
+            Varint.put(batch, length);
+            if (msg != null) {
+                batch.put(msg);
+            } else {
+                for (ByteBuffer part : parts) {
+                    batch.put(part);
+                }
+            }
+            count++;
+            messageCount++;
+            if (count >= maxCount || timer == null) {
+                sent &= sendBatch();
+            } else if (count == 1) {
+                deadline = timer.schedule(deadlineTask, maxDelay, TimeUnit.MILLISECONDS);
+            }
+        }
+        return sent;
+    }
+    
+    /**
+     * Send the current batch immediately
+     * 
+     * @return whether the batch was sent successfully or was empty
+     */
+    public boolean flush() {
+        synchronized (batch) {
+            return count == 0 || sendBatch();
+        }
+    }
+    
+    /**
+     * Send the current batch, which must not be empty. The caller must hold 
+     * the batch lock.
+     * 
+     * @return whether the batch was sent successfully
+     */
+    private boolean sendBatch() {
+        if (deadline != null) {
+            deadline.cancel(false);
+            deadline = null;
+        }
+        batch.flip();
+        boolean sent = messenger.sendMessage(batch);
+        batch.clear();
+        count = 0;
+        batchCount++;
+        return sent;
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        onWrappedMessageReceived(msg, null);
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg, BufferLease lease) {
+        int end = msg.limit();
+        while (msg.position() < end) {
+            int length = Varint.get(msg);
+            if (length < 0 || length > end - msg.position()) {
+                errors.record(ErrorCause.MALFORMED, "Invalid message length in batch.");
+                return;
+            }
+            int next = msg.position() + length;
+            ByteBuffer message = msg.duplicate();
+            message.limit(next);
+            if (lease != null) {
+                deliver(message, lease);
+            } else {
+                deliver(message);
+            }
+            msg.position(next);
+        }
+    }
+    
+    /**
+     * Get the number of batches sent
+     * 
+     * @return the number of batches sent
+     */
+    public long getBatchCount() {
+        synchronized (batch) {
+            return batchCount;
+        }
+    }
+    
+    /**
+     * Get the number of messages sent in batches
+     * 
+     * @return the number of messages sent
+     */
+    public long getMessageCount() {
+        synchronized (batch) {
+            return messageCount;
+        }
+    }
+
+    @Override
+    public boolean connect() {
+        synchronized (batch) {
+            if (timer == null) {
+                timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Batching timer"));
+            }
+        }
+        return messenger.connect();
+    }
+
+    @Override
+    public boolean disconnect() {
+        synchronized (batch) {
+            if (count > 0) {
+                sendBatch();
+            }
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+        return messenger.disconnect();
+    }
+    
+}
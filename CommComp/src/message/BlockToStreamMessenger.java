@@ -25,10 +25,15 @@ package message;
 
 import util.BlockInput;
 import util.BlockOutput;
+import util.BufferLease;
+import util.ErrorCause;
+import util.ErrorStats;
 import util.StreamInput;
 import util.StreamOutput;
+import util.StreamPump;
 import comm.StreamComm;
 import java.nio.ByteBuffer;
+import java.util.concurrent.Executor;
 
 /**
  * An implementation of a Messenger using a StreamComm block communication channel.
@@ -37,10 +42,16 @@ import java.nio.ByteBuffer;
  * written as a stream to the StreamComm. Messages are received through 
  * stream from the StreamComm and decoded to blocks by the provided decoder.
  * 
+ * While connected, a receive pump thread blocks reading the stream and decodes
+ * data as soon as it arrives. Decoded messages are delivered on the pump thread
+ * unless a delivery Executor is set.
+ * 
  * @author Andrew_2
  */
 public class BlockToStreamMessenger implements Messenger {
 
+    private static final ErrorStats errors = ErrorStats.forComponent("BlockToStreamMessenger");
+
     private BlockInput encoderInput;
     private StreamOutput encoderOutput;
     private StreamInput decoderInput;
@@ -49,6 +60,7 @@ public class BlockToStreamMessenger implements Messenger {
     private StreamComm streamComm;
     
     private BlockReceivedToDecoderCallback blockCallback;
+    private StreamPump receivePump;
 
     /**
      * Construct a BlockToStreamMessenger with the given encoder, decoder, and StreamComm
@@ -76,6 +88,8 @@ public class BlockToStreamMessenger implements Messenger {
         
         this.blockCallback = new BlockReceivedToDecoderCallback();
         decoderOuput.setBlockAvailableCallback(blockCallback);
+        
+        this.receivePump = new StreamPump(decoderInput, "Messenger receive pump");
     }
 
     @Override
@@ -83,24 +97,67 @@ public class BlockToStreamMessenger implements Messenger {
         return encoderInput.writeBlock(msg);
     }
 
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return encoderInput.writeBlock(parts);
+    }
+
     @Override
     public void setMessageReceivedCallback(MessageReceivedCallback msgCallback) {
         this.blockCallback.setMessageReceivedCallback(msgCallback);
     }
 
+    /**
+     * Set the Executor used to deliver received messages to the callback.
+     * 
+     * If the executor is null, messages are delivered directly on the receive
+     * pump thread. Otherwise each message is copied before being handed to the
+     * executor as the decoder reuses its buffer.
+     * 
+     * @param deliveryExecutor the Executor to deliver messages on
+     */
+    public void setDeliveryExecutor(Executor deliveryExecutor) {
+        this.blockCallback.setDeliveryExecutor(deliveryExecutor);
+    }
+
+    /**
+     * Connect the StreamComm and start the receive pump
+     * 
+     * The streams of the StreamComm are rebound as some StreamComms only
+     * create their streams when connected.
+     * 
+     * @return whether the connect was successful
+     */
     @Override
     public boolean connect() {
         if(streamComm != null) {
-            return streamComm.connect();
+            boolean success = streamComm.connect();
+            if (success) {
+                encoderOutput.setOutputStream(streamComm.getOutputStream());
+                decoderInput.setInputStream(streamComm.getInputStream());
+                receivePump.start();
+            }
+            return success;
         } else {
             return false;
         }
     }
 
+    /**
+     * Stop the receive pump and disconnect the StreamComm.
+     * 
+     * Disconnecting closes the streams which releases a pump blocked in
+     * a read that does not respond to interrupts.
+     * 
+     * @return whether the disconnect was successful
+     */
     @Override
     public boolean disconnect() {
         if(streamComm != null) {
-            return streamComm.disconnect();
+            receivePump.stop();
+            boolean success = streamComm.disconnect();
+            receivePump.join();
+            return success;
         } else {
             return false;
         }
@@ -117,18 +174,53 @@ public class BlockToStreamMessenger implements Messenger {
     
     private class BlockReceivedToDecoderCallback implements BlockOutput.BlockOutputCallback {
 
-        MessageReceivedCallback msgCallback;
+        volatile MessageReceivedCallback msgCallback;
+        volatile Executor deliveryExecutor;
         
         public void setMessageReceivedCallback(MessageReceivedCallback msgCallback) {
             this.msgCallback = msgCallback;
         }
+        
+        public void setDeliveryExecutor(Executor deliveryExecutor) {
+            this.deliveryExecutor = deliveryExecutor;
+        }
 
         @Override
         public void onBlockOutput(ByteBuffer block) {
-            if(msgCallback != null) {
-                msgCallback.onMessageReceived(BlockToStreamMessenger.this, block);
+            onBlockOutput(block, null);
+        }
+
+        @Override
+        public void onBlockOutput(ByteBuffer block, BufferLease lease) {
+            MessageReceivedCallback cb = msgCallback;
+            Executor executor = deliveryExecutor;
+            if(cb == null) {
+                errors.record(ErrorCause.NO_CALLBACK, "Cannot receive message. Callback is null");
+            } else if(executor == null) {
+                deliver(cb, block, lease);
+            } else if(lease != null) {
+                //hold the pooled buffer until the executor has delivered it
+                lease.retain();
+                executor.execute(() -> {
+                    try {
+                        cb.onMessageReceived(BlockToStreamMessenger.this, block, lease);
+                    } finally {
+                        lease.release();
+                    }
+                });
+            } else {
+                ByteBuffer copy = ByteBuffer.allocate(block.remaining());
+                copy.put(block.duplicate());
+                copy.flip();
+                executor.execute(() -> cb.onMessageReceived(BlockToStreamMessenger.this, copy));
+            }
+        }
+        
+        private void deliver(MessageReceivedCallback cb, ByteBuffer block, BufferLease lease) {
+            if(lease != null) {
+                cb.onMessageReceived(BlockToStreamMessenger.this, block, lease);
             } else {
-                System.err.println("Cannot receive message. Callback is null");
+                cb.onMessageReceived(BlockToStreamMessenger.this, block);
             }
         }
         
@@ -0,0 +1,420 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ThreadLocalRandom;
+import util.BufferLease;
+import util.ErrorCause;
+import util.ErrorStats;
+import util.Utility;
+
+/**
+ * A Messenger bonding several links, such as a serial radio and Wi-Fi, into
+ * one channel.
+ * 
+ * Each message is prefixed with the epoch of the sender, a 15 bit sequence 
+ * number and a flag set if it is sent on every link, 
+ * [epoch][redundant:1 seq:15][message], and sent on the links chosen by the
+ * send policy. Each link has its own sender thread and outbox, the fastest 
+ * link being given its copy first, so a stalled link never holds up the 
+ * others. The first copy of each message to arrive on any link is delivered 
+ * and later copies are dropped using a sliding window of recently received 
+ * sequence numbers. 
+ * 
+ * Sequence numbers start at zero in a new random epoch on each connect. A 
+ * receiver seeing a new epoch restarts its window, and drops copies of the 
+ * previous epoch still arriving on slower links.
+ * 
+ * The latency of each link is estimated from how far its copies of redundant
+ * messages arrive behind the first copy, and copies not arriving while the 
+ * message is in the window count as a penalty. The FASTEST policy sends on the connected
+ * link with the lowest estimate, so bulk data can use the best link while 
+ * critical control is sent REDUNDANT on every link. The estimates rely on 
+ * the peer sending some messages on every link.
+ * 
+ * @author Andrew_2
+ */
+public class BondedMessenger implements Messenger {
+
+    /**
+     * Policies choosing the links on which to send a message
+     */
+    public enum SendPolicy {
+        /**
+         * Send on every connected link
+         */
+        REDUNDANT,
+        /**
+         * Send on the connected link with the lowest latency estimate
+         */
+        FASTEST
+    }
+    
+    public static final int HEADER_LENGTH = 3;
+    public static final int defaultMaxMessageLen = 251;
+    public static final int WINDOW = 256;
+    private static final int SEQ_MASK = 0x7FFF;
+    private static final int REDUNDANT_FLAG = 0x8000;
+    
+    private static final double ALPHA = 1.0 / 32;
+    //the lag counted for a copy that never arrives, in milliseconds
+    private static final double MISSING_PENALTY = 250;
+    
+    private final Messenger[] links;
+    private final AsyncMessenger[] senders;
+    private final ErrorStats errors = ErrorStats.forComponent("BondedMessenger");
+    private volatile MessageReceivedCallback callback;
+    private volatile SendPolicy defaultPolicy = SendPolicy.REDUNDANT;
+    
+    private final int maxMessageLen;
+    //the frame copied to the outbox of each link, guarded by frame
+    private final ByteBuffer frame;
+    private int epoch;
+    private int nextSeq;
+    
+    //receive window guarded by window
+    private final int[] windowSeq = new int[WINDOW];
+    private final long[] windowTime = new long[WINDOW];
+    private final int[] windowLinks = new int[WINDOW];
+    private final boolean[] windowRedundant = new boolean[WINDOW];
+    private int highestSeq = -1;
+    //the epochs of the peer's current and previous connections or -1
+    private int peerEpoch = -1;
+    private int previousEpoch = -1;
+    private final double[] lag;
+    private long duplicateCount;
+
+    /**
+     * Construct a BondedMessenger with the default maximum message length
+     * 
+     * @param links the Messengers of the links, at most 32
+     */
+    public BondedMessenger(Messenger... links) {
+        this(defaultMaxMessageLen, links);
+    }
+    
+    /**
+     * Construct a BondedMessenger
+     * 
+     * @param maxMessageLen the maximum length of a message
+     * @param links the Messengers of the links, at most 32
+     */
+    public BondedMessenger(int maxMessageLen, Messenger... links) {
+        if (links.length == 0 || links.length > 32) {
+            throw new IllegalArgumentException("Between 1 and 32 links required");
+        }
+        this.links = links.clone();
+        this.maxMessageLen = maxMessageLen;
+        this.frame = ByteBuffer.allocate(HEADER_LENGTH + maxMessageLen);
+        this.lag = new double[links.length];
+        this.senders = new AsyncMessenger[links.length];
+        Arrays.fill(windowSeq, -1);
+        for (int i = 0; i < links.length; i++) {
+            final int link = i;
+            senders[i] = new AsyncMessenger(links[i], AsyncMessenger.defaultCapacity, HEADER_LENGTH + maxMessageLen);
+            senders[i].setMessageReceivedCallback(new MessageReceivedCallback() {
+                @Override
+                public void onMessageReceived(Messenger messenger, ByteBuffer msg) {
+                    onLinkMessageReceived(link, msg, null);
+                }
+
+                @Override
+                public void onMessageReceived(Messenger messenger, ByteBuffer msg, BufferLease lease) {
+                    onLinkMessageReceived(link, msg, lease);
+                }
+            });
+        }
+    }
+    
+    /**
+     * Set the policy used by {@link #sendMessage(ByteBuffer)}
+     * 
+     * @param policy the default send policy
+     */
+    public void setDefaultPolicy(SendPolicy policy) {
+        this.defaultPolicy = policy;
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return sendMessage(msg, defaultPolicy);
+    }
+    
+    /**
+     * Send a message gathered from several parts with the default policy, 
+     * copying the parts straight into the frame after the header
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was queued on at least one link
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return send(null, parts, defaultPolicy);
+    }
+    
+    /**
+     * Queue a message on the links chosen by the policy, the fastest first.
+     * Sending waits for space in the outbox of the fastest link, while other
+     * links whose outboxes are full do not receive the message.
+     * 
+     * @param msg the message to send
+     * @param policy the send policy
+     * @return whether the message was queued on at least one link
+     */
+    public boolean sendMessage(ByteBuffer msg, SendPolicy policy) {
+        return send(msg, null, policy);
+    }
+    
+    /**
+     * Frame a message or the parts of a message and queue it on the links
+     * 
+     * @param msg the message, or null to send the parts
+     * @param parts the parts of the message if msg is null
+     * @param policy the send policy
+     * @return whether the message was queued on at least one link
+     */
+    private boolean send(ByteBuffer msg, ByteBuffer[] parts, SendPolicy policy) {
+        int length = msg != null ? msg.remaining() : Utility.remaining(parts);
+        if (length > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in bonded messenger.");
+            return false;
+        }
+        int fastest = getFastestLink();
+        boolean redundant = policy == SendPolicy.REDUNDANT;
+        boolean sent = false;
+        synchronized (frame) {
+            frame.clear();
+            frame.put((byte) epoch);
+            frame.putShort((short) (redundant ? nextSeq | REDUNDANT_FLAG : nextSeq));
+            nextSeq = (nextSeq + 1) & SEQ_MASK;
+            if (msg != null) {
+                frame.put(msg);
+            } else {
+                for (ByteBuffer part : parts) {
+                    frame.put(part);
+                }
+            }
+            frame.flip();
+            //only the fastest link applies backpressure to the sender
+            sent = senders[fastest].sendMessage(frame);
+            for (int i = 0; redundant && i < links.length; i++) {
+                if (i != fastest && links[i].isConnected()) {
+                    frame.rewind();
+                    sent |= senders[i].trySend(frame);
+                }
+            }
+        }
+        if (!sent) {
+            errors.record(ErrorCause.DISCONNECTED, "No link could send message.");
+        }
+        return sent;
+    }
+    
+    /**
+     * Get the connected link with the lowest latency estimate
+     * 
+     * @return the index of the fastest link, or of the first link if none is
+     * connected
+     */
+    public int getFastestLink() {
+        int fastest = -1;
+        synchronized (windowSeq) {
+            for (int i = 0; i < links.length; i++) {
+                if (links[i].isConnected() && (fastest < 0 || lag[i] < lag[fastest])) {
+                    fastest = i;
+                }
+            }
+        }
+        return Math.max(fastest, 0);
+    }
+    
+    /**
+     * Get the latency estimate of a link relative to the fastest link
+     * 
+     * @param link the index of the link
+     * @return the smoothed lag of the link behind the first copies of 
+     * messages in milliseconds
+     */
+    public double getLag(int link) {
+        synchronized (windowSeq) {
+            return lag[link];
+        }
+    }
+    
+    /**
+     * Get the number of duplicate copies dropped
+     * 
+     * @return the number of duplicates
+     */
+    public long getDuplicateCount() {
+        synchronized (windowSeq) {
+            return duplicateCount;
+        }
+    }
+    
+    private void onLinkMessageReceived(int link, ByteBuffer msg, BufferLease lease) {
+        if (msg.remaining() < HEADER_LENGTH) {
+            errors.record(ErrorCause.MALFORMED, "Message too short for sequence number.");
+            return;
+        }
+        int epoch = msg.get() & 0xFF;
+        int header = msg.getShort() & 0xFFFF;
+        int seq = header & SEQ_MASK;
+        boolean redundant = (header & REDUNDANT_FLAG) != 0;
+        long now = System.nanoTime();
+        int slot = seq % WINDOW;
+        synchronized (windowSeq) {
+            if (epoch != peerEpoch) {
+                if (epoch == previousEpoch) {
+                    //a late copy from before the peer reconnected
+                    errors.record(ErrorCause.STALE);
+                    return;
+                }
+                //the peer reconnected, restarting its sequence numbers
+                if (peerEpoch >= 0) {
+                    previousEpoch = peerEpoch;
+                }
+                peerEpoch = epoch;
+                resetWindow();
+            }
+            //the signed 15 bit distance ahead of the highest sequence number
+            int ahead = highestSeq < 0 ? 1 : ((seq - highestSeq) << 17) >> 17;
+            if (ahead > 0) {
+                //advance the window, retiring the slots passed over
+                for (int s = 1; s <= Math.min(ahead, WINDOW); s++) {
+                    retire(((highestSeq + s) & SEQ_MASK) % WINDOW);
+                }
+                highestSeq = seq;
+            } else if (ahead <= -WINDOW) {
+                errors.record(ErrorCause.STALE);
+                return;
+            } else if (windowSeq[slot] == seq) {
+                //a later copy
+                if (redundant && (windowLinks[slot] & (1 << link)) == 0) {
+                    windowLinks[slot] |= 1 << link;
+                    lag[link] += ALPHA * ((now - windowTime[slot]) / 1e6 - lag[link]);
+                }
+                duplicateCount++;
+                return;
+            }
+            windowSeq[slot] = seq;
+            windowTime[slot] = now;
+            windowLinks[slot] = 1 << link;
+            windowRedundant[slot] = redundant;
+            if (redundant) {
+                lag[link] -= ALPHA * lag[link];
+            }
+        }
+        MessageReceivedCallback cb = callback;
+        if (cb == null) {
+            errors.record(ErrorCause.NO_CALLBACK, "Cannot receive message. Callback is null");
+        } else if (lease != null) {
+            cb.onMessageReceived(this, msg, lease);
+        } else {
+            cb.onMessageReceived(this, msg);
+        }
+    }
+    
+    /**
+     * Penalize the links that never delivered the redundant message in a slot
+     * leaving the window. The caller must hold the window lock.
+     */
+    private void retire(int slot) {
+        if (windowSeq[slot] < 0 || !windowRedundant[slot]) {
+            windowSeq[slot] = -1;
+            return;
+        }
+        for (int i = 0; i < links.length; i++) {
+            if ((windowLinks[slot] & (1 << i)) == 0) {
+                lag[i] += ALPHA * (MISSING_PENALTY - lag[i]);
+            }
+        }
+        windowSeq[slot] = -1;
+    }
+    
+    /**
+     * Empty the receive window without penalizing any link. The caller must 
+     * hold the window lock.
+     */
+    private void resetWindow() {
+        Arrays.fill(windowSeq, -1);
+        highestSeq = -1;
+    }
+
+    @Override
+    public void setMessageReceivedCallback(MessageReceivedCallback callback) {
+        this.callback = callback;
+    }
+
+    /**
+     * Connect every link, starting a new epoch and emptying the receive window
+     * 
+     * @return whether any link connected
+     */
+    @Override
+    public boolean connect() {
+        synchronized (windowSeq) {
+            resetWindow();
+            peerEpoch = -1;
+            previousEpoch = -1;
+        }
+        synchronized (frame) {
+            //a new epoch so that the peer restarts its window
+            epoch = (epoch + 1 + ThreadLocalRandom.current().nextInt(255)) & 0xFF;
+            nextSeq = 0;
+        }
+        boolean connected = false;
+        for (AsyncMessenger sender : senders) {
+            connected |= sender.connect();
+        }
+        return connected;
+    }
+
+    @Override
+    public boolean disconnect() {
+        boolean disconnected = true;
+        for (AsyncMessenger sender : senders) {
+            disconnected &= sender.disconnect();
+        }
+        return disconnected;
+    }
+
+    /**
+     * Get whether any link is connected
+     * 
+     * @return whether any link is connected
+     */
+    @Override
+    public boolean isConnected() {
+        for (Messenger link : links) {
+            if (link.isConnected()) {
+                return true;
+            }
+        }
+        return false;
+    }
+    
+}
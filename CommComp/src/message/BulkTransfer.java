@@ -0,0 +1,897 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.zip.CRC32C;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+import util.IntObjectMap;
+
+/**
+ * A Messenger transferring files in bulk, such as firmware images and logs, 
+ * alongside other messages.
+ * 
+ * A file is offered with its length, chunk size and CRC-32C and sent in 
+ * chunks, each with its offset and CRC-32C, up to a window of chunks in 
+ * flight. The 
+ * receiver writes chunks that pass their check at their offsets, in any order,
+ * and acknowledges the offset up to which the file is complete with a bitmap 
+ * of the chunks received beyond it. Chunks are retransmitted when not 
+ * acknowledged within the retransmission timeout, estimated from the round 
+ * trip time as in RFC 6298, or at once when later chunks are acknowledged.
+ * 
+ * Transfers are resumable: the receiver records the complete offset in a
+ * ".part" file beside the sink, and answers a later offer of the same file,
+ * with the same length, chunk size and CRC-32C, with that offset, from which 
+ * the sender continues. The whole file is checked against the CRC-32C of the
+ * offer once complete. Sources and sinks are memory mapped, and chunks are 
+ * sent as a header and a slice of the mapped source with a gathering send 
+ * from the timer thread, never while holding the lock of a transfer.
+ * 
+ * Messages are framed as
+ * <pre>
+ * offer [0x10][id:2][length:4][chunk size:2][file crc:4]
+ * data  [0x11][id:2][offset:4][crc:4][chunk]
+ * ack   [0x12][id:2][complete offset:4][bitmap:4]
+ * </pre>
+ * Bit i of the bitmap is set if chunk i + 1 after the complete offset was 
+ * received, and an ack of offset 0xFFFFFFFF refuses the offer or a complete
+ * file failing its check. Other messages pass through unchanged, so plain 
+ * messages must not begin with these bytes.
+ * 
+ * @author Andrew_2
+ */
+public class BulkTransfer extends MessengerWrapper {
+
+    public static final byte OFFER = 0x10;
+    public static final byte DATA = 0x11;
+    public static final byte ACK = 0x12;
+    public static final int OFFER_LENGTH = 13;
+    public static final int DATA_HEADER_LENGTH = 11;
+    public static final int ACK_LENGTH = 11;
+    
+    public static final int defaultMaxMessageLen = 254;
+    public static final int defaultWindow = 32;
+    public static final int MAX_WINDOW = 33;
+    public static final long defaultStallTimeout = 10000;
+    
+    private static final int REFUSED = -1;
+    private static final int RECORD_LENGTH = 16;
+    private static final long initialRto = 500;
+    private static final long minRto = 20;
+    private static final long maxRto = 5000;
+    private static final long timerPeriod = 5;
+    
+    private final int chunkSize;
+    private final int window;
+    private long stallTimeout = TimeUnit.MILLISECONDS.toNanos(defaultStallTimeout);
+    private volatile SinkProvider sinkProvider;
+    
+    //transfers by ID, guarded by this
+    private final IntObjectMap<Outgoing> outgoing = new IntObjectMap<>();
+    private final IntObjectMap<Incoming> incoming = new IntObjectMap<>();
+    private ScheduledExecutorService timer;
+    
+    private final ByteBuffer ackFrame = ByteBuffer.allocate(ACK_LENGTH);
+
+    /**
+     * Construct a BulkTransfer with the default maximum message length and 
+     * window
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public BulkTransfer(Messenger messenger) {
+        this(messenger, defaultMaxMessageLen, defaultWindow);
+    }
+    
+    /**
+     * Construct a BulkTransfer
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param maxMessageLen the maximum message length of the wrapped Messenger
+     * @param window the maximum number of chunks in flight, at most MAX_WINDOW
+     */
+    public BulkTransfer(Messenger messenger, int maxMessageLen, int window) {
+        super(messenger);
+        if (window < 1 || window > MAX_WINDOW) {
+            throw new IllegalArgumentException("Window must be between 1 and " + MAX_WINDOW);
+        }
+        this.chunkSize = maxMessageLen - DATA_HEADER_LENGTH;
+        this.window = window;
+    }
+    
+    /**
+     * Set the time without progress after which a transfer fails
+     * 
+     * @param stallTimeout the stall timeout in milliseconds
+     */
+    public synchronized void setStallTimeout(long stallTimeout) {
+        this.stallTimeout = TimeUnit.MILLISECONDS.toNanos(stallTimeout);
+    }
+    
+    /**
+     * Set the provider of sinks for files offered by the peer that were not
+     * expected with {@link #receive(int, Path)}
+     * 
+     * @param sinkProvider the sink provider or null to refuse such offers
+     */
+    public void setSinkProvider(SinkProvider sinkProvider) {
+        this.sinkProvider = sinkProvider;
+    }
+    
+    /**
+     * Send a file, resuming from where the peer last stopped receiving it
+     * 
+     * @param id the ID of the transfer, known to the peer
+     * @param source the file to send, shorter than 2 GiB
+     * @return the transfer
+     * @throws IOException if the file cannot be mapped
+     */
+    public Transfer send(int id, Path source) throws IOException {
+        MappedByteBuffer data;
+        try (FileChannel channel = FileChannel.open(source, StandardOpenOption.READ)) {
+            if (channel.size() >= Integer.MAX_VALUE) {
+                throw new IOException("File too large for bulk transfer");
+            }
+            data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        Outgoing transfer = new Outgoing(id & 0xFFFF, data);
+        Outgoing old;
+        synchronized (this) {
+            if (timer == null) {
+                throw new IllegalStateException("Not connected");
+            }
+            old = outgoing.put(transfer.id, transfer);
+        }
+        if (old != null) {
+            old.fail(new IllegalStateException("Replaced by a new transfer"));
+        }
+        transfer.sendOffer();
+        return transfer;
+    }
+    
+    /**
+     * Expect a file to be offered by the peer
+     * 
+     * @param id the ID of the transfer, known to the peer
+     * @param sink the file to write
+     * @return the transfer, started once the offer arrives
+     */
+    public Transfer receive(int id, Path sink) {
+        Incoming transfer = new Incoming(id & 0xFFFF, sink);
+        Incoming old;
+        synchronized (this) {
+            old = incoming.put(transfer.id, transfer);
+        }
+        if (old != null) {
+            old.fail(new IllegalStateException("Replaced by a new transfer"));
+        }
+        return transfer;
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return messenger.sendMessage(msg);
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return messenger.sendMessage(parts);
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        int length = msg.remaining();
+        byte type = length > 0 ? msg.get(msg.position()) : 0;
+        if (type == OFFER && length == OFFER_LENGTH) {
+            msg.get();
+            onOffer(msg.getShort() & 0xFFFF, msg.getInt(), msg.getShort() & 0xFFFF, msg.getInt());
+        } else if (type == DATA && length > DATA_HEADER_LENGTH) {
+            msg.get();
+            Incoming transfer;
+            synchronized (this) {
+                transfer = incoming.get(msg.getShort() & 0xFFFF);
+            }
+            if (transfer != null) {
+                transfer.onData(msg);
+            }
+        } else if (type == ACK && length == ACK_LENGTH) {
+            msg.get();
+            Outgoing transfer;
+            synchronized (this) {
+                transfer = outgoing.get(msg.getShort() & 0xFFFF);
+            }
+            if (transfer != null) {
+                transfer.onAck(msg.getInt(), msg.getInt());
+            }
+        } else {
+            deliver(msg);
+        }
+    }
+    
+    private void onOffer(int id, int length, int offeredChunkSize, int fileCrc) {
+        Incoming transfer;
+        synchronized (this) {
+            transfer = incoming.get(id);
+        }
+        //a completed transfer is kept to acknowledge retransmissions for the
+        //stall timeout or until the file is offered again
+        if (transfer == null || transfer.completion.isDone()) {
+            SinkProvider provider = sinkProvider;
+            Path sink = provider != null ? provider.onOffer(id, length) : null;
+            if (sink == null) {
+                sendAck(id, REFUSED, 0);
+                return;
+            }
+            transfer = new Incoming(id, sink);
+            synchronized (this) {
+                incoming.put(id, transfer);
+            }
+        }
+        transfer.onOffer(length, offeredChunkSize, fileCrc);
+    }
+    
+    private void sendAck(int id, int complete, int bitmap) {
+        synchronized (ackFrame) {
+            ackFrame.clear();
+            ackFrame.put(ACK);
+            ackFrame.putShort((short) id);
+            ackFrame.putInt(complete);
+            ackFrame.putInt(bitmap);
+            ackFrame.flip();
+            messenger.sendMessage(ackFrame);
+        }
+    }
+    
+    /**
+     * Retransmit, check for stalls and remove lingering completed transfers.
+     * Run by the timer.
+     */
+    private void tick() {
+        Outgoing[] senders;
+        Incoming[] receivers;
+        synchronized (this) {
+            senders = new Outgoing[outgoing.size()];
+            receivers = new Incoming[incoming.size()];
+            int[] counts = {0, 0};
+            outgoing.forEach((t, id) -> senders[counts[0]++] = t);
+            incoming.forEach((t, id) -> receivers[counts[1]++] = t);
+        }
+        long now = System.nanoTime();
+        for (Outgoing transfer : senders) {
+            transfer.pump(now);
+        }
+        for (Incoming transfer : receivers) {
+            transfer.check(now);
+        }
+    }
+    
+    private synchronized void remove(Transfer transfer) {
+        if (transfer instanceof Outgoing) {
+            if (outgoing.get(transfer.id) == transfer) {
+                outgoing.remove(transfer.id);
+            }
+        } else if (incoming.get(transfer.id) == transfer) {
+            incoming.remove(transfer.id);
+        }
+    }
+    
+    private static int crc(ByteBuffer chunk) {
+        CRC32C crc = new CRC32C();
+        crc.update(chunk.duplicate());
+        return (int) crc.getValue();
+    }
+
+    @Override
+    public boolean connect() {
+        boolean connected = messenger.connect();
+        synchronized (this) {
+            if (timer == null) {
+                timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Bulk transfer timer"));
+                timer.scheduleWithFixedDelay(this::tick, timerPeriod, timerPeriod, TimeUnit.MILLISECONDS);
+            }
+        }
+        return connected;
+    }
+
+    @Override
+    public boolean disconnect() {
+        Transfer[] transfers;
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+            transfers = new Transfer[outgoing.size() + incoming.size()];
+            int[] count = {0};
+            outgoing.forEach((t, id) -> transfers[count[0]++] = t);
+            incoming.forEach((t, id) -> transfers[count[0]++] = t);
+        }
+        for (Transfer transfer : transfers) {
+            transfer.fail(new IllegalStateException("Disconnected"));
+        }
+        return messenger.disconnect();
+    }
+    
+    /**
+     * A transfer in progress, reporting its progress, throughput and ETA
+     */
+    public abstract class Transfer {
+        
+        protected final int id;
+        protected final CompletableFuture<Void> completion = new CompletableFuture<>();
+        //progress, guarded by this transfer
+        protected int length = -1;
+        protected int complete;
+        private int resumedFrom = -1;
+        private long started;
+        protected long lastProgress = System.nanoTime();
+
+        Transfer(int id) {
+            this.id = id;
+        }
+        
+        /**
+         * Record the complete offset. The caller must hold the lock on this
+         * transfer.
+         */
+        protected void progress(int offset, long now) {
+            if (resumedFrom < 0) {
+                resumedFrom = offset;
+                started = now;
+                lastProgress = now;
+            } else if (offset > complete) {
+                lastProgress = now;
+            }
+            complete = offset;
+        }
+        
+        void fail(Throwable cause) {
+            remove(this);
+            if (completion.completeExceptionally(cause)) {
+                close();
+            }
+        }
+        
+        void succeed() {
+            remove(this);
+            if (completion.complete(null)) {
+                close();
+            }
+        }
+        
+        abstract void close();
+        
+        /**
+         * Get the ID of the transfer
+         * 
+         * @return the ID
+         */
+        public int getId() {
+            return id;
+        }
+        
+        /**
+         * Get the length of the file
+         * 
+         * @return the length in bytes or -1 if not yet offered
+         */
+        public synchronized int getLength() {
+            return length;
+        }
+        
+        /**
+         * Get the offset up to which the file has been transferred
+         * 
+         * @return the number of bytes transferred
+         */
+        public synchronized int getTransferred() {
+            return complete;
+        }
+        
+        /**
+         * Get the average throughput since the transfer started or resumed
+         * 
+         * @return the throughput in bytes per second or NaN if not started
+         */
+        public synchronized double getThroughput() {
+            if (resumedFrom < 0 || lastProgress == started) {
+                return Double.NaN;
+            }
+            return (complete - resumedFrom) / ((System.nanoTime() - started) / 1e9);
+        }
+        
+        /**
+         * Get the estimated time remaining at the average throughput
+         * 
+         * @return the time remaining in seconds or NaN if not estimated
+         */
+        public synchronized double getEta() {
+            double throughput = getThroughput();
+            return throughput > 0 ? (length - complete) / throughput : Double.NaN;
+        }
+        
+        /**
+         * Get the completion of the transfer
+         * 
+         * @return a future completed when the whole file has been transferred,
+         * or exceptionally if the transfer fails
+         */
+        public CompletableFuture<Void> getCompletion() {
+            return completion;
+        }
+        
+    }
+    
+    /**
+     * A file being sent
+     */
+    private class Outgoing extends Transfer {
+        
+        private final MappedByteBuffer data;
+        private final int fileCrc;
+        //used only by the timer thread
+        private final ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_LENGTH);
+        private final int[] sendOffsets = new int[2 * MAX_WINDOW];
+        private final ByteBuffer offerFrame = ByteBuffer.allocate(OFFER_LENGTH);
+        private boolean accepted;
+        private long offerTime;
+        private boolean pumpScheduled;
+        private boolean retransmitHole;
+        //the offset of the next new chunk
+        private int next;
+        //per chunk state in flight, indexed by chunk number modulo the window
+        private final long[] sentTime = new long[MAX_WINDOW];
+        private final boolean[] retransmitted = new boolean[MAX_WINDOW];
+        private final boolean[] received = new boolean[MAX_WINDOW];
+        private boolean rttValid;
+        private double srtt, rttvar;
+        private long rto = initialRto;
+        private int backoff;
+
+        Outgoing(int id, MappedByteBuffer data) {
+            super(id);
+            this.data = data;
+            this.length = data.capacity();
+            this.fileCrc = crc(data);
+        }
+        
+        void sendOffer() {
+            synchronized (this) {
+                offerTime = System.nanoTime();
+            }
+            synchronized (offerFrame) {
+                offerFrame.clear();
+                offerFrame.put(OFFER);
+                offerFrame.putShort((short) id);
+                offerFrame.putInt(length);
+                offerFrame.putShort((short) chunkSize);
+                offerFrame.putInt(fileCrc);
+                offerFrame.flip();
+                messenger.sendMessage(offerFrame);
+            }
+        }
+        
+        synchronized void onAck(int ackComplete, int bitmap) {
+            long now = System.nanoTime();
+            if (ackComplete == REFUSED) {
+                fail(new IllegalStateException(accepted ? "File failed check at peer" : "Transfer refused by peer"));
+                return;
+            }
+            if (ackComplete < 0 || ackComplete > length) {
+                errors.record(ErrorCause.MALFORMED, "Invalid bulk transfer ack.");
+                return;
+            }
+            if (!accepted) {
+                //the answer to the offer gives the offset to resume from
+                accepted = true;
+                next = ackComplete;
+                progress(ackComplete, now);
+            } else if (ackComplete > complete && ackComplete <= next) {
+                //sample the round trip of the chunk acknowledged, unless 
+                //retransmitted or acknowledged before while waiting for a hole
+                int last = chunkIndex(ackComplete - 1) % MAX_WINDOW;
+                if (!retransmitted[last] && !received[last]) {
+                    updateRtt((now - sentTime[last]) / 1e6);
+                }
+                for (int c = chunkIndex(complete); c < chunkIndex(ackComplete - 1) + 1; c++) {
+                    received[c % MAX_WINDOW] = false;
+                }
+                backoff = 0;
+                progress(ackComplete, now);
+            } else if (ackComplete < complete || ackComplete > next) {
+                return;
+            }
+            if (complete == length) {
+                succeed();
+                return;
+            }
+            if (bitmap != 0) {
+                for (int i = 0; i < 32; i++) {
+                    int offset = complete + (i + 1) * chunkSize;
+                    if ((bitmap & (1 << i)) != 0 && offset < next) {
+                        received[chunkIndex(offset) % MAX_WINDOW] = true;
+                    }
+                }
+                //retransmit the first hole at once unless recently sent
+                int hole = chunkIndex(complete) % MAX_WINDOW;
+                if (rttValid && now - sentTime[hole] > srtt * 1e6) {
+                    retransmitHole = true;
+                }
+            }
+            schedulePump();
+        }
+        
+        /**
+         * Have the timer pump the transfer as soon as possible, so that the 
+         * thread delivering acks never waits for chunks to be sent. The caller
+         * must hold the lock on this transfer.
+         */
+        private void schedulePump() {
+            if (pumpScheduled) {
+                return;
+            }
+            ScheduledExecutorService t;
+            synchronized (BulkTransfer.this) {
+                t = timer;
+            }
+            if (t != null) {
+                try {
+                    t.execute(() -> pump(System.nanoTime()));
+                    pumpScheduled = true;
+                } catch (RejectedExecutionException ex) {
+                    //disconnected, failing the transfer
+                }
+            }
+        }
+        
+        private void updateRtt(double sample) {
+            if (!rttValid) {
+                srtt = sample;
+                rttvar = sample / 2;
+                rttValid = true;
+            } else {
+                rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - sample);
+                srtt = 0.875 * srtt + 0.125 * sample;
+            }
+            rto = Math.max(minRto, Math.min(maxRto, (long) Math.ceil(srtt + Math.max(timerPeriod, 4 * rttvar))));
+        }
+        
+        private int chunkIndex(int offset) {
+            return offset / chunkSize;
+        }
+        
+        /**
+         * Send new chunks within the window and retransmit timed out chunks.
+         * Run only by the timer, the chunks being chosen under the lock on 
+         * this transfer and sent without it.
+         */
+        void pump(long now) {
+            int count = 0;
+            boolean offer = false;
+            synchronized (this) {
+                pumpScheduled = false;
+                if (completion.isDone()) {
+                    return;
+                }
+                if (now - lastProgress > stallTimeout) {
+                    fail(new TimeoutException("Bulk transfer stalled"));
+                    return;
+                }
+                long timeout = TimeUnit.MILLISECONDS.toNanos(Math.min(maxRto, rto << Math.min(backoff, 16)));
+                if (!accepted) {
+                    if (now - offerTime > timeout) {
+                        backoff++;
+                        offer = true;
+                    }
+                } else {
+                    for (int offset = complete; offset < next; offset += chunkSize) {
+                        int slot = chunkIndex(offset) % MAX_WINDOW;
+                        boolean due = now - sentTime[slot] > timeout;
+                        if (!received[slot] && (due || (retransmitHole && offset == complete))) {
+                            //back off only when the oldest chunk times out
+                            if (due && offset == complete) {
+                                backoff++;
+                            }
+                            mark(offset, now, true);
+                            sendOffsets[count++] = offset;
+                        }
+                    }
+                    retransmitHole = false;
+                    while (next < length && chunkIndex(next) - chunkIndex(complete) < window) {
+                        mark(next, now, false);
+                        sendOffsets[count++] = next;
+                        next = Math.min(length, next + chunkSize);
+                    }
+                }
+            }
+            if (offer) {
+                sendOffer();
+            }
+            for (int i = 0; i < count; i++) {
+                sendChunk(sendOffsets[i]);
+            }
+        }
+        
+        /**
+         * Record a chunk as sent. The caller must hold the lock on this 
+         * transfer.
+         */
+        private void mark(int offset, long now, boolean retransmission) {
+            int slot = chunkIndex(offset) % MAX_WINDOW;
+            sentTime[slot] = now;
+            retransmitted[slot] = retransmission;
+            received[slot] = false;
+        }
+        
+        private void sendChunk(int offset) {
+            ByteBuffer chunk = data.duplicate();
+            chunk.position(offset);
+            chunk.limit(Math.min(length, offset + chunkSize));
+            header.clear();
+            header.put(DATA);
+            header.putShort((short) id);
+            header.putInt(offset);
+            header.putInt(crc(chunk));
+            header.flip();
+            messenger.sendMessage(header, chunk);
+            //time the round trip from when the chunk was actually sent
+            synchronized (this) {
+                sentTime[chunkIndex(offset) % MAX_WINDOW] = System.nanoTime();
+            }
+        }
+        
+        @Override
+        void close() {
+        }
+        
+    }
+    
+    /**
+     * A file being received
+     */
+    private class Incoming extends Transfer {
+        
+        private final Path sink;
+        private final Path part;
+        private int offeredChunkSize;
+        private int fileCrc;
+        private MappedByteBuffer data;
+        private MappedByteBuffer progressRecord;
+        //chunks received beyond the complete offset, bit i for chunk i + 1
+        private long beyond;
+
+        Incoming(int id, Path sink) {
+            super(id);
+            this.sink = sink;
+            this.part = Paths.get(sink.toString() + ".part");
+        }
+        
+        synchronized void onOffer(int offeredLength, int offeredChunk, int offeredCrc) {
+            long now = System.nanoTime();
+            if (completion.isDone()) {
+                return;
+            }
+            if (data == null) {
+                if (offeredLength < 0 || offeredChunk < 1) {
+                    errors.record(ErrorCause.MALFORMED, "Invalid bulk transfer offer.");
+                    return;
+                }
+                try {
+                    open(offeredLength, offeredChunk, offeredCrc);
+                } catch (IOException ex) {
+                    errors.record(ErrorCause.IO_ERROR, "Could not open bulk transfer sink: " + ex.getMessage());
+                    sendAck(id, REFUSED, 0);
+                    fail(ex);
+                    return;
+                }
+                progress(complete, now);
+            } else if (offeredLength != length || offeredChunk != offeredChunkSize || offeredCrc != fileCrc) {
+                errors.record(ErrorCause.MALFORMED, "Bulk transfer offer changed.");
+                return;
+            }
+            acknowledge();
+        }
+        
+        /**
+         * Map the sink and the progress record, resuming from the recorded
+         * offset if the record is for the same file, with the same length, 
+         * chunk size and CRC-32C
+         */
+        private void open(int offeredLength, int offeredChunk, int offeredCrc) throws IOException {
+            int resume = 0;
+            if (Files.exists(part) && Files.exists(sink) && Files.size(sink) == offeredLength) {
+                ByteBuffer record = ByteBuffer.wrap(Files.readAllBytes(part));
+                if (record.remaining() == RECORD_LENGTH && record.getInt() == offeredLength 
+                        && record.getInt() == offeredChunk && record.getInt() == offeredCrc) {
+                    resume = Math.min(offeredLength, Math.max(0, record.getInt()));
+                }
+            }
+            try (RandomAccessFile file = new RandomAccessFile(sink.toFile(), "rw");
+                    RandomAccessFile record = new RandomAccessFile(part.toFile(), "rw")) {
+                file.setLength(offeredLength);
+                data = file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, offeredLength);
+                record.setLength(RECORD_LENGTH);
+                progressRecord = record.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, RECORD_LENGTH);
+            }
+            length = offeredLength;
+            offeredChunkSize = offeredChunk;
+            fileCrc = offeredCrc;
+            complete = resume;
+            progressRecord.putInt(0, offeredLength);
+            progressRecord.putInt(4, offeredChunk);
+            progressRecord.putInt(8, offeredCrc);
+            progressRecord.putInt(12, resume);
+        }
+        
+        void onData(ByteBuffer msg) {
+            int offset = msg.getInt();
+            int check = msg.getInt();
+            synchronized (this) {
+                if (completion.isDone()) {
+                    //repeat the final ack in case it was lost
+                    if (!completion.isCompletedExceptionally()) {
+                        sendAck(id, complete, 0);
+                    }
+                    return;
+                }
+                if (data == null) {
+                    return;
+                }
+                int chunkLength = msg.remaining();
+                if (offset < 0 || offset % offeredChunkSize != 0 || offset + chunkLength > length
+                        || (chunkLength != offeredChunkSize && offset + chunkLength != length)) {
+                    errors.record(ErrorCause.MALFORMED, "Invalid bulk transfer chunk.");
+                    return;
+                }
+                if (crc(msg) != check) {
+                    errors.record(ErrorCause.CHECK_FAILED, "Bulk transfer chunk failed check.");
+                    return;
+                }
+                int ahead = (offset - complete) / offeredChunkSize;
+                if (ahead > 0 && ahead <= 64) {
+                    if ((beyond & (1L << (ahead - 1))) == 0) {
+                        write(offset, msg);
+                        beyond |= 1L << (ahead - 1);
+                    }
+                } else if (ahead == 0) {
+                    write(offset, msg);
+                    int advanced = Math.min(length, complete + chunkLength);
+                    //advance over the chunks already received beyond
+                    while ((beyond & 1) != 0) {
+                        beyond >>>= 1;
+                        advanced = Math.min(length, advanced + offeredChunkSize);
+                    }
+                    beyond >>>= 1;
+                    progress(advanced, System.nanoTime());
+                    progressRecord.putInt(12, complete);
+                }
+                acknowledge();
+            }
+        }
+        
+        /**
+         * Acknowledge the complete offset, finishing the transfer if the file
+         * is complete and passes its check. The caller must hold the lock on 
+         * this transfer.
+         */
+        private void acknowledge() {
+            if (complete == length && crc(data) != fileCrc) {
+                errors.record(ErrorCause.CHECK_FAILED, "Bulk transfer file failed check.");
+                sendAck(id, REFUSED, 0);
+                fail(new IOException("Bulk transfer file failed check"));
+                return;
+            }
+            sendAck(id, complete, (int) beyond);
+            if (complete == length) {
+                finish();
+            }
+        }
+        
+        private void write(int offset, ByteBuffer chunk) {
+            ByteBuffer target = data.duplicate();
+            target.position(offset);
+            target.put(chunk);
+        }
+        
+        private void finish() {
+            //not removed until the stall timeout, so the final ack can be 
+            //repeated if lost
+            if (completion.complete(null)) {
+                close();
+            }
+        }
+        
+        /**
+         * Fail the transfer if stalled, or remove it once completed for the 
+         * stall timeout
+         */
+        synchronized void check(long now) {
+            if (now - lastProgress <= stallTimeout) {
+                return;
+            }
+            if (completion.isDone()) {
+                remove(this);
+            } else if (data != null) {
+                fail(new TimeoutException("Bulk transfer stalled"));
+            }
+        }
+        
+        /**
+         * Flush the sink and release its mapping, deleting the progress record
+         * if the file is complete and passed its check
+         */
+        @Override
+        synchronized void close() {
+            if (data != null) {
+                data.force();
+                if (complete == length) {
+                    try {
+                        Files.deleteIfExists(part);
+                    } catch (IOException ex) {
+                        errors.record(ErrorCause.IO_ERROR, "Could not delete progress record: " + ex.getMessage());
+                    }
+                } else {
+                    progressRecord.force();
+                }
+                //the mappings are unmapped once no longer referenced
+                data = null;
+                progressRecord = null;
+            }
+        }
+        
+    }
+    
+    /**
+     * A provider of sinks for files offered by the peer
+     */
+    public interface SinkProvider {
+        
+        /**
+         * Called when the peer offers a file that was not expected
+         * 
+         * @param id the ID of the transfer
+         * @param length the length of the file
+         * @return the file to write or null to refuse the offer
+         */
+        public Path onOffer(int id, int length);
+        
+    }
+    
+}
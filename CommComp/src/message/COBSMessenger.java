@@ -34,7 +34,7 @@ import comm.StreamComm;
  * 
  * @author Andrew_2
  */
-public class COBSMessenger extends BlockToStreamMessenger {
+public class COBSMessenger extends FramedStreamMessenger {
 
     private COBSReader reader;
     private COBSWriter writer;
@@ -43,7 +43,7 @@ public class COBSMessenger extends BlockToStreamMessenger {
     public static final int readerBufferSize = 1024;
     
     private COBSMessenger(COBSReader reader, COBSWriter writer, StreamComm streamComm) {
-        super(writer, writer, reader, reader, streamComm);
+        super(reader, writer, streamComm);
         this.reader = reader;
         this.writer = writer;
     }
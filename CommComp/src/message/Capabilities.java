@@ -0,0 +1,177 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.FrameCheck;
+import coding.Framing;
+import java.nio.ByteBuffer;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.Set;
+
+/**
+ * The link capabilities advertised by one end in a capability handshake.
+ * 
+ * Capabilities are encoded as
+ * [version][maxMessageLen:2][framings][checks][features][bytesPerSecond:4],
+ * the framings and checks being bitmasks of the wire bits of the Framing and 
+ * FrameCheck values supported. A rate of 0 expresses no preference.
+ * 
+ * @author Andrew_2
+ */
+public class Capabilities {
+
+    /**
+     * The version of the handshake implemented
+     */
+    public static final int VERSION = 1;
+    public static final int LENGTH = 10;
+    
+    /**
+     * Feature flag for compressed messages, reserved as no compression is 
+     * implemented
+     */
+    public static final int FEATURE_COMPRESSION = 0x01;
+    
+    /**
+     * The fixed configuration of firmware predating the handshake: COBS
+     * frames without a check of up to 254 bytes at 9600 baud
+     */
+    public static final Capabilities LEGACY = new Capabilities(0, 254,
+            EnumSet.of(Framing.COBS), EnumSet.of(FrameCheck.NONE), 0, 960);
+    
+    private final int version;
+    private final int maxMessageLen;
+    private final Set<Framing> framings;
+    private final Set<FrameCheck> checks;
+    private final int features;
+    private final int bytesPerSecond;
+
+    /**
+     * Construct capabilities of the current version
+     * 
+     * @param maxMessageLen the maximum length of a message that can be received
+     * @param framings the framings supported
+     * @param checks the frame checks supported
+     * @param bytesPerSecond the preferred rate in bytes per second or 0
+     */
+    public Capabilities(int maxMessageLen, Set<Framing> framings, Set<FrameCheck> checks, int bytesPerSecond) {
+        this(VERSION, maxMessageLen, framings, checks, 0, bytesPerSecond);
+    }
+    
+    private Capabilities(int version, int maxMessageLen, Set<Framing> framings, Set<FrameCheck> checks,
+            int features, int bytesPerSecond) {
+        this.version = version;
+        this.maxMessageLen = maxMessageLen;
+        this.framings = Collections.unmodifiableSet(EnumSet.copyOf(framings));
+        this.checks = Collections.unmodifiableSet(EnumSet.copyOf(checks));
+        this.features = features;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+    
+    /**
+     * Write the capabilities to a buffer
+     * 
+     * @param buffer the buffer to write to
+     */
+    public void put(ByteBuffer buffer) {
+        buffer.put((byte) version);
+        buffer.putShort((short) maxMessageLen);
+        int framingMask = 0;
+        for (Framing framing : framings) {
+            framingMask |= 1 << framing.wireBit();
+        }
+        buffer.put((byte) framingMask);
+        int checkMask = 0;
+        for (FrameCheck check : checks) {
+            checkMask |= 1 << check.wireBit();
+        }
+        buffer.put((byte) checkMask);
+        buffer.put((byte) features);
+        buffer.putInt(bytesPerSecond);
+    }
+    
+    /**
+     * Read capabilities from a buffer, ignoring framings and checks unknown
+     * to this version
+     * 
+     * @param buffer the buffer holding at least LENGTH bytes
+     * @return the capabilities read, or null if they share no framing or 
+     * check with this version
+     */
+    public static Capabilities get(ByteBuffer buffer) {
+        int version = buffer.get() & 0xFF;
+        int maxMessageLen = buffer.getShort() & 0xFFFF;
+        int framingMask = buffer.get() & 0xFF;
+        int checkMask = buffer.get() & 0xFF;
+        int features = buffer.get() & 0xFF;
+        int bytesPerSecond = buffer.getInt();
+        EnumSet<Framing> framings = EnumSet.noneOf(Framing.class);
+        for (Framing framing : Framing.values()) {
+            if ((framingMask & (1 << framing.wireBit())) != 0) {
+                framings.add(framing);
+            }
+        }
+        EnumSet<FrameCheck> checks = EnumSet.noneOf(FrameCheck.class);
+        for (FrameCheck check : FrameCheck.values()) {
+            if ((checkMask & (1 << check.wireBit())) != 0) {
+                checks.add(check);
+            }
+        }
+        if (framings.isEmpty() || checks.isEmpty()) {
+            return null;
+        }
+        return new Capabilities(version, maxMessageLen, framings, checks, features, bytesPerSecond);
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public int getMaxMessageLen() {
+        return maxMessageLen;
+    }
+
+    public Set<Framing> getFramings() {
+        return framings;
+    }
+
+    public Set<FrameCheck> getChecks() {
+        return checks;
+    }
+
+    public int getFeatures() {
+        return features;
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "v" + version + " " + maxMessageLen + "B " + framings + " " + checks + " " + bytesPerSecond + "B/s";
+    }
+    
+}
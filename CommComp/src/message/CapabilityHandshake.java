@@ -0,0 +1,314 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.FrameCheck;
+import coding.Framing;
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+
+/**
+ * A Messenger negotiating the configuration of its link with the peer.
+ * 
+ * The handshake is run over the wrapped Messenger in the legacy configuration
+ * on connect. Each end sends a hello advertising its Capabilities, 
+ * [0x0C][reply][capabilities], and answers a hello that is not a reply with 
+ * its own. Both ends then pick the same configuration from the two sets of 
+ * capabilities: the lower version, the smaller maximum message length, the 
+ * lower rate, and the first common framing and check in the orders of 
+ * preference. The hello is resent every resend interval until one arrives, 
+ * in case it was lost. If no hello arrives before the timeout, as with 
+ * firmware predating the handshake, the legacy configuration is used.
+ * 
+ * The application applies the agreed configuration, for example by 
+ * recreating its framed Messenger with {@link LinkConfiguration#createCodec()}
+ * and pacing it with a RateLimitedMessenger. Other messages pass through 
+ * unchanged, so plain messages must not begin with the hello byte.
+ * 
+ * @author Andrew_2
+ */
+public class CapabilityHandshake extends MessengerWrapper {
+
+    public static final byte HELLO = 0x0C;
+    public static final int HELLO_LENGTH = 2 + Capabilities.LENGTH;
+    public static final long defaultTimeout = 3000;
+    public static final long defaultResendInterval = 250;
+    
+    /**
+     * The default framing preference, COBS first as its overhead is bounded
+     * and it resynchronizes on the next delimiter
+     */
+    public static final Framing[] defaultFramingPreference = {
+        Framing.COBS, Framing.LENGTH_PREFIX, Framing.HDLC, Framing.SLIP
+    };
+    /**
+     * The default check preference, strongest first
+     */
+    public static final FrameCheck[] defaultCheckPreference = {
+        FrameCheck.CRC32C, FrameCheck.CRC16_CCITT, FrameCheck.NONE
+    };
+    
+    private final Capabilities local;
+    private final long timeout;
+    private final long resendInterval;
+    private volatile Framing[] framingPreference = defaultFramingPreference;
+    private volatile FrameCheck[] checkPreference = defaultCheckPreference;
+    private final ByteBuffer helloFrame = ByteBuffer.allocate(HELLO_LENGTH);
+    
+    //guarded by this
+    private ScheduledExecutorService timer;
+    private ScheduledFuture<?> timeoutTask;
+    private ScheduledFuture<?> resendTask;
+    private CompletableFuture<LinkConfiguration> agreement = new CompletableFuture<>();
+
+    /**
+     * Construct a CapabilityHandshake with the default timeout and resend 
+     * interval
+     * 
+     * @param messenger the Messenger to be wrapped, in the legacy configuration
+     * @param local the capabilities of this end
+     */
+    public CapabilityHandshake(Messenger messenger, Capabilities local) {
+        this(messenger, local, defaultTimeout, defaultResendInterval);
+    }
+    
+    /**
+     * Construct a CapabilityHandshake
+     * 
+     * @param messenger the Messenger to be wrapped, in the legacy configuration
+     * @param local the capabilities of this end
+     * @param timeout the time to wait for the peer's hello in milliseconds
+     * @param resendInterval the interval between hellos sent while waiting
+     * in milliseconds
+     */
+    public CapabilityHandshake(Messenger messenger, Capabilities local, long timeout, long resendInterval) {
+        super(messenger);
+        this.local = local;
+        this.timeout = timeout;
+        this.resendInterval = resendInterval;
+    }
+    
+    /**
+     * Set the orders of preference of framings and checks. Both ends must use
+     * the same orders to agree.
+     * 
+     * @param framings the framings, most preferred first
+     * @param checks the checks, most preferred first
+     */
+    public void setPreference(Framing[] framings, FrameCheck[] checks) {
+        this.framingPreference = framings.clone();
+        this.checkPreference = checks.clone();
+    }
+    
+    /**
+     * Get the configuration agreed by the handshake of the current connection
+     * 
+     * @return a future completed with the agreed configuration
+     */
+    public synchronized CompletableFuture<LinkConfiguration> getAgreement() {
+        return agreement;
+    }
+
+    /**
+     * Send a hello to start the handshake again
+     * 
+     * @return a future completed with the agreed configuration
+     */
+    public CompletableFuture<LinkConfiguration> negotiate() {
+        CompletableFuture<LinkConfiguration> future;
+        synchronized (this) {
+            if (agreement.isDone()) {
+                agreement = new CompletableFuture<>();
+            }
+            future = agreement;
+            if (timer != null) {
+                cancelTasks();
+                timeoutTask = timer.schedule(this::fallBack, timeout, TimeUnit.MILLISECONDS);
+                resendTask = timer.scheduleAtFixedRate(() -> sendHello(false), 
+                        resendInterval, resendInterval, TimeUnit.MILLISECONDS);
+            }
+        }
+        sendHello(false);
+        return future;
+    }
+    
+    /**
+     * Stop waiting for the peer's hello. The caller must hold the lock on this.
+     */
+    private void cancelTasks() {
+        if (timeoutTask != null) {
+            timeoutTask.cancel(false);
+            timeoutTask = null;
+        }
+        if (resendTask != null) {
+            resendTask.cancel(false);
+            resendTask = null;
+        }
+    }
+    
+    private void sendHello(boolean reply) {
+        synchronized (helloFrame) {
+            helloFrame.clear();
+            helloFrame.put(HELLO);
+            helloFrame.put((byte) (reply ? 1 : 0));
+            local.put(helloFrame);
+            helloFrame.flip();
+            messenger.sendMessage(helloFrame);
+        }
+    }
+    
+    /**
+     * Agree the legacy configuration as the peer did not answer
+     */
+    private void fallBack() {
+        CompletableFuture<LinkConfiguration> future;
+        synchronized (this) {
+            future = agreement;
+            cancelTasks();
+        }
+        if (future.complete(LinkConfiguration.LEGACY)) {
+            errors.record(ErrorCause.TIMEOUT, "No capability handshake, using legacy configuration.");
+        }
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return messenger.sendMessage(msg);
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return messenger.sendMessage(parts);
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        if (msg.remaining() != HELLO_LENGTH || msg.get(msg.position()) != HELLO) {
+            deliver(msg);
+            return;
+        }
+        msg.get();
+        boolean reply = msg.get() != 0;
+        Capabilities peer = Capabilities.get(msg);
+        if (!reply) {
+            sendHello(true);
+        }
+        LinkConfiguration configuration = peer == null ? null : select(local, peer, framingPreference, checkPreference);
+        CompletableFuture<LinkConfiguration> future;
+        synchronized (this) {
+            if (agreement.isDone() && !reply) {
+                //the peer restarted the handshake
+                agreement = new CompletableFuture<>();
+            }
+            future = agreement;
+            cancelTasks();
+        }
+        if (configuration == null) {
+            errors.record(ErrorCause.MALFORMED, "No common configuration with peer, using legacy configuration.");
+            configuration = LinkConfiguration.LEGACY;
+        }
+        future.complete(configuration);
+    }
+    
+    /**
+     * Select the configuration agreed from the capabilities of both ends
+     * 
+     * @param a the capabilities of one end
+     * @param b the capabilities of the other end
+     * @param framings the framings in order of preference
+     * @param checks the checks in order of preference
+     * @return the agreed configuration or null if there is no common 
+     * framing or check
+     */
+    public static LinkConfiguration select(Capabilities a, Capabilities b, Framing[] framings, FrameCheck[] checks) {
+        int version = Math.min(a.getVersion(), b.getVersion());
+        if (version == 0) {
+            return LinkConfiguration.LEGACY;
+        }
+        Framing framing = null;
+        for (Framing f : framings) {
+            if (a.getFramings().contains(f) && b.getFramings().contains(f)) {
+                framing = f;
+                break;
+            }
+        }
+        FrameCheck check = null;
+        for (FrameCheck c : checks) {
+            if (a.getChecks().contains(c) && b.getChecks().contains(c)) {
+                check = c;
+                break;
+            }
+        }
+        if (framing == null || check == null) {
+            return null;
+        }
+        int rate;
+        if (a.getBytesPerSecond() == 0 || b.getBytesPerSecond() == 0) {
+            rate = Math.max(a.getBytesPerSecond(), b.getBytesPerSecond());
+        } else {
+            rate = Math.min(a.getBytesPerSecond(), b.getBytesPerSecond());
+        }
+        int maxMessageLen = Math.min(a.getMaxMessageLen(), b.getMaxMessageLen());
+        return new LinkConfiguration(version, framing, check, maxMessageLen, rate);
+    }
+
+    /**
+     * Connect the wrapped Messenger and start the handshake
+     * 
+     * @return whether the wrapped Messenger connected
+     */
+    @Override
+    public boolean connect() {
+        if (!messenger.connect()) {
+            return false;
+        }
+        synchronized (this) {
+            if (timer == null) {
+                timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Handshake timer"));
+            }
+        }
+        negotiate();
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+                timeoutTask = null;
+                resendTask = null;
+            }
+        }
+        return messenger.disconnect();
+    }
+    
+}
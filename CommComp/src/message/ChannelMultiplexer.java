@@ -0,0 +1,521 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import util.ErrorCause;
+import util.ErrorStats;
+
+/**
+ * Carries several logical channels over a single Messenger, each with its own
+ * credit-based flow control window and receive buffer.
+ * 
+ * Each Channel is a Messenger of its own. A channel's receive buffer holds up
+ * to its window of messages, which are delivered to its callback on a thread
+ * of the channel, so a slow consumer on one channel does not delay the others.
+ * The receiver grants credit as messages are consumed, and a sender with no
+ * credit waits up to its send timeout rather than sending, so a flooding 
+ * channel can neither starve other channels of the link nor exhaust the memory
+ * of the receiver.
+ * 
+ * Frames start with a header byte holding the frame type in the upper two bits
+ * and the channel ID in the lower six bits:
+ * DATA [00|ch][seq:2][payload], CREDIT [01|ch][next:2] and PROBE [10|ch][next:2].
+ * A credit frame acknowledges every message before the given sequence number
+ * as consumed, including any lost, so lost frames do not leak credit. A 
+ * sender without credit probes periodically with its next sequence number, in
+ * case credit or data frames were lost. Frames are assumed to arrive in order,
+ * so messages before a probe that have not arrived are taken as lost.
+ * 
+ * Both ends must open the same channels with the same windows and connect
+ * together, as sequence numbers start at zero.
+ * 
+ * @author Andrew_2
+ */
+public class ChannelMultiplexer {
+
+    private static final ErrorStats errors = ErrorStats.forComponent("ChannelMultiplexer");
+    
+    public static final int DATA = 0x00;
+    public static final int CREDIT = 0x40;
+    public static final int PROBE = 0x80;
+    public static final int TYPE_MASK = 0xC0;
+    public static final int CHANNEL_MASK = 0x3F;
+    public static final int maxChannels = 64;
+    public static final int DATA_HEADER_LENGTH = 3;
+    
+    public static final int defaultWindow = 8;
+    public static final int defaultMaxMessageLen = 251;
+    public static final long probeInterval = 100;
+    
+    private final Messenger messenger;
+    private final Channel[] channels = new Channel[maxChannels];
+    private final ByteBuffer controlFrame = ByteBuffer.allocate(DATA_HEADER_LENGTH);
+    private volatile boolean running;
+
+    /**
+     * Construct a multiplexer over a Messenger
+     * 
+     * @param messenger the Messenger carrying every channel
+     */
+    public ChannelMultiplexer(Messenger messenger) {
+        this.messenger = messenger;
+        messenger.setMessageReceivedCallback(new Messenger.MessageReceivedCallback() {
+            @Override
+            public void onMessageReceived(Messenger m, ByteBuffer msg) {
+                onFrameReceived(msg);
+            }
+        });
+    }
+    
+    /**
+     * Open a channel with the default window and maximum message length
+     * 
+     * @param id the channel ID from 0 to 63
+     * @return the channel
+     */
+    public Channel openChannel(int id) {
+        return openChannel(id, defaultWindow, defaultMaxMessageLen);
+    }
+    
+    /**
+     * Open a channel. The peer must open the channel with the same window
+     * 
+     * @param id the channel ID from 0 to 63
+     * @param window the number of messages the channel may have unconsumed
+     * @param maxMessageLen the maximum length of a message on the channel
+     * @return the channel
+     */
+    public synchronized Channel openChannel(int id, int window, int maxMessageLen) {
+        if (id < 0 || id >= maxChannels) {
+            throw new IllegalArgumentException("Channel ID must be between 0 and " + (maxChannels - 1));
+        }
+        if (channels[id] != null) {
+            throw new IllegalStateException("Channel " + id + " is already open");
+        }
+        if (window < 1 || window > Short.MAX_VALUE) {
+            throw new IllegalArgumentException("Invalid window " + window);
+        }
+        Channel channel = new Channel(id, window, maxMessageLen);
+        channels[id] = channel;
+        if (running) {
+            channel.start();
+        }
+        return channel;
+    }
+    
+    /**
+     * Get an open channel
+     * 
+     * @param id the channel ID
+     * @return the channel or null if not open
+     */
+    public Channel getChannel(int id) {
+        return channels[id];
+    }
+    
+    /**
+     * Connect the underlying Messenger and start the delivery threads of the channels
+     * 
+     * @return whether the connection was successful
+     */
+    public synchronized boolean connect() {
+        if (running) {
+            return true;
+        }
+        running = true;
+        for (Channel channel : channels) {
+            if (channel != null) {
+                channel.start();
+            }
+        }
+        return messenger.connect();
+    }
+    
+    /**
+     * Stop the channels and disconnect the underlying Messenger
+     * 
+     * @return whether the disconnection was successful
+     */
+    public synchronized boolean disconnect() {
+        running = false;
+        for (Channel channel : channels) {
+            if (channel != null) {
+                channel.stop();
+            }
+        }
+        return messenger.disconnect();
+    }
+    
+    public boolean isConnected() {
+        return running && messenger.isConnected();
+    }
+    
+    private void onFrameReceived(ByteBuffer frame) {
+        if (!frame.hasRemaining()) {
+            errors.record(ErrorCause.MALFORMED, "Empty multiplexer frame.");
+            return;
+        }
+        int header = frame.get() & 0xFF;
+        Channel channel = channels[header & CHANNEL_MASK];
+        if (channel == null) {
+            errors.record(ErrorCause.NO_CALLBACK);
+            return;
+        }
+        switch (header & TYPE_MASK) {
+            case DATA:
+                if (frame.remaining() < DATA_HEADER_LENGTH - 1) {
+                    errors.record(ErrorCause.MALFORMED, "Multiplexer data frame too short.");
+                    return;
+                }
+                channel.onData(frame.getShort() & 0xFFFF, frame);
+                break;
+            case CREDIT:
+                if (frame.remaining() < 2) {
+                    errors.record(ErrorCause.MALFORMED, "Multiplexer credit frame too short.");
+                    return;
+                }
+                channel.onCredit(frame.getShort() & 0xFFFF);
+                break;
+            case PROBE:
+                if (frame.remaining() < 2) {
+                    errors.record(ErrorCause.MALFORMED, "Multiplexer probe frame too short.");
+                    return;
+                }
+                channel.onProbe(frame.getShort() & 0xFFFF);
+                break;
+            default:
+                errors.record(ErrorCause.MALFORMED, "Unknown multiplexer frame.");
+        }
+    }
+    
+    /**
+     * Send a control frame
+     * 
+     * @param header the header byte of the frame
+     * @param value the sequence number of the frame
+     */
+    private void sendControl(int header, int value) {
+        synchronized (controlFrame) {
+            controlFrame.clear();
+            controlFrame.put((byte) header);
+            controlFrame.putShort((short) value);
+            controlFrame.flip();
+            messenger.sendMessage(controlFrame);
+        }
+    }
+    
+    /**
+     * A logical channel of the multiplexer
+     */
+    public class Channel implements Messenger {
+        
+        private final int id;
+        private final int window;
+        private final int maxMessageLen;
+        private long sendTimeout;
+        
+        //sender state, guarded by sendLock
+        private final Object sendLock = new Object();
+        private final ByteBuffer frame;
+        private int sendNext;
+        private int ackNext;
+        private long lastProbe;
+        
+        //receiver state, guarded by receiveLock
+        private final Object receiveLock = new Object();
+        private final byte[][] slots;
+        private final int[] lengths;
+        private final int[] seqs;
+        private int head, count;
+        private int consumedNext;
+        private int creditedNext;
+        private boolean creditRequested;
+        private int probedNext;
+        private Thread deliveryThread;
+        
+        private volatile MessageReceivedCallback callback;
+
+        private Channel(int id, int window, int maxMessageLen) {
+            this.id = id;
+            this.window = window;
+            this.maxMessageLen = maxMessageLen;
+            frame = ByteBuffer.allocate(DATA_HEADER_LENGTH + maxMessageLen);
+            slots = new byte[window][maxMessageLen];
+            lengths = new int[window];
+            seqs = new int[window];
+        }
+        
+        public int getId() {
+            return id;
+        }
+        
+        /**
+         * Set the maximum time to wait for credit when sending. A timeout of 
+         * zero never waits, suiting latency sensitive channels, though a 
+         * probe is still sent so that lost credit is recovered
+         * 
+         * @param sendTimeout the send timeout in milliseconds
+         */
+        public void setSendTimeout(long sendTimeout) {
+            this.sendTimeout = sendTimeout;
+        }
+        
+        /**
+         * Get the number of messages that may be sent before waiting for credit
+         * 
+         * @return the available credit
+         */
+        public int getCredit() {
+            synchronized (sendLock) {
+                return window - (short) (sendNext - ackNext);
+            }
+        }
+
+        /**
+         * Send a message on this channel, waiting up to the send timeout for credit
+         * 
+         * @param msg the message to send
+         * @return whether the message was sent
+         */
+        @Override
+        public boolean sendMessage(ByteBuffer msg) {
+            if (msg.remaining() > maxMessageLen) {
+                errors.record(ErrorCause.OVERSIZE, "Message length exceeded in multiplexer channel.");
+                return false;
+            }
+            synchronized (sendLock) {
+                long deadline = System.currentTimeMillis() + sendTimeout;
+                while ((short) (sendNext - ackNext) >= window) {
+                    long now = System.currentTimeMillis();
+                    if (!running) {
+                        errors.record(ErrorCause.OVERFLOW);
+                        return false;
+                    }
+                    if (now - lastProbe >= probeInterval) {
+                        //credit may have been lost, so probe before failing
+                        sendControl(PROBE | id, sendNext & 0xFFFF);
+                        lastProbe = now;
+                    }
+                    if (now >= deadline) {
+                        errors.record(ErrorCause.OVERFLOW);
+                        return false;
+                    }
+                    try {
+                        sendLock.wait(Math.max(1, Math.min(deadline, lastProbe + probeInterval) - now));
+                    } catch (InterruptedException ex) {
+                        Thread.currentThread().interrupt();
+                        return false;
+                    }
+                }
+                frame.clear();
+                frame.put((byte) (DATA | id));
+                frame.putShort((short) sendNext++);
+                frame.put(msg);
+                frame.flip();
+                return messenger.sendMessage(frame);
+            }
+        }
+        
+        private void onCredit(int next) {
+            synchronized (sendLock) {
+                int advance = (short) (next - ackNext);
+                if (advance > 0 && advance <= (short) (sendNext - ackNext)) {
+                    ackNext += advance;
+                    sendLock.notifyAll();
+                }
+            }
+        }
+        
+        private void onData(int seq, ByteBuffer payload) {
+            synchronized (receiveLock) {
+                if (count == window) {
+                    //the sender exceeded its credit
+                    errors.record(ErrorCause.OVERFLOW, "Multiplexer channel receive buffer full.");
+                    return;
+                }
+                if (payload.remaining() > maxMessageLen) {
+                    errors.record(ErrorCause.OVERSIZE, "Message length exceeded in multiplexer channel.");
+                    return;
+                }
+                int index = (head + count) % window;
+                lengths[index] = payload.remaining();
+                seqs[index] = seq;
+                payload.get(slots[index], 0, lengths[index]);
+                count++;
+                receiveLock.notifyAll();
+            }
+        }
+        
+        /**
+         * Request that credit is resent by the delivery thread, as the sender 
+         * may be waiting on a lost credit frame. Messages sent before the probe
+         * that have not arrived are lost, so are counted as consumed once the 
+         * messages buffered have been
+         * 
+         * @param next the next sequence number of the sender
+         */
+        private void onProbe(int next) {
+            synchronized (receiveLock) {
+                probedNext = next;
+                creditRequested = true;
+                receiveLock.notifyAll();
+            }
+        }
+        
+        /**
+         * Send the sequence number up to which messages have been consumed
+         */
+        private void sendCredit() {
+            int next;
+            synchronized (receiveLock) {
+                if (count == 0 && (short) (probedNext - consumedNext) > 0) {
+                    consumedNext += (short) (probedNext - consumedNext);
+                }
+                next = consumedNext;
+                creditedNext = next;
+            }
+            sendControl(CREDIT | id, next & 0xFFFF);
+        }
+        
+        private void start() {
+            synchronized (receiveLock) {
+                head = 0;
+                count = 0;
+                consumedNext = 0;
+                creditedNext = 0;
+                creditRequested = false;
+                probedNext = 0;
+                //a delivery thread of the last connection still in the 
+                //callback exits without touching the reset buffer
+                deliveryThread = new Thread(this::runDelivery, "Multiplexer channel " + id);
+                deliveryThread.setDaemon(true);
+                deliveryThread.start();
+            }
+            synchronized (sendLock) {
+                sendNext = 0;
+                ackNext = 0;
+                lastProbe = 0;
+            }
+        }
+        
+        private void stop() {
+            synchronized (receiveLock) {
+                deliveryThread = null;
+                receiveLock.notifyAll();
+            }
+            synchronized (sendLock) {
+                sendLock.notifyAll();
+            }
+        }
+        
+        /**
+         * Deliver buffered messages to the callback until stopped, granting 
+         * credit as they are consumed
+         */
+        private void runDelivery() {
+            while (true) {
+                int index;
+                boolean requested, empty;
+                synchronized (receiveLock) {
+                    while (running && deliveryThread == Thread.currentThread() 
+                            && count == 0 && !creditRequested) {
+                        try {
+                            receiveLock.wait();
+                        } catch (InterruptedException ex) {
+                            return;
+                        }
+                    }
+                    if (!running || deliveryThread != Thread.currentThread()) {
+                        return;
+                    }
+                    requested = creditRequested;
+                    creditRequested = false;
+                    empty = count == 0;
+                    index = head;
+                }
+                if (requested) {
+                    sendCredit();
+                    if (empty) {
+                        continue;
+                    }
+                }
+                //the slot is not reused until it is released below
+                MessageReceivedCallback cb = callback;
+                if (cb != null) {
+                    cb.onMessageReceived(this, ByteBuffer.wrap(slots[index], 0, lengths[index]));
+                } else {
+                    errors.record(ErrorCause.NO_CALLBACK, "Cannot receive message. Callback is null");
+                }
+                boolean grant;
+                synchronized (receiveLock) {
+                    if (deliveryThread != Thread.currentThread()) {
+                        return;
+                    }
+                    consumedNext = seqs[index] + 1;
+                    head = (head + 1) % window;
+                    count--;
+                    //grant credit in batches, or at once when the buffer empties
+                    grant = count == 0 || (short) (consumedNext - creditedNext) >= Math.max(1, window / 4);
+                }
+                if (grant) {
+                    sendCredit();
+                }
+            }
+        }
+
+        @Override
+        public void setMessageReceivedCallback(MessageReceivedCallback callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * Connect the multiplexer if it is not already connected
+         * 
+         * @return whether the multiplexer is connected
+         */
+        @Override
+        public boolean connect() {
+            return ChannelMultiplexer.this.connect();
+        }
+
+        /**
+         * Channels are not disconnected individually, so this has no effect.
+         * The link is disconnected through the multiplexer
+         * 
+         * @return false
+         */
+        @Override
+        public boolean disconnect() {
+            return false;
+        }
+
+        @Override
+        public boolean isConnected() {
+            return ChannelMultiplexer.this.isConnected();
+        }
+        
+    }
+    
+}
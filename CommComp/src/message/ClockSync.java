@@ -0,0 +1,370 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import util.DaemonThreadFactory;
+
+/**
+ * A Messenger estimating the offset and drift of the clock of the device at the
+ * other end of the wrapped Messenger, so that device timestamps can be 
+ * converted to host time with a known uncertainty.
+ * 
+ * Requests are sent every sync interval and answered immediately by the device
+ * with its millisecond clock, as in NTP with the device's receive and transmit
+ * times equal. Each exchange gives an offset estimate in error by at most half
+ * its round trip time, so of the last few exchanges only the one with the 
+ * minimum round trip time is used, discarding those delayed by queueing. The 
+ * drift is the least squares slope of the filtered offsets over time. The
+ * estimate is restarted on each connect, and when a sample's offset departs
+ * from the offset line by far more than the uncertainty, as when the device 
+ * resets its clock.
+ * 
+ * Requests are framed as [0x07][seq:2][host time:8] and responses as 
+ * [0x08][seq:2][host time:8][device time:4], the device echoing the request 
+ * and appending its unsigned 32 bit millisecond clock. The host time is the
+ * host's clock so that the device need only echo it. Other messages pass 
+ * through unchanged, so plain messages must not begin with these bytes. 
+ * Requests received are answered with the host's clock, so two hosts may be
+ * synchronized in the same way.
+ * 
+ * Host times are in the time base of {@link System#nanoTime()}.
+ * 
+ * @author Andrew_2
+ */
+public class ClockSync extends MessengerWrapper {
+
+    public static final byte REQUEST = 0x07;
+    public static final byte RESPONSE = 0x08;
+    public static final int REQUEST_LENGTH = 11;
+    public static final int RESPONSE_LENGTH = 15;
+    
+    public static final long defaultSyncInterval = 1000;
+    public static final int FILTER_LENGTH = 8;
+    public static final int HISTORY_LENGTH = 32;
+    //the resolution of the device clock in milliseconds
+    private static final double RESOLUTION = 1;
+    //the multiple of the uncertainty beyond which an offset is a clock jump
+    private static final double JUMP_FACTOR = 8;
+    
+    private final long syncInterval;
+    private final ByteBuffer requestFrame = ByteBuffer.allocate(REQUEST_LENGTH);
+    private final ByteBuffer responseFrame = ByteBuffer.allocate(RESPONSE_LENGTH);
+    private ScheduledExecutorService timer;
+    private boolean connected;
+    private int nextSeq;
+    
+    //raw samples of the last exchanges, guarded by this
+    private final double[] sampleHost = new double[FILTER_LENGTH];
+    private final double[] sampleOffset = new double[FILTER_LENGTH];
+    private final double[] sampleRtt = new double[FILTER_LENGTH];
+    private int sampleCount;
+    private long lastDevice;
+    
+    //filtered samples, guarded by this
+    private final double[] historyHost = new double[HISTORY_LENGTH];
+    private final double[] historyOffset = new double[HISTORY_LENGTH];
+    private int historyCount;
+    private double lastFilteredHost = Double.NaN;
+    private double filteredRtt = Double.NaN;
+    
+    //the offset line, offset = offset + drift * (host - reference)
+    private double reference, offset, drift;
+
+    /**
+     * Construct a ClockSync with the default sync interval
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public ClockSync(Messenger messenger) {
+        this(messenger, defaultSyncInterval);
+    }
+    
+    /**
+     * Construct a ClockSync
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param syncInterval the interval between sync requests in milliseconds
+     * or 0 to send requests only by calling {@link #sync()}
+     */
+    public ClockSync(Messenger messenger, long syncInterval) {
+        super(messenger);
+        this.syncInterval = syncInterval;
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return messenger.sendMessage(msg);
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return messenger.sendMessage(parts);
+    }
+    
+    /**
+     * Send a sync request
+     * 
+     * @return whether the request was sent
+     */
+    public boolean sync() {
+        synchronized (requestFrame) {
+            requestFrame.clear();
+            requestFrame.put(REQUEST);
+            requestFrame.putShort((short) nextSeq++);
+            requestFrame.putLong(System.nanoTime());
+            requestFrame.flip();
+            return messenger.sendMessage(requestFrame);
+        }
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        long now = System.nanoTime();
+        int length = msg.remaining();
+        byte type = length > 0 ? msg.get(msg.position()) : 0;
+        if (type == REQUEST && length == REQUEST_LENGTH) {
+            synchronized (responseFrame) {
+                responseFrame.clear();
+                responseFrame.put(RESPONSE);
+                msg.get();
+                responseFrame.put(msg);
+                responseFrame.putInt((int) TimeUnit.NANOSECONDS.toMillis(now));
+                responseFrame.flip();
+                messenger.sendMessage(responseFrame);
+            }
+        } else if (type == RESPONSE && length == RESPONSE_LENGTH) {
+            msg.position(msg.position() + 3);
+            long sent = msg.getLong();
+            int device = msg.getInt();
+            onResponse(sent, device, now);
+        } else {
+            deliver(msg);
+        }
+    }
+    
+    /**
+     * Add the sample of an exchange and update the offset line if the
+     * filtered sample changes
+     */
+    private synchronized void onResponse(long sent, int device, long received) {
+        double rtt = (received - sent) / 1e6;
+        if (rtt < 0) {
+            return;
+        }
+        double host = (sent + received) / 2e6;
+        long unwrapped = sampleCount == 0 ? device & 0xFFFFFFFFL : lastDevice + (device - (int) lastDevice);
+        if (historyCount > 0) {
+            double expected = offset + drift * (host - reference);
+            if (Math.abs(unwrapped - host - expected) > JUMP_FACTOR * (getUncertainty() + rtt / 2)) {
+                //the device clock jumped, so the history no longer applies
+                restart();
+                unwrapped = device & 0xFFFFFFFFL;
+            }
+        }
+        lastDevice = unwrapped;
+        int slot = sampleCount++ % FILTER_LENGTH;
+        sampleHost[slot] = host;
+        sampleOffset[slot] = unwrapped - host;
+        sampleRtt[slot] = rtt;
+        
+        int best = 0;
+        int count = Math.min(sampleCount, FILTER_LENGTH);
+        for (int i = 1; i < count; i++) {
+            if (sampleRtt[i] < sampleRtt[best]) {
+                best = i;
+            }
+        }
+        if (sampleHost[best] == lastFilteredHost) {
+            return;
+        }
+        lastFilteredHost = sampleHost[best];
+        filteredRtt = sampleRtt[best];
+        int h = historyCount++ % HISTORY_LENGTH;
+        historyHost[h] = sampleHost[best];
+        historyOffset[h] = sampleOffset[best];
+        fitOffset();
+    }
+    
+    /**
+     * Discard the samples and the offset line
+     */
+    private void restart() {
+        sampleCount = 0;
+        lastDevice = 0;
+        historyCount = 0;
+        lastFilteredHost = Double.NaN;
+        filteredRtt = Double.NaN;
+        reference = 0;
+        offset = 0;
+        drift = 0;
+    }
+    
+    /**
+     * Fit the offset line to the filtered samples by least squares
+     */
+    private void fitOffset() {
+        int n = Math.min(historyCount, HISTORY_LENGTH);
+        reference = lastFilteredHost;
+        double meanX = 0, meanY = 0;
+        for (int i = 0; i < n; i++) {
+            meanX += historyHost[i] - reference;
+            meanY += historyOffset[i];
+        }
+        meanX /= n;
+        meanY /= n;
+        double sxx = 0, sxy = 0;
+        for (int i = 0; i < n; i++) {
+            double dx = historyHost[i] - reference - meanX;
+            sxx += dx * dx;
+            sxy += dx * (historyOffset[i] - meanY);
+        }
+        drift = sxx > 0 ? sxy / sxx : 0;
+        offset = meanY - drift * meanX;
+    }
+    
+    /**
+     * Get whether an offset has been estimated
+     * 
+     * @return whether the clocks are synchronized
+     */
+    public synchronized boolean isSynchronized() {
+        return historyCount > 0;
+    }
+    
+    /**
+     * Get the estimated offset of the device clock at the given host time
+     * 
+     * @param hostTime the host time in nanoseconds
+     * @return the device time minus the host time in milliseconds or NaN if
+     * not synchronized
+     */
+    public synchronized double getOffset(long hostTime) {
+        if (historyCount == 0) {
+            return Double.NaN;
+        }
+        return offset + drift * (hostTime / 1e6 - reference);
+    }
+    
+    /**
+     * Get the estimated drift of the device clock relative to the host clock
+     * 
+     * @return the drift in parts per million
+     */
+    public synchronized double getDrift() {
+        return drift * 1e6;
+    }
+    
+    /**
+     * Get the round trip time of the filtered sample
+     * 
+     * @return the minimum recent round trip time in milliseconds or NaN if
+     * not synchronized
+     */
+    public synchronized double getMinRtt() {
+        return filteredRtt;
+    }
+    
+    /**
+     * Get the uncertainty of converted times, half the round trip time of the
+     * filtered sample plus the resolution of the device clock
+     * 
+     * @return the uncertainty in milliseconds or NaN if not synchronized
+     */
+    public synchronized double getUncertainty() {
+        return filteredRtt / 2 + RESOLUTION;
+    }
+    
+    /**
+     * Convert a device timestamp to host time. The timestamp is taken to be 
+     * the device time nearest the current time, so it must be within 24 days
+     * of now.
+     * 
+     * @param deviceTime the unsigned 32 bit device time in milliseconds
+     * @return the host time in nanoseconds
+     * @throws IllegalStateException if not synchronized
+     */
+    public synchronized long toHostTime(int deviceTime) {
+        if (historyCount == 0) {
+            throw new IllegalStateException("Clocks not synchronized");
+        }
+        double now = System.nanoTime() / 1e6;
+        double deviceNow = now + offset + drift * (now - reference);
+        long base = (long) Math.floor(deviceNow);
+        double device = base + (deviceTime - (int) base);
+        //solve host + offset(host) = device
+        double host = (device - offset + drift * reference) / (1 + drift);
+        return (long) (host * 1e6);
+    }
+    
+    /**
+     * Convert a host time to a device timestamp
+     * 
+     * @param hostTime the host time in nanoseconds
+     * @return the unsigned 32 bit device time in milliseconds
+     * @throws IllegalStateException if not synchronized
+     */
+    public synchronized int toDeviceTime(long hostTime) {
+        if (historyCount == 0) {
+            throw new IllegalStateException("Clocks not synchronized");
+        }
+        double host = hostTime / 1e6;
+        return (int) (long) Math.floor(host + offset + drift * (host - reference));
+    }
+
+    @Override
+    public boolean connect() {
+        if (!messenger.connect()) {
+            return false;
+        }
+        synchronized (this) {
+            if (!connected) {
+                //the device may have restarted while disconnected
+                connected = true;
+                restart();
+                if (syncInterval > 0) {
+                    timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Clock sync"));
+                    timer.scheduleAtFixedRate(this::sync, 0, syncInterval, TimeUnit.MILLISECONDS);
+                }
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        synchronized (this) {
+            connected = false;
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+        return messenger.disconnect();
+    }
+    
+}
@@ -0,0 +1,313 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.function.ToIntFunction;
+import util.ErrorCause;
+import util.IntObjectMap;
+import util.Utility;
+
+/**
+ * A Messenger sending state-style messages from an outbox that keeps only the
+ * latest message for each conflation key.
+ * 
+ * Messages are copied into the outbox and written to the wrapped Messenger by
+ * a dedicated I/O thread, as with an AsyncMessenger. A message with the same 
+ * key as a queued, unsent message replaces it in place, keeping its position 
+ * in the queue, so while the channel stalls the outbox holds at most one 
+ * message per key and the newest value of each is sent next on recovery. 
+ * Messages without a key are queued in order and never replaced, and may fill
+ * at most half the outbox by default so that keyed messages always have room.
+ * 
+ * Keys are non-negative ints such as an actuator ID, given with 
+ * {@link #sendMessage(ByteBuffer, int)} or taken from each message by a key 
+ * function.
+ * 
+ * @author Andrew_2
+ */
+public class ConflatingMessenger extends OutboxMessenger<Void> {
+
+    /**
+     * The key of messages never conflated
+     */
+    public static final int NO_KEY = -1;
+    
+    public static final int defaultCapacity = 64;
+    public static final int defaultMaxMessageLen = 254;
+    
+    private volatile ToIntFunction<ByteBuffer> keyFunction;
+    
+    //the queue of entries linked in order, with free entries on a free list
+    private final IntObjectMap<Entry> queued;
+    private Entry head, tail, free;
+    private int count;
+    private int unkeyedCount;
+    private int unkeyedLimit;
+    private long conflatedCount;
+
+    /**
+     * Construct a ConflatingMessenger with the default outbox capacity and 
+     * maximum message length
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public ConflatingMessenger(Messenger messenger) {
+        this(messenger, defaultCapacity, defaultMaxMessageLen);
+    }
+    
+    /**
+     * Construct a ConflatingMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param capacity the maximum number of messages in the outbox, at least
+     * the number of distinct keys plus the limit of unkeyed messages
+     * @param maxMessageLen the maximum length of a message
+     */
+    public ConflatingMessenger(Messenger messenger, int capacity, int maxMessageLen) {
+        super(messenger, maxMessageLen, "Conflating messenger sender");
+        unkeyedLimit = Math.max(1, capacity / 2);
+        queued = new IntObjectMap<>(capacity);
+        for (int i = 0; i < capacity; i++) {
+            Entry entry = new Entry(maxMessageLen);
+            entry.next = free;
+            free = entry;
+        }
+    }
+    
+    /**
+     * Set the function taking the conflation key of messages sent with 
+     * {@link #sendMessage(ByteBuffer)}, such as the first byte. The function
+     * must not change the position of the message. For a message gathered 
+     * from several parts it is given the first part.
+     * 
+     * @param keyFunction the key function or null to send messages unkeyed
+     */
+    public void setKeyFunction(ToIntFunction<ByteBuffer> keyFunction) {
+        this.keyFunction = keyFunction;
+    }
+    
+    /**
+     * Set the maximum number of messages without a key in the outbox, the 
+     * rest of the outbox being reserved for keyed messages
+     * 
+     * @param unkeyedLimit the maximum number of unkeyed messages
+     */
+    public synchronized void setUnkeyedLimit(int unkeyedLimit) {
+        this.unkeyedLimit = unkeyedLimit;
+    }
+
+    /**
+     * Queue a message with the key given by the key function
+     * 
+     * @param msg the message to send
+     * @return whether the message was queued
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        ToIntFunction<ByteBuffer> function = keyFunction;
+        return sendMessage(msg, function != null ? function.applyAsInt(msg) : NO_KEY);
+    }
+    
+    /**
+     * Queue a message gathered from several parts with the key given by the
+     * key function, copying the parts straight into the outbox
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was queued
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        ToIntFunction<ByteBuffer> function = keyFunction;
+        return sendMessage(function != null && parts.length > 0 ? function.applyAsInt(parts[0]) : NO_KEY, parts);
+    }
+    
+    /**
+     * Queue a message, replacing any queued message with the same key
+     * 
+     * @param msg the message to send
+     * @param key the conflation key or NO_KEY
+     * @return whether the message was queued
+     */
+    public synchronized boolean sendMessage(ByteBuffer msg, int key) {
+        if (msg.remaining() > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in conflating messenger.");
+            return false;
+        }
+        Entry entry = entryFor(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.length = msg.remaining();
+        msg.get(entry.data, 0, entry.length);
+        return true;
+    }
+    
+    /**
+     * Queue a message gathered from several parts, replacing any queued 
+     * message with the same key
+     * 
+     * @param key the conflation key or NO_KEY
+     * @param parts the parts of the message
+     * @return whether the message was queued
+     */
+    public synchronized boolean sendMessage(int key, ByteBuffer... parts) {
+        if (Utility.remaining(parts) > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in conflating messenger.");
+            return false;
+        }
+        Entry entry = entryFor(key);
+        if (entry == null) {
+            return false;
+        }
+        entry.length = 0;
+        for (ByteBuffer part : parts) {
+            int length = part.remaining();
+            part.get(entry.data, entry.length, length);
+            entry.length += length;
+        }
+        return true;
+    }
+    
+    /**
+     * Get the queued entry to be replaced by a message with the key, or queue
+     * a free entry for it. The caller must hold the lock on this.
+     * 
+     * @param key the conflation key or NO_KEY
+     * @return the entry to fill or null if the message cannot be queued
+     */
+    private Entry entryFor(int key) {
+        if (!running) {
+            errors.record(ErrorCause.DISCONNECTED, "Cannot send when disconnected.");
+            return null;
+        }
+        Entry entry = key < 0 ? null : queued.get(key);
+        if (entry != null) {
+            //replace the outdated message in place
+            conflatedCount++;
+        } else {
+            entry = free;
+            if (entry == null || (key < 0 && unkeyedCount >= unkeyedLimit)) {
+                errors.record(ErrorCause.OVERFLOW, "Conflating outbox full.");
+                return null;
+            }
+            free = entry.next;
+            entry.next = null;
+            entry.key = key;
+            if (tail == null) {
+                head = entry;
+            } else {
+                tail.next = entry;
+            }
+            tail = entry;
+            count++;
+            if (key >= 0) {
+                queued.put(key, entry);
+            } else {
+                unkeyedCount++;
+            }
+            notifyAll();
+        }
+        return entry;
+    }
+    
+    /**
+     * Get the number of messages waiting in the outbox
+     * 
+     * @return the number of queued messages
+     */
+    public synchronized int getQueuedCount() {
+        return count;
+    }
+    
+    /**
+     * Get the number of queued messages replaced by newer messages
+     * 
+     * @return the number of conflated messages
+     */
+    public synchronized long getConflatedCount() {
+        return conflatedCount;
+    }
+    
+    /**
+     * Return the head entry to the free list. The caller must hold the lock
+     * on this.
+     */
+    private void removeHead() {
+        Entry entry = head;
+        head = entry.next;
+        if (head == null) {
+            tail = null;
+        }
+        if (entry.key >= 0) {
+            queued.remove(entry.key);
+        } else {
+            unkeyedCount--;
+        }
+        entry.next = free;
+        free = entry;
+        count--;
+    }
+    
+    @Override
+    protected boolean isOutboxEmpty() {
+        return count == 0;
+    }
+
+    /**
+     * Copy out the head message so that a newer message with its key queues 
+     * afresh while the write blocks
+     */
+    @Override
+    protected Void takeNext(ByteBuffer buffer) {
+        buffer.put(head.data, 0, head.length);
+        removeHead();
+        return null;
+    }
+
+    @Override
+    protected void discardAll(List<Void> tokens) {
+        while (count > 0) {
+            removeHead();
+        }
+    }
+    
+    /**
+     * A message in the outbox
+     */
+    private static class Entry {
+        
+        final byte[] data;
+        int length;
+        int key;
+        Entry next;
+
+        Entry(int capacity) {
+            data = new byte[capacity];
+        }
+        
+    }
+    
+}
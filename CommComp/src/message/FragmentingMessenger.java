@@ -0,0 +1,458 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.Varint;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import util.BufferLease;
+import util.BufferPool;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+import util.Utility;
+
+/**
+ * A Messenger splitting messages larger than the frame size of the wrapped 
+ * Messenger into fragments and reassembling them on receipt.
+ * 
+ * Each fragment carries the ID of its message, the total length of the message
+ * and the offset of the fragment in the message:
+ * [id:2][total length:varint][offset:varint][data]. Messages that fit in a
+ * single frame are sent as one fragment and delivered without copying.
+ * 
+ * Messages are reassembled in slabs leased from a preallocated BufferPool, 
+ * so fragments of several messages may arrive interleaved. The number of 
+ * partial messages is capped, evicting the oldest when a new message arrives
+ * at the cap, and partial messages not completed within the reassembly timeout
+ * are discarded by a periodic sweep, so lost fragments cannot hold slabs. 
+ * Duplicate fragments are ignored. Message IDs start at a random value on 
+ * each connect, and reassembly state is cleared, so that the IDs of a peer 
+ * that reconnects are unlikely to match those of messages it completed 
+ * before. Both ends must use the same frame size.
+ * 
+ * @author Andrew_2
+ */
+public class FragmentingMessenger extends MessengerWrapper {
+
+    public static final int ID_LENGTH = 2;
+    public static final int defaultFrameSize = 254;
+    public static final int defaultMaxMessageLen = 16384;
+    public static final int defaultMaxPartial = 4;
+    public static final long defaultReassemblyTimeout = 2000;
+    public static final long sweepPeriod = 100;
+    
+    private final int maxMessageLen;
+    private final int fragmentSize;
+    //the header and fragment passed down together, guarded by header
+    private final ByteBuffer header;
+    private final ByteBuffer[] frame;
+    //the header and parts of a gathered message and the limits of the parts
+    private ByteBuffer[] gathered;
+    private int[] limits = new int[0];
+    private final AtomicInteger nextId = new AtomicInteger();
+    
+    private final BufferPool slabs;
+    private final Partial[] partials;
+    //IDs of recently completed messages, to ignore their late duplicate fragments
+    private final int[] completed;
+    private int completedIndex;
+    private volatile long reassemblyTimeout = TimeUnit.MILLISECONDS.toNanos(defaultReassemblyTimeout);
+    private ScheduledExecutorService timer;
+
+    /**
+     * Construct a FragmentingMessenger with the default frame size, maximum 
+     * message length and number of partial messages
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public FragmentingMessenger(Messenger messenger) {
+        this(messenger, defaultFrameSize, defaultMaxMessageLen, defaultMaxPartial);
+    }
+    
+    /**
+     * Construct a FragmentingMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param frameSize the maximum message length of the wrapped Messenger
+     * @param maxMessageLen the maximum length of a message
+     * @param maxPartial the maximum number of partially received messages
+     */
+    public FragmentingMessenger(Messenger messenger, int frameSize, int maxMessageLen, int maxPartial) {
+        super(messenger);
+        this.maxMessageLen = maxMessageLen;
+        this.fragmentSize = frameSize - ID_LENGTH - 2 * Varint.size(maxMessageLen);
+        if (fragmentSize < 1) {
+            throw new IllegalArgumentException("Frame size too small for fragment headers");
+        }
+        header = ByteBuffer.allocate(frameSize - fragmentSize);
+        frame = new ByteBuffer[] {header, null};
+        slabs = new BufferPool(maxMessageLen, maxPartial, false);
+        slabs.preallocate();
+        partials = new Partial[maxPartial];
+        for (int i = 0; i < maxPartial; i++) {
+            partials[i] = new Partial((maxMessageLen / fragmentSize + 64) / 64);
+        }
+        completed = new int[4 * maxPartial];
+        Arrays.fill(completed, -1);
+    }
+    
+    /**
+     * Set the time after which a partially received message is discarded
+     * 
+     * @param reassemblyTimeout the reassembly timeout in milliseconds
+     */
+    public void setReassemblyTimeout(long reassemblyTimeout) {
+        this.reassemblyTimeout = TimeUnit.MILLISECONDS.toNanos(reassemblyTimeout);
+    }
+    
+    /**
+     * Get the maximum length of message data in each fragment
+     * 
+     * @return the fragment size
+     */
+    public int getFragmentSize() {
+        return fragmentSize;
+    }
+
+    /**
+     * Send a message as one or more fragments. Fragments of messages sent 
+     * concurrently may be interleaved
+     * 
+     * @param msg the message to send
+     * @return whether every fragment was sent
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        int total = msg.remaining();
+        if (total > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in fragmenting messenger.");
+            return false;
+        }
+        int id = nextId.getAndIncrement() & 0xFFFF;
+        boolean sent = true;
+        int offset = 0;
+        do {
+            int length = Math.min(fragmentSize, total - offset);
+            synchronized (header) {
+                header.clear();
+                header.putShort((short) id);
+                Varint.put(header, total);
+                Varint.put(header, offset);
+                header.flip();
+                int limit = msg.limit();
+                int end = msg.position() + length;
+                msg.limit(end);
+                frame[1] = msg;
+                sent &= messenger.sendMessage(frame);
+                frame[1] = null;
+                msg.limit(limit);
+                msg.position(end);
+            }
+            offset += length;
+        } while (offset < total);
+        return sent;
+    }
+
+    /**
+     * Send a message gathered from several parts as one or more fragments. 
+     * Each fragment passes down the header and the spans of the parts it 
+     * covers, by limiting the parts rather than copying them.
+     * 
+     * @param parts the parts of the message
+     * @return whether every fragment was sent
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        int total = Utility.remaining(parts);
+        if (total > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in fragmenting messenger.");
+            return false;
+        }
+        int id = nextId.getAndIncrement() & 0xFFFF;
+        boolean sent = true;
+        synchronized (header) {
+            if (limits.length < parts.length) {
+                limits = new int[parts.length];
+            }
+            for (int i = 0; i < parts.length; i++) {
+                limits[i] = parts[i].limit();
+            }
+            gathered = Utility.prepend(gathered, header, parts);
+            int offset = 0;
+            do {
+                int length = Math.min(fragmentSize, total - offset);
+                header.clear();
+                header.putShort((short) id);
+                Varint.put(header, total);
+                Varint.put(header, offset);
+                header.flip();
+                //limit the parts to the span of this fragment
+                int left = length;
+                for (int i = 0; i < parts.length; i++) {
+                    int take = Math.min(limits[i] - parts[i].position(), left);
+                    parts[i].limit(parts[i].position() + take);
+                    left -= take;
+                }
+                sent &= messenger.sendMessage(gathered);
+                for (int i = 0; i < parts.length; i++) {
+                    int end = parts[i].limit();
+                    parts[i].limit(limits[i]);
+                    parts[i].position(end);
+                }
+                offset += length;
+            } while (offset < total);
+            Arrays.fill(gathered, null);
+        }
+        return sent;
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        onWrappedMessageReceived(msg, null);
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg, BufferLease lease) {
+        if (msg.remaining() < ID_LENGTH + 2) {
+            errors.record(ErrorCause.MALFORMED, "Fragment too short.");
+            return;
+        }
+        int id = msg.getShort() & 0xFFFF;
+        int total = Varint.get(msg);
+        int offset = Varint.get(msg);
+        int length = msg.remaining();
+        if (total < 0 || offset < 0 || offset % fragmentSize != 0 || offset + length > total
+                || (length != fragmentSize && offset + length != total)) {
+            errors.record(ErrorCause.MALFORMED, "Invalid fragment.");
+            return;
+        }
+        if (total > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in fragmenting messenger.");
+            return;
+        }
+        if (length == total) {
+            //a whole message in one fragment
+            if (lease != null) {
+                deliver(msg, lease);
+            } else {
+                deliver(msg);
+            }
+            return;
+        }
+        BufferLease complete = null;
+        int completeLength = 0;
+        synchronized (partials) {
+            long now = System.nanoTime();
+            expire(now);
+            Partial partial = null;
+            Partial free = null;
+            Partial oldest = null;
+            for (Partial p : partials) {
+                if (p.slab == null) {
+                    free = free == null ? p : free;
+                } else if (p.id == id && p.total == total) {
+                    partial = p;
+                } else if (oldest == null || p.started - oldest.started < 0) {
+                    oldest = p;
+                }
+            }
+            if (partial == null) {
+                for (int c : completed) {
+                    if (c == id) {
+                        //duplicate fragment of a completed message
+                        return;
+                    }
+                }
+                if (free == null) {
+                    errors.record(ErrorCause.OVERFLOW, "Too many partial messages, discarding oldest.");
+                    oldest.discard();
+                    free = oldest;
+                }
+                partial = free;
+                partial.start(id, total, now, slabs.acquire());
+            }
+            if (partial.add(offset / fragmentSize, offset, msg)) {
+                //the slab is detached from the partial so it can be reused at once
+                complete = partial.detached;
+                completeLength = partial.detachedLength;
+                partial.detached = null;
+                completed[completedIndex] = id;
+                completedIndex = (completedIndex + 1) % completed.length;
+            }
+        }
+        if (complete != null) {
+            ByteBuffer message = complete.buffer();
+            message.limit(completeLength);
+            message.position(0);
+            deliver(message, complete);
+            complete.release();
+        }
+    }
+    
+    /**
+     * Discard partial messages older than the reassembly timeout. Must hold
+     * the lock of partials
+     * 
+     * @param now the current time in nanoseconds
+     */
+    private void expire(long now) {
+        for (Partial p : partials) {
+            if (p.slab != null && now - p.started > reassemblyTimeout) {
+                errors.record(ErrorCause.TIMEOUT);
+                p.discard();
+            }
+        }
+    }
+    
+    private void sweep() {
+        synchronized (partials) {
+            expire(System.nanoTime());
+        }
+    }
+    
+    /**
+     * Discard all partial messages and forget completed IDs
+     */
+    private void reset() {
+        synchronized (partials) {
+            for (Partial p : partials) {
+                p.discard();
+            }
+            Arrays.fill(completed, -1);
+            completedIndex = 0;
+        }
+    }
+
+    @Override
+    public boolean connect() {
+        reset();
+        nextId.set(ThreadLocalRandom.current().nextInt(0x10000));
+        if (!messenger.connect()) {
+            return false;
+        }
+        synchronized (this) {
+            if (timer == null) {
+                timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Fragment reassembly sweep"));
+                timer.scheduleWithFixedDelay(this::sweep, sweepPeriod, sweepPeriod, TimeUnit.MILLISECONDS);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+        reset();
+        return messenger.disconnect();
+    }
+    
+    /**
+     * Get the number of messages being reassembled
+     * 
+     * @return the number of partial messages
+     */
+    public int getPartialCount() {
+        int count = 0;
+        synchronized (partials) {
+            for (Partial p : partials) {
+                if (p.slab != null) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+    
+    /**
+     * A message being reassembled
+     */
+    private static class Partial {
+        
+        final long[] received;
+        int id, total, receivedLength;
+        long started;
+        BufferLease slab;
+        //a completed slab awaiting delivery
+        BufferLease detached;
+        int detachedLength;
+
+        Partial(int words) {
+            received = new long[words];
+        }
+        
+        void start(int id, int total, long now, BufferLease slab) {
+            this.id = id;
+            this.total = total;
+            this.started = now;
+            this.slab = slab;
+            receivedLength = 0;
+            for (int i = 0; i < received.length; i++) {
+                received[i] = 0;
+            }
+        }
+        
+        /**
+         * Copy a fragment into the slab
+         * 
+         * @return whether the message is complete
+         */
+        boolean add(int index, int offset, ByteBuffer data) {
+            long bit = 1L << (index & 63);
+            if ((received[index >>> 6] & bit) != 0) {
+                //duplicate fragment
+                return false;
+            }
+            received[index >>> 6] |= bit;
+            int length = data.remaining();
+            data.get(slab.buffer().array(), slab.buffer().arrayOffset() + offset, length);
+            receivedLength += length;
+            if (receivedLength < total) {
+                return false;
+            }
+            detached = slab;
+            detachedLength = total;
+            slab = null;
+            return true;
+        }
+        
+        void discard() {
+            if (slab != null) {
+                slab.release();
+                slab = null;
+            }
+        }
+        
+    }
+    
+}
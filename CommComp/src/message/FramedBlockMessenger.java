@@ -0,0 +1,253 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.FrameDecoder;
+import coding.FramingCodec;
+import comm.BlockComm;
+import comm.UDPBlockComm;
+import java.nio.ByteBuffer;
+import util.BlockOutput;
+import util.BufferLease;
+import util.ErrorCause;
+import util.ErrorStats;
+import util.Utility;
+
+/**
+ * An implementation of a Messenger using a BlockComm block communication
+ * channel with messages delimited by a FramingCodec.
+ * 
+ * Frames are encoded directly into blocks without emulating a stream. Each 
+ * message is sent as one block, or several messages may be packed into one 
+ * block with {@link #sendMessages(ByteBuffer...)}. Every received block is 
+ * decoded as whole frames and any partial frame at the end of a block is 
+ * discarded, so this Messenger is intended for datagram channels such as 
+ * UDPBlockComm. Stream channels should use a FramedStreamMessenger instead.
+ * 
+ * @author Andrew_2
+ */
+public class FramedBlockMessenger implements Messenger {
+
+    private static final ErrorStats errors = ErrorStats.forComponent("FramedBlockMessenger");
+    
+    private final BlockComm comm;
+    private final FramingCodec codec;
+    private final FrameDecoder decoder;
+    private final int maxMessageLen;
+    private final ByteBuffer block;
+    
+    private volatile MessageReceivedCallback callback;
+    
+    public static final int defaultMaxMessageLen = 254;
+    public static final int defaultMaxBlockSize = UDPBlockComm.defaultPacketBufferSize;
+    
+    /**
+     * Construct a FramedBlockMessenger with the default message and block sizes
+     * 
+     * @param codec the codec used to frame messages
+     * @param comm the BlockComm to communicate over
+     */
+    public FramedBlockMessenger(FramingCodec codec, BlockComm comm) {
+        this(codec, comm, defaultMaxMessageLen, defaultMaxBlockSize);
+    }
+    
+    /**
+     * Construct a FramedBlockMessenger
+     * 
+     * @param codec the codec used to frame messages
+     * @param comm the BlockComm to communicate over
+     * @param maxMessageLen the maximum length of a message
+     * @param maxBlockSize the maximum size of a block sent or received
+     */
+    public FramedBlockMessenger(FramingCodec codec, BlockComm comm, int maxMessageLen, int maxBlockSize) {
+        this.comm = comm;
+        this.codec = codec;
+        this.maxMessageLen = maxMessageLen;
+        this.block = ByteBuffer.allocate(Math.max(maxBlockSize, codec.maxFrameLength(maxMessageLen)));
+        this.decoder = codec.createDecoder(maxMessageLen);
+        decoder.setBlockAvailableCallback(new BlockOutputToMessageCallback());
+        comm.setBlockReceivedCallback(new BlockComm.BlockReceivedCallback() {
+            @Override
+            public void onBlockReceived(BlockComm comm, ByteBuffer block) {
+                decoder.decode(block);
+                decoder.reset();
+            }
+        });
+    }
+
+    /**
+     * Send a message as a single block
+     * 
+     * @param msg the message to send
+     * @return whether the sending was successful
+     */
+    @Override
+    public synchronized boolean sendMessage(ByteBuffer msg) {
+        block.clear();
+        return encode(msg) && writeBlock();
+    }
+    
+    /**
+     * Send a message gathered from several parts, encoding the parts in place
+     * as a single frame
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was sent successfully
+     */
+    @Override
+    public synchronized boolean sendMessage(ByteBuffer... parts) {
+        block.clear();
+        return checkLength(Utility.remaining(parts)) 
+                && encoded(codec.encode(parts, block)) && writeBlock();
+    }
+    
+    /**
+     * Send several messages, packing as many frames as fit into each block
+     * 
+     * @param msgs the messages to send
+     * @return whether all messages were sent successfully
+     */
+    public synchronized boolean sendMessages(ByteBuffer... msgs) {
+        boolean success = true;
+        block.clear();
+        for (ByteBuffer msg : msgs) {
+            if (block.position() > 0 && block.remaining() < codec.maxFrameLength(msg.remaining())) {
+                success &= writeBlock();
+                block.clear();
+            }
+            success &= encode(msg);
+        }
+        if (block.position() > 0) {
+            success &= writeBlock();
+        }
+        return success;
+    }
+    
+    /**
+     * Encode a message as a frame appended to the block
+     * 
+     * @param msg the message to encode
+     * @return whether the encoding was successful
+     */
+    private boolean encode(ByteBuffer msg) {
+        return checkLength(msg.remaining()) && encoded(codec.encode(msg, block));
+    }
+    
+    /**
+     * Check that a message can be framed
+     * 
+     * @param length the length of the message
+     * @return whether the message is neither empty nor too long
+     */
+    private boolean checkLength(int length) {
+        if (length == 0) {
+            errors.record(ErrorCause.EMPTY, "Cannot frame empty message");
+            return false;
+        }
+        if (length > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in writer.");
+            return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Record a message that the codec could not frame
+     * 
+     * @param success whether the codec framed the message
+     * @return whether the codec framed the message
+     */
+    private boolean encoded(boolean success) {
+        if (!success) {
+            errors.record(ErrorCause.OVERSIZE, "Message could not be framed");
+        }
+        return success;
+    }
+    
+    /**
+     * Write the frames in the block to the BlockComm
+     * 
+     * @return whether the comm is still connected after the write
+     */
+    private boolean writeBlock() {
+        block.flip();
+        comm.writeBlock(block);
+        return comm.isConnected();
+    }
+
+    @Override
+    public void setMessageReceivedCallback(MessageReceivedCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean connect() {
+        decoder.reset();
+        return comm.connect();
+    }
+
+    @Override
+    public boolean disconnect() {
+        return comm.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return comm.isConnected();
+    }
+    
+    /**
+     * Get the codec used to frame messages
+     * 
+     * @return the codec used to frame messages
+     */
+    public FramingCodec getCodec() {
+        return codec;
+    }
+    
+    private class BlockOutputToMessageCallback implements BlockOutput.BlockOutputCallback {
+
+        @Override
+        public void onBlockOutput(ByteBuffer msg) {
+            MessageReceivedCallback cb = callback;
+            if (cb != null) {
+                cb.onMessageReceived(FramedBlockMessenger.this, msg);
+            } else {
+                errors.record(ErrorCause.NO_CALLBACK, "Cannot receive message. Callback is null");
+            }
+        }
+
+        @Override
+        public void onBlockOutput(ByteBuffer msg, BufferLease lease) {
+            MessageReceivedCallback cb = callback;
+            if (cb != null) {
+                cb.onMessageReceived(FramedBlockMessenger.this, msg, lease);
+            } else {
+                errors.record(ErrorCause.NO_CALLBACK, "Cannot receive message. Callback is null");
+            }
+        }
+        
+    }
+    
+}
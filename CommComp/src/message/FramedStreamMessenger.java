@@ -0,0 +1,91 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.FrameReader;
+import coding.FrameWriter;
+import coding.FramingCodec;
+import comm.StreamComm;
+
+/**
+ * An implementation of a Messenger using a StreamComm stream communication 
+ * channel with messages delimited by a FramingCodec
+ * 
+ * @author Andrew_2
+ */
+public class FramedStreamMessenger extends BlockToStreamMessenger {
+
+    private final FramingCodec codec;
+    
+    public static final int defaultMaxMessageLen = 254;
+    public static final int readerBufferSize = 1024;
+    
+    /**
+     * Construct a FramedStreamMessenger from a reader and writer using the 
+     * same codec
+     * 
+     * @param reader the reader decoding frames from the stream
+     * @param writer the writer encoding frames to the stream
+     * @param streamComm the StreamComm to communicate over
+     */
+    protected FramedStreamMessenger(FrameReader reader, FrameWriter writer, StreamComm streamComm) {
+        super(writer, writer, reader, reader, streamComm);
+        this.codec = writer.getCodec();
+    }
+    
+    /**
+     * Get the codec used to frame messages
+     * 
+     * @return the codec used to frame messages
+     */
+    public FramingCodec getCodec() {
+        return codec;
+    }
+    
+    /**
+     * Create a FramedStreamMessenger with the default maximum message length
+     * 
+     * @param codec the codec used to frame messages
+     * @param streamComm the StreamComm to be used by the created Messenger
+     * @return the created Messenger
+     */
+    public static FramedStreamMessenger createFramedStreamMessenger(FramingCodec codec, StreamComm streamComm) {
+        return createFramedStreamMessenger(codec, streamComm, defaultMaxMessageLen);
+    }
+    
+    /**
+     * Create a FramedStreamMessenger
+     * 
+     * @param codec the codec used to frame messages
+     * @param streamComm the StreamComm to be used by the created Messenger
+     * @param maxMessageLen the maximum length of a message
+     * @return the created Messenger
+     */
+    public static FramedStreamMessenger createFramedStreamMessenger(FramingCodec codec, StreamComm streamComm, int maxMessageLen) {
+        FrameReader reader = new FrameReader(codec, readerBufferSize, maxMessageLen);
+        FrameWriter writer = new FrameWriter(codec, maxMessageLen);
+        return new FramedStreamMessenger(reader, writer, streamComm);
+    }
+    
+}
@@ -0,0 +1,110 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.FrameCheck;
+import coding.Framing;
+import coding.FramingCodec;
+
+/**
+ * The configuration of a link agreed in a capability handshake.
+ * 
+ * @author Andrew_2
+ */
+public class LinkConfiguration {
+    
+    /**
+     * The configuration used with firmware predating the handshake
+     */
+    public static final LinkConfiguration LEGACY = new LinkConfiguration(0, Framing.COBS, FrameCheck.NONE,
+            Capabilities.LEGACY.getMaxMessageLen(), Capabilities.LEGACY.getBytesPerSecond());
+
+    private final int version;
+    private final Framing framing;
+    private final FrameCheck check;
+    private final int maxMessageLen;
+    private final int bytesPerSecond;
+
+    /**
+     * Construct a link configuration
+     * 
+     * @param version the handshake version agreed
+     * @param framing the framing of messages
+     * @param check the integrity check of frames
+     * @param maxMessageLen the maximum length of a message
+     * @param bytesPerSecond the rate in bytes per second or 0 if unlimited
+     */
+    public LinkConfiguration(int version, Framing framing, FrameCheck check, int maxMessageLen, int bytesPerSecond) {
+        this.version = version;
+        this.framing = framing;
+        this.check = check;
+        this.maxMessageLen = maxMessageLen;
+        this.bytesPerSecond = bytesPerSecond;
+    }
+    
+    /**
+     * Create a codec of the agreed framing and check
+     * 
+     * @return the created codec
+     */
+    public FramingCodec createCodec() {
+        return framing.createCodec(check);
+    }
+
+    /**
+     * Get whether this is the legacy configuration, used when the peer did 
+     * not answer the handshake
+     * 
+     * @return whether the configuration is legacy
+     */
+    public boolean isLegacy() {
+        return version == 0;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    public Framing getFraming() {
+        return framing;
+    }
+
+    public FrameCheck getCheck() {
+        return check;
+    }
+
+    public int getMaxMessageLen() {
+        return maxMessageLen;
+    }
+
+    public int getBytesPerSecond() {
+        return bytesPerSecond;
+    }
+
+    @Override
+    public String toString() {
+        return "v" + version + " " + framing + " + " + check + " " + maxMessageLen + "B " + bytesPerSecond + "B/s";
+    }
+    
+}
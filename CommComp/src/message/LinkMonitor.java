@@ -0,0 +1,372 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+
+/**
+ * A Messenger monitoring the quality of the link of the wrapped Messenger with
+ * heartbeat probes.
+ * 
+ * A ping is sent every heartbeat interval and the peer echoes it back as a 
+ * pong. From the round trip times the monitor keeps a smoothed RTT and RTT 
+ * variance as in RFC 6298, a jitter estimate as in RFC 3550 and a window of 
+ * recent samples for percentiles. A probe not answered within the probe 
+ * timeout is counted as lost. The link is declared dead when nothing has been
+ * received for the maximum number of missed heartbeats, and alive again when 
+ * anything is received, notifying the LinkStateListener of each change. A 
+ * peer that has not answered a ping since the connect may not answer pings 
+ * at all, so the link is not declared dead until one has been answered.
+ * 
+ * Pings are framed as [0x05][seq:2][time:8] and pongs as [0x06][seq:2][time:8],
+ * the time being the sender's clock so that the peer need only echo it, as
+ * CommArdu does with answerPing. Other messages pass through unchanged, so 
+ * plain messages must not begin with these bytes.
+ * 
+ * @author Andrew_2
+ */
+public class LinkMonitor extends MessengerWrapper {
+
+    public static final byte PING = 0x05;
+    public static final byte PONG = 0x06;
+    public static final int PROBE_LENGTH = 11;
+    
+    public static final long defaultInterval = 250;
+    public static final int defaultMaxMissed = 4;
+    public static final long defaultProbeTimeout = 1000;
+    public static final int WINDOW = 64;
+    
+    private static final double ALPHA = 0.125;
+    private static final double BETA = 0.25;
+    
+    private final long interval;
+    private final int maxMissed;
+    private long probeTimeout = TimeUnit.MILLISECONDS.toNanos(defaultProbeTimeout);
+    
+    private final ByteBuffer pingFrame = ByteBuffer.allocate(PROBE_LENGTH);
+    private final ByteBuffer pongFrame = ByteBuffer.allocate(PROBE_LENGTH);
+    private ScheduledExecutorService timer;
+    private volatile LinkStateListener listener;
+    
+    //estimates guarded by this
+    private int nextSeq;
+    private final long[] probeTimes = new long[WINDOW];
+    private final boolean[] answered = new boolean[WINDOW];
+    private int probeCount;
+    private final double[] samples = new double[WINDOW];
+    private int sampleCount;
+    private boolean rttValid;
+    private double srtt, rttvar, jitter, lastRtt;
+    private volatile boolean receivedSinceBeat;
+    private int missed;
+    private boolean alive = true;
+    private boolean answering;
+
+    /**
+     * Construct a LinkMonitor with the default heartbeat interval and maximum
+     * missed heartbeats
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public LinkMonitor(Messenger messenger) {
+        this(messenger, defaultInterval, defaultMaxMissed);
+    }
+    
+    /**
+     * Construct a LinkMonitor
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param interval the heartbeat interval in milliseconds
+     * @param maxMissed the number of heartbeat intervals without receipt 
+     * after which the link is dead
+     */
+    public LinkMonitor(Messenger messenger, long interval, int maxMissed) {
+        super(messenger);
+        this.interval = interval;
+        this.maxMissed = maxMissed;
+    }
+    
+    /**
+     * Set the time after which an unanswered probe is counted as lost
+     * 
+     * @param probeTimeout the probe timeout in milliseconds
+     */
+    public synchronized void setProbeTimeout(long probeTimeout) {
+        this.probeTimeout = TimeUnit.MILLISECONDS.toNanos(probeTimeout);
+    }
+    
+    /**
+     * Set the listener notified when the link is declared dead or alive
+     * 
+     * @param listener the link state listener
+     */
+    public void setLinkStateListener(LinkStateListener listener) {
+        this.listener = listener;
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return messenger.sendMessage(msg);
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return messenger.sendMessage(parts);
+    }
+    
+    /**
+     * Send a ping and check for missed heartbeats. Run by the timer every 
+     * heartbeat interval.
+     */
+    private void heartbeat() {
+        long now = System.nanoTime();
+        boolean changed = false;
+        int seq;
+        synchronized (this) {
+            if (receivedSinceBeat) {
+                receivedSinceBeat = false;
+                missed = 0;
+            } else if (++missed >= maxMissed && alive && answering) {
+                alive = false;
+                changed = true;
+            }
+            seq = nextSeq;
+            nextSeq = (nextSeq + 1) & 0xFFFF;
+            int slot = seq % WINDOW;
+            probeTimes[slot] = now;
+            answered[slot] = false;
+            if (probeCount < WINDOW) {
+                probeCount++;
+            }
+        }
+        if (changed) {
+            errors.record(ErrorCause.DISCONNECTED, "Link dead after " + maxMissed + " missed heartbeats.");
+            notifyListener(false);
+        }
+        pingFrame.clear();
+        pingFrame.put(PING);
+        pingFrame.putShort((short) seq);
+        pingFrame.putLong(now);
+        pingFrame.flip();
+        messenger.sendMessage(pingFrame);
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        receivedSinceBeat = true;
+        if (!alive) {
+            boolean changed;
+            synchronized (this) {
+                changed = !alive;
+                alive = true;
+                missed = 0;
+            }
+            if (changed) {
+                notifyListener(true);
+            }
+        }
+        byte type = msg.remaining() == PROBE_LENGTH ? msg.get(msg.position()) : 0;
+        if (type == PING) {
+            synchronized (pongFrame) {
+                pongFrame.clear();
+                pongFrame.put(PONG);
+                msg.get();
+                pongFrame.put(msg);
+                pongFrame.flip();
+                messenger.sendMessage(pongFrame);
+            }
+        } else if (type == PONG) {
+            msg.get();
+            int seq = msg.getShort() & 0xFFFF;
+            long sent = msg.getLong();
+            onPong(seq, sent, System.nanoTime());
+        } else {
+            deliver(msg);
+        }
+    }
+    
+    /**
+     * Update the estimates with the round trip time of an answered probe
+     */
+    private synchronized void onPong(int seq, long sent, long now) {
+        answering = true;
+        int slot = seq % WINDOW;
+        if (probeTimes[slot] != sent || answered[slot]) {
+            //duplicated or too old to be in the window
+            return;
+        }
+        answered[slot] = true;
+        double rtt = (now - sent) / 1e6;
+        if (!rttValid) {
+            srtt = rtt;
+            rttvar = rtt / 2;
+            rttValid = true;
+        } else {
+            rttvar = (1 - BETA) * rttvar + BETA * Math.abs(srtt - rtt);
+            srtt = (1 - ALPHA) * srtt + ALPHA * rtt;
+            jitter += (Math.abs(rtt - lastRtt) - jitter) / 16;
+        }
+        lastRtt = rtt;
+        samples[sampleCount++ % WINDOW] = rtt;
+    }
+    
+    private void notifyListener(boolean alive) {
+        LinkStateListener l = listener;
+        if (l != null) {
+            l.onLinkStateChanged(this, alive);
+        }
+    }
+    
+    /**
+     * Get whether the link is alive, that is whether anything has been 
+     * received within the maximum number of missed heartbeats
+     * 
+     * @return whether the link is alive
+     */
+    public synchronized boolean isAlive() {
+        return alive;
+    }
+    
+    /**
+     * Get the smoothed round trip time
+     * 
+     * @return the smoothed round trip time in milliseconds or NaN if not measured
+     */
+    public synchronized double getSmoothedRtt() {
+        return rttValid ? srtt : Double.NaN;
+    }
+    
+    /**
+     * Get the round trip time variance
+     * 
+     * @return the mean deviation of the round trip time in milliseconds or NaN
+     * if not measured
+     */
+    public synchronized double getRttVariance() {
+        return rttValid ? rttvar : Double.NaN;
+    }
+    
+    /**
+     * Get the jitter, the smoothed difference between consecutive round trip
+     * times
+     * 
+     * @return the jitter in milliseconds or NaN if not measured
+     */
+    public synchronized double getJitter() {
+        return rttValid ? jitter : Double.NaN;
+    }
+    
+    /**
+     * Get a percentile of the recent round trip times
+     * 
+     * @param percentile the percentile between 0 and 100
+     * @return the round trip time percentile in milliseconds or NaN if not 
+     * measured
+     */
+    public double getRttPercentile(double percentile) {
+        double[] sorted;
+        synchronized (this) {
+            sorted = Arrays.copyOf(samples, Math.min(sampleCount, WINDOW));
+        }
+        if (sorted.length == 0) {
+            return Double.NaN;
+        }
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100 * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, index))];
+    }
+    
+    /**
+     * Get the fraction of recent probes lost. Probes sent within the probe 
+     * timeout are not yet counted.
+     * 
+     * @return the loss rate between 0 and 1 or NaN if no probes have timed out
+     */
+    public synchronized double getLossRate() {
+        long now = System.nanoTime();
+        int counted = 0;
+        int lost = 0;
+        for (int i = 0; i < probeCount; i++) {
+            if (answered[i]) {
+                counted++;
+            } else if (now - probeTimes[i] > probeTimeout) {
+                counted++;
+                lost++;
+            }
+        }
+        return counted == 0 ? Double.NaN : (double) lost / counted;
+    }
+
+    @Override
+    public boolean connect() {
+        if (!messenger.connect()) {
+            return false;
+        }
+        synchronized (this) {
+            if (timer == null) {
+                //judge each connection afresh
+                receivedSinceBeat = true;
+                missed = 0;
+                alive = true;
+                answering = false;
+                timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Link monitor"));
+                timer.scheduleAtFixedRate(this::heartbeat, 0, interval, TimeUnit.MILLISECONDS);
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+        return messenger.disconnect();
+    }
+    
+    /**
+     * A listener for changes in the state of the link
+     */
+    public interface LinkStateListener {
+        
+        /**
+         * Called when the link is declared dead or alive again
+         * 
+         * @param monitor the monitor of the link
+         * @param alive whether the link is alive
+         */
+        public void onLinkStateChanged(LinkMonitor monitor, boolean alive);
+        
+    }
+    
+}
@@ -0,0 +1,261 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.Varint;
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import util.BufferLease;
+import util.ErrorCause;
+import util.ErrorStats;
+import util.IntObjectMap;
+
+/**
+ * A MessageReceivedCallback dispatching each message to the subscribers of its
+ * topic.
+ * 
+ * The topic is either the first byte of the message or a varint at the start
+ * of the message. Topics below 256 are looked up in a flat array and larger 
+ * topics in a primitive int map. Any number of callbacks may subscribe to a
+ * topic, and callbacks subscribed to all topics receive every message.
+ * 
+ * Subscriptions are copy-on-write: each change publishes a new array of
+ * subscribers, so the receive path reads a consistent snapshot without locking
+ * and subscribers may change while messages are dispatched.
+ * 
+ * Each subscriber receives the message with the same position and limit,
+ * including the topic unless the topic is stripped. Messages with no
+ * subscribers are counted in the "MessageDispatcher" ErrorStats.
+ * 
+ * @author Andrew_2
+ */
+public class MessageDispatcher implements Messenger.MessageReceivedCallback {
+
+    private static final ErrorStats errors = ErrorStats.forComponent("MessageDispatcher");
+    private static final Messenger.MessageReceivedCallback[] none = new Messenger.MessageReceivedCallback[0];
+    private static final int flatTopics = 256;
+    
+    /**
+     * The encoding of the topic at the start of each message
+     */
+    public enum TopicType {
+        /**
+         * The topic is the first byte, as in single letter commands
+         */
+        TYPE_BYTE,
+        /**
+         * The topic is an unsigned varint
+         */
+        VARINT
+    }
+    
+    private final TopicType topicType;
+    private volatile boolean stripTopic;
+    
+    private final AtomicReferenceArray<Messenger.MessageReceivedCallback[]> flat;
+    //replaced on every change and never modified once published
+    private volatile IntObjectMap<Messenger.MessageReceivedCallback[]> large;
+    private volatile Messenger.MessageReceivedCallback[] all = none;
+
+    /**
+     * Construct a dispatcher keyed on the first byte of each message
+     */
+    public MessageDispatcher() {
+        this(TopicType.TYPE_BYTE);
+    }
+    
+    /**
+     * Construct a dispatcher
+     * 
+     * @param topicType the encoding of the topic of each message
+     */
+    public MessageDispatcher(TopicType topicType) {
+        this.topicType = topicType;
+        flat = new AtomicReferenceArray<>(flatTopics);
+        large = new IntObjectMap<>();
+    }
+    
+    /**
+     * Set whether subscribers receive messages positioned after the topic
+     * 
+     * @param stripTopic whether to strip the topic
+     */
+    public void setStripTopic(boolean stripTopic) {
+        this.stripTopic = stripTopic;
+    }
+    
+    /**
+     * Subscribe a callback to a topic
+     * 
+     * @param topic the topic, from 0 to 255 for type byte topics
+     * @param callback the callback to subscribe
+     */
+    public synchronized void subscribe(int topic, Messenger.MessageReceivedCallback callback) {
+        checkTopic(topic);
+        setSubscribers(topic, add(getSubscribers(topic), callback));
+    }
+    
+    /**
+     * Unsubscribe a callback from a topic
+     * 
+     * @param topic the topic
+     * @param callback the callback to unsubscribe
+     * @return whether the callback was subscribed
+     */
+    public synchronized boolean unsubscribe(int topic, Messenger.MessageReceivedCallback callback) {
+        checkTopic(topic);
+        Messenger.MessageReceivedCallback[] subscribers = getSubscribers(topic);
+        Messenger.MessageReceivedCallback[] removed = remove(subscribers, callback);
+        setSubscribers(topic, removed);
+        return removed != subscribers;
+    }
+    
+    /**
+     * Subscribe a callback to every message
+     * 
+     * @param callback the callback to subscribe
+     */
+    public synchronized void subscribeAll(Messenger.MessageReceivedCallback callback) {
+        all = add(all, callback);
+    }
+    
+    /**
+     * Unsubscribe a callback from every message
+     * 
+     * @param callback the callback to unsubscribe
+     * @return whether the callback was subscribed
+     */
+    public synchronized boolean unsubscribeAll(Messenger.MessageReceivedCallback callback) {
+        Messenger.MessageReceivedCallback[] subscribers = all;
+        all = remove(subscribers, callback);
+        return all != subscribers;
+    }
+    
+    private void checkTopic(int topic) {
+        if (topic < 0 || (topicType == TopicType.TYPE_BYTE && topic >= flatTopics)) {
+            throw new IllegalArgumentException("Invalid topic " + topic);
+        }
+    }
+    
+    private Messenger.MessageReceivedCallback[] getSubscribers(int topic) {
+        Messenger.MessageReceivedCallback[] subscribers = topic < flatTopics ? flat.get(topic) : large.get(topic);
+        return subscribers == null ? none : subscribers;
+    }
+    
+    /**
+     * Publish the subscribers of a topic. Must hold the lock of this
+     */
+    private void setSubscribers(int topic, Messenger.MessageReceivedCallback[] subscribers) {
+        if (subscribers.length == 0) {
+            subscribers = null;
+        }
+        if (topic < flatTopics) {
+            flat.set(topic, subscribers);
+            return;
+        }
+        IntObjectMap<Messenger.MessageReceivedCallback[]> copy = new IntObjectMap<>(large.size() + 1);
+        large.forEach((s, t) -> {
+            if (t != topic) {
+                copy.put(t, s);
+            }
+        });
+        if (subscribers != null) {
+            copy.put(topic, subscribers);
+        }
+        large = copy;
+    }
+    
+    private static Messenger.MessageReceivedCallback[] add(Messenger.MessageReceivedCallback[] subscribers,
+            Messenger.MessageReceivedCallback callback) {
+        Messenger.MessageReceivedCallback[] added = new Messenger.MessageReceivedCallback[subscribers.length + 1];
+        System.arraycopy(subscribers, 0, added, 0, subscribers.length);
+        added[subscribers.length] = callback;
+        return added;
+    }
+    
+    private static Messenger.MessageReceivedCallback[] remove(Messenger.MessageReceivedCallback[] subscribers,
+            Messenger.MessageReceivedCallback callback) {
+        for (int i = 0; i < subscribers.length; i++) {
+            if (subscribers[i] == callback) {
+                Messenger.MessageReceivedCallback[] removed = new Messenger.MessageReceivedCallback[subscribers.length - 1];
+                System.arraycopy(subscribers, 0, removed, 0, i);
+                System.arraycopy(subscribers, i + 1, removed, i, removed.length - i);
+                return removed;
+            }
+        }
+        return subscribers;
+    }
+
+    @Override
+    public void onMessageReceived(Messenger messenger, ByteBuffer msg) {
+        onMessageReceived(messenger, msg, null);
+    }
+
+    /**
+     * Dispatch a message to the subscribers of its topic and of every message
+     * 
+     * @param messenger the Messenger that received the message
+     * @param msg the message received
+     * @param lease the lease of the buffer backing the message or null
+     */
+    @Override
+    public void onMessageReceived(Messenger messenger, ByteBuffer msg, BufferLease lease) {
+        int position = msg.position();
+        int topic;
+        if (topicType == TopicType.TYPE_BYTE) {
+            topic = msg.hasRemaining() ? msg.get() & 0xFF : -1;
+        } else {
+            topic = Varint.get(msg);
+        }
+        int start = stripTopic && topic >= 0 ? msg.position() : position;
+        Messenger.MessageReceivedCallback[] subscribers = topic < 0 ? null
+                : topic < flatTopics ? flat.get(topic) : large.get(topic);
+        Messenger.MessageReceivedCallback[] allSubscribers = all;
+        if (subscribers == null && allSubscribers.length == 0) {
+            errors.record(topic < 0 ? ErrorCause.MALFORMED : ErrorCause.NO_CALLBACK);
+            msg.position(position);
+            return;
+        }
+        if (subscribers != null) {
+            dispatch(subscribers, messenger, msg, lease, start);
+        }
+        dispatch(allSubscribers, messenger, msg, lease, position);
+        msg.position(position);
+    }
+    
+    private static void dispatch(Messenger.MessageReceivedCallback[] subscribers, Messenger messenger,
+            ByteBuffer msg, BufferLease lease, int start) {
+        int limit = msg.limit();
+        for (Messenger.MessageReceivedCallback subscriber : subscribers) {
+            msg.limit(limit).position(start);
+            if (lease != null) {
+                subscriber.onMessageReceived(messenger, msg, lease);
+            } else {
+                subscriber.onMessageReceived(messenger, msg);
+            }
+        }
+        msg.limit(limit);
+    }
+    
+}
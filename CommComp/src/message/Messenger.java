@@ -24,6 +24,8 @@
 package message;
 
 import java.nio.ByteBuffer;
+import util.BufferLease;
+import util.Utility;
 
 /**
  * This interface abstracts the functionality of sending and receiving messages
@@ -39,6 +41,19 @@ public interface Messenger {
      */
     public boolean sendMessage(ByteBuffer msg);
     
+    /**
+     * Send a message gathered from several parts, in order, such as a header,
+     * payload and trailer. The default implementation concatenates the parts,
+     * so Messengers able to frame or write the parts in place should override
+     * it.
+     * 
+     * @param parts the parts of the message
+     * @return whether the sending was successful
+     */
+    public default boolean sendMessage(ByteBuffer... parts) {
+        return sendMessage(Utility.concatenate(parts));
+    }
+    
     /**
      * Set the callback called when a message is received
      * 
@@ -68,6 +83,19 @@ public interface Messenger {
     
     public interface MessageReceivedCallback {
         public void onMessageReceived(Messenger messenger, ByteBuffer msg);
+        
+        /**
+         * Called when a message backed by a pooled buffer is received. The 
+         * message is only valid during the call unless the lease is retained,
+         * in which case it must be released once the message is no longer used.
+         * 
+         * @param messenger the Messenger that received the message
+         * @param msg the message received
+         * @param lease the lease of the buffer backing the message
+         */
+        public default void onMessageReceived(Messenger messenger, ByteBuffer msg, BufferLease lease) {
+            onMessageReceived(messenger, msg);
+        }
     }
     
 }
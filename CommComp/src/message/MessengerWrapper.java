@@ -0,0 +1,152 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import util.BufferLease;
+import util.ErrorCause;
+import util.ErrorStats;
+
+/**
+ * A base class for Messengers that add behaviour to another Messenger.
+ * 
+ * Connection is delegated to the wrapped Messenger. Messages received by the
+ * wrapped Messenger are passed to {@link #onWrappedMessageReceived(ByteBuffer)}
+ * and those meant for the application are passed on with 
+ * {@link #deliver(ByteBuffer)}.
+ * 
+ * @author Andrew_2
+ */
+public abstract class MessengerWrapper implements Messenger {
+
+    /**
+     * The wrapped Messenger
+     */
+    protected final Messenger messenger;
+    /**
+     * The error stats of the wrapper
+     */
+    protected final ErrorStats errors;
+    
+    private volatile MessageReceivedCallback callback;
+
+    /**
+     * Construct the wrapper and register for messages from the wrapped Messenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    protected MessengerWrapper(Messenger messenger) {
+        this.messenger = messenger;
+        this.errors = ErrorStats.forComponent(getClass().getSimpleName());
+        messenger.setMessageReceivedCallback(new MessageReceivedCallback() {
+            @Override
+            public void onMessageReceived(Messenger m, ByteBuffer msg) {
+                onWrappedMessageReceived(msg);
+            }
+
+            @Override
+            public void onMessageReceived(Messenger m, ByteBuffer msg, BufferLease lease) {
+                onWrappedMessageReceived(msg, lease);
+            }
+        });
+    }
+    
+    /**
+     * Called when the wrapped Messenger receives a message
+     * 
+     * @param msg the message received
+     */
+    protected abstract void onWrappedMessageReceived(ByteBuffer msg);
+    
+    /**
+     * Called when the wrapped Messenger receives a message backed by a pooled
+     * buffer. Wrappers passing such messages on unchanged should override this
+     * and deliver them with the lease
+     * 
+     * @param msg the message received
+     * @param lease the lease of the buffer backing the message
+     */
+    protected void onWrappedMessageReceived(ByteBuffer msg, BufferLease lease) {
+        onWrappedMessageReceived(msg);
+    }
+    
+    /**
+     * Pass a message to the callback of this Messenger
+     * 
+     * @param msg the message to deliver
+     */
+    protected void deliver(ByteBuffer msg) {
+        MessageReceivedCallback cb = callback;
+        if (cb != null) {
+            cb.onMessageReceived(this, msg);
+        } else {
+            errors.record(ErrorCause.NO_CALLBACK, "Cannot receive message. Callback is null");
+        }
+    }
+    
+    /**
+     * Pass a message backed by a pooled buffer to the callback of this Messenger
+     * 
+     * @param msg the message to deliver
+     * @param lease the lease of the buffer backing the message
+     */
+    protected void deliver(ByteBuffer msg, BufferLease lease) {
+        MessageReceivedCallback cb = callback;
+        if (cb != null) {
+            cb.onMessageReceived(this, msg, lease);
+        } else {
+            errors.record(ErrorCause.NO_CALLBACK, "Cannot receive message. Callback is null");
+        }
+    }
+    
+    /**
+     * Get the wrapped Messenger
+     * 
+     * @return the wrapped Messenger
+     */
+    public Messenger getWrappedMessenger() {
+        return messenger;
+    }
+
+    @Override
+    public void setMessageReceivedCallback(MessageReceivedCallback callback) {
+        this.callback = callback;
+    }
+
+    @Override
+    public boolean connect() {
+        return messenger.connect();
+    }
+
+    @Override
+    public boolean disconnect() {
+        return messenger.disconnect();
+    }
+
+    @Override
+    public boolean isConnected() {
+        return messenger.isConnected();
+    }
+    
+}
@@ -0,0 +1,188 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import util.BufferLease;
+import util.Utility;
+
+/**
+ * A base class for Messengers queueing messages in an outbox written to the 
+ * wrapped Messenger by a dedicated I/O thread.
+ * 
+ * Subclasses keep the outbox, guarded by the lock on this, and notify on this
+ * when a message is queued. The sender thread takes each message with 
+ * {@link #takeNext(ByteBuffer)} and writes it without the lock, so the outbox
+ * can be filled while the write blocks. Each message may carry a token, such
+ * as a future, which is passed to {@link #onWritten(Object, boolean)} once 
+ * the message is written or discarded. Received messages are passed through
+ * unchanged.
+ * 
+ * @author Andrew_2
+ * @param <T> the type of the token of a queued message
+ */
+public abstract class OutboxMessenger<T> extends MessengerWrapper {
+    
+    /**
+     * The maximum length of a message
+     */
+    protected final int maxMessageLen;
+    /**
+     * Whether connected, written with the lock on this
+     */
+    protected volatile boolean running;
+    
+    private final String senderName;
+    private Thread sender;
+
+    /**
+     * Construct the outbox messenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param maxMessageLen the maximum length of a message
+     * @param senderName the name of the sender thread
+     */
+    protected OutboxMessenger(Messenger messenger, int maxMessageLen, String senderName) {
+        super(messenger);
+        this.maxMessageLen = maxMessageLen;
+        this.senderName = senderName;
+    }
+    
+    /**
+     * Get whether the outbox is empty. The caller holds the lock on this.
+     * 
+     * @return whether no message is queued
+     */
+    protected abstract boolean isOutboxEmpty();
+    
+    /**
+     * Copy the next message into the buffer and remove it from the outbox.
+     * The caller holds the lock on this.
+     * 
+     * @param buffer the cleared buffer to copy the message into
+     * @return the token of the message or null
+     */
+    protected abstract T takeNext(ByteBuffer buffer);
+    
+    /**
+     * Remove every queued message, collecting their tokens. The caller holds
+     * the lock on this.
+     * 
+     * @param tokens the list to which tokens are added
+     */
+    protected abstract void discardAll(List<T> tokens);
+    
+    /**
+     * Called without the lock when a message with a token has been written,
+     * or discarded on disconnect
+     * 
+     * @param token the token of the message
+     * @param sent whether the message was written successfully
+     */
+    protected void onWritten(T token, boolean sent) {
+    }
+    
+    /**
+     * Write queued messages until stopped
+     */
+    private void runSender() {
+        ByteBuffer buffer = ByteBuffer.allocate(maxMessageLen);
+        while (true) {
+            T token;
+            synchronized (this) {
+                //a sender replaced by a reconnect from its own thread exits
+                while (running && sender == Thread.currentThread() && isOutboxEmpty()) {
+                    try {
+                        wait();
+                    } catch (InterruptedException ex) {
+                        return;
+                    }
+                }
+                if (!running || sender != Thread.currentThread()) {
+                    return;
+                }
+                //copy out so the slot is free while the write blocks
+                buffer.clear();
+                token = takeNext(buffer);
+                buffer.flip();
+                notifyAll();
+            }
+            boolean sent = messenger.sendMessage(buffer);
+            if (token != null) {
+                onWritten(token, sent);
+            }
+        }
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        deliver(msg);
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg, BufferLease lease) {
+        deliver(msg, lease);
+    }
+
+    @Override
+    public boolean connect() {
+        //the sender of the last connection may still be writing, and must 
+        //exit before another starts so that the outbox stays in order
+        Thread previous;
+        synchronized (this) {
+            previous = running ? null : sender;
+        }
+        Utility.joinUninterruptibly(previous);
+        if (!messenger.connect()) {
+            return false;
+        }
+        synchronized (this) {
+            if (!running) {
+                running = true;
+                sender = new Thread(this::runSender, senderName);
+                sender.setDaemon(true);
+                sender.start();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        List<T> discarded = new ArrayList<>();
+        synchronized (this) {
+            running = false;
+            discardAll(discarded);
+            notifyAll();
+        }
+        //completed outside the lock so that callbacks may use this messenger
+        for (T token : discarded) {
+            onWritten(token, false);
+        }
+        return messenger.disconnect();
+    }
+    
+}
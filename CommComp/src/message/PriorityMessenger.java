@@ -0,0 +1,460 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import util.ErrorCause;
+import util.Utility;
+
+/**
+ * A Messenger scheduling outgoing messages by priority.
+ * 
+ * Messages are queued in one of several priority classes, class 0 being the
+ * most urgent, and sent by a dedicated thread. Messages are split into 
+ * fragments, and the scheduler chooses the class to service before each 
+ * fragment, so an urgent message waits for at most one fragment of a large 
+ * message already being sent rather than for the whole message.
+ * 
+ * Classes are serviced either strictly by priority or by weighted fair queueing
+ * using deficit round robin, in which each class receives a share of the link
+ * in proportion to its weight while it has messages queued.
+ * 
+ * Each fragment is sent with a one byte header holding the priority class in 
+ * the upper six bits and flags marking the first and last fragment of a 
+ * message. The receiver reassembles the fragments of each class separately,
+ * discarding incomplete messages.
+ * 
+ * @author Andrew_2
+ */
+public class PriorityMessenger extends MessengerWrapper {
+
+    public static final int HIGH = 0;
+    public static final int NORMAL = 1;
+    public static final int LOW = 2;
+    
+    public static final int HEADER_LENGTH = 1;
+    public static final int FIRST_FRAGMENT = 0x02;
+    public static final int LAST_FRAGMENT = 0x01;
+    public static final int maxClasses = 64;
+    
+    public static final int defaultFragmentSize = 64;
+    public static final int defaultMaxMessageLen = 4096;
+    public static final int defaultQueueCapacity = 64;
+    
+    /**
+     * The policy used to choose the next priority class to service
+     */
+    public enum SchedulingPolicy {
+        /**
+         * Always service the most urgent class with messages queued
+         */
+        STRICT,
+        /**
+         * Share the link between classes with messages queued by their weights
+         */
+        WEIGHTED
+    }
+    
+    private final int fragmentSize;
+    private final int maxMessageLen;
+    private final int queueCapacity;
+    private final ArrayDeque<Entry>[] queues;
+    //entries of sent messages, reused for later messages
+    private final ArrayDeque<Entry> free = new ArrayDeque<>();
+    private final int[] headOffsets;
+    private final int[] weights;
+    private final int[] deficits;
+    private SchedulingPolicy policy = SchedulingPolicy.STRICT;
+    private int current;
+    
+    private Thread sender;
+    private volatile boolean running;
+    private final ByteBuffer fragment;
+    
+    private final byte[][] reassembly;
+    private final int[] reassemblyLengths;
+    private final boolean[] reassembling;
+    
+    /**
+     * Construct a PriorityMessenger with three classes, HIGH, NORMAL and LOW,
+     * the default fragment size and the default maximum message length
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public PriorityMessenger(Messenger messenger) {
+        this(messenger, 3, defaultFragmentSize, defaultMaxMessageLen);
+    }
+    
+    /**
+     * Construct a PriorityMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param numClasses the number of priority classes
+     * @param fragmentSize the maximum length of message data in each fragment
+     * @param maxMessageLen the maximum length of a message
+     */
+    @SuppressWarnings("unchecked")
+    public PriorityMessenger(Messenger messenger, int numClasses, int fragmentSize, int maxMessageLen) {
+        super(messenger);
+        if (numClasses < 1 || numClasses > maxClasses) {
+            throw new IllegalArgumentException("Number of classes must be between 1 and " + maxClasses);
+        }
+        this.fragmentSize = fragmentSize;
+        this.maxMessageLen = maxMessageLen;
+        this.queueCapacity = defaultQueueCapacity;
+        queues = (ArrayDeque<Entry>[]) new ArrayDeque<?>[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            queues[i] = new ArrayDeque<>();
+        }
+        headOffsets = new int[numClasses];
+        weights = new int[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            //halve the share of each less urgent class by default
+            weights[i] = 1 << Math.max(0, Math.min(numClasses - 1 - i, 16));
+        }
+        deficits = new int[numClasses];
+        fragment = ByteBuffer.allocate(HEADER_LENGTH + fragmentSize);
+        reassembly = new byte[numClasses][maxMessageLen];
+        reassemblyLengths = new int[numClasses];
+        reassembling = new boolean[numClasses];
+    }
+    
+    /**
+     * Set the policy used to choose the next class to service
+     * 
+     * @param policy the scheduling policy
+     */
+    public synchronized void setSchedulingPolicy(SchedulingPolicy policy) {
+        this.policy = policy;
+    }
+    
+    /**
+     * Set the weight of a priority class used by weighted scheduling
+     * 
+     * @param priority the priority class
+     * @param weight the number of fragments the class may send each round
+     */
+    public synchronized void setWeight(int priority, int weight) {
+        checkPriority(priority);
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive");
+        }
+        weights[priority] = weight;
+    }
+    
+    /**
+     * Send a message with NORMAL priority, or the least urgent priority if
+     * there are fewer classes
+     * 
+     * @param msg the message to send
+     * @return whether the message was queued
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return sendMessage(msg, Math.min(NORMAL, queues.length - 1));
+    }
+    
+    /**
+     * Send a message gathered from several parts with NORMAL priority, or the
+     * least urgent priority if there are fewer classes. The parts are copied 
+     * into the queued entry.
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was queued
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        int priority = Math.min(NORMAL, queues.length - 1);
+        if (Utility.remaining(parts) > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in priority messenger.");
+            return false;
+        }
+        synchronized (this) {
+            Entry entry = takeEntry(priority);
+            if (entry == null) {
+                return false;
+            }
+            entry.length = 0;
+            for (ByteBuffer part : parts) {
+                int length = part.remaining();
+                part.get(entry.data, entry.length, length);
+                entry.length += length;
+            }
+            queues[priority].add(entry);
+            notifyAll();
+        }
+        return true;
+    }
+    
+    /**
+     * Queue a message to be sent with the given priority. The message is 
+     * copied into an entry reused from an earlier message where possible.
+     * 
+     * @param msg the message to send
+     * @param priority the priority class, 0 being the most urgent
+     * @return whether the message was queued
+     */
+    public boolean sendMessage(ByteBuffer msg, int priority) {
+        checkPriority(priority);
+        if (msg.remaining() > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in priority messenger.");
+            return false;
+        }
+        synchronized (this) {
+            Entry entry = takeEntry(priority);
+            if (entry == null) {
+                return false;
+            }
+            entry.length = msg.remaining();
+            msg.get(entry.data, 0, entry.length);
+            queues[priority].add(entry);
+            notifyAll();
+        }
+        return true;
+    }
+    
+    /**
+     * Take an entry for a message of a priority class if it can be queued.
+     * The caller must hold the lock on this.
+     * 
+     * @param priority the priority class
+     * @return the entry or null if disconnected or the queue is full
+     */
+    private Entry takeEntry(int priority) {
+        if (!running) {
+            errors.record(ErrorCause.DISCONNECTED, "Cannot send when disconnected.");
+            return null;
+        }
+        if (queues[priority].size() >= queueCapacity) {
+            errors.record(ErrorCause.OVERFLOW, "Priority messenger queue full.");
+            return null;
+        }
+        Entry entry = free.poll();
+        return entry != null ? entry : new Entry(maxMessageLen);
+    }
+    
+    private void checkPriority(int priority) {
+        if (priority < 0 || priority >= queues.length) {
+            throw new IllegalArgumentException("Priority must be between 0 and " + (queues.length - 1));
+        }
+    }
+    
+    /**
+     * Get the number of messages queued in a priority class
+     * 
+     * @param priority the priority class
+     * @return the number of queued messages
+     */
+    public synchronized int getQueuedCount(int priority) {
+        checkPriority(priority);
+        return queues[priority].size();
+    }
+    
+    /**
+     * Choose the class to send the next fragment from. Must hold the lock of this
+     * 
+     * @return the class to service or -1 if every queue is empty
+     */
+    private int nextClass() {
+        if (policy == SchedulingPolicy.STRICT) {
+            for (int i = 0; i < queues.length; i++) {
+                if (!queues[i].isEmpty()) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+        boolean any = false;
+        for (ArrayDeque<Entry> queue : queues) {
+            any |= !queue.isEmpty();
+        }
+        if (!any) {
+            return -1;
+        }
+        //deficit round robin counting fragments
+        while (true) {
+            if (queues[current].isEmpty()) {
+                deficits[current] = 0;
+            } else if (deficits[current] > 0) {
+                deficits[current]--;
+                return current;
+            }
+            current = (current + 1) % queues.length;
+            if (!queues[current].isEmpty()) {
+                deficits[current] += weights[current];
+            }
+        }
+    }
+    
+    /**
+     * Take the next fragment to send into the fragment buffer, waiting until 
+     * one is available
+     * 
+     * @return whether a fragment was taken, false if stopped
+     */
+    private synchronized boolean takeFragment() throws InterruptedException {
+        int priority;
+        while (true) {
+            //a sender replaced by a reconnect from its own thread exits
+            if (!running || sender != Thread.currentThread()) {
+                return false;
+            }
+            if ((priority = nextClass()) >= 0) {
+                break;
+            }
+            wait();
+        }
+        Entry entry = queues[priority].peek();
+        int offset = headOffsets[priority];
+        int length = Math.min(fragmentSize, entry.length - offset);
+        int flags = 0;
+        if (offset == 0) {
+            flags |= FIRST_FRAGMENT;
+        }
+        if (offset + length == entry.length) {
+            flags |= LAST_FRAGMENT;
+            queues[priority].poll();
+            free.add(entry);
+            headOffsets[priority] = 0;
+        } else {
+            headOffsets[priority] = offset + length;
+        }
+        fragment.clear();
+        fragment.put((byte) (priority << 2 | flags));
+        fragment.put(entry.data, offset, length);
+        fragment.flip();
+        return true;
+    }
+    
+    /**
+     * Send fragments until stopped
+     */
+    private void runSender() {
+        try {
+            while (takeFragment()) {
+                messenger.sendMessage(fragment);
+            }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        if (!msg.hasRemaining()) {
+            errors.record(ErrorCause.MALFORMED, "Empty priority fragment.");
+            return;
+        }
+        int header = msg.get() & 0xFF;
+        int priority = header >>> 2;
+        if (priority >= queues.length) {
+            errors.record(ErrorCause.MALFORMED, "Unknown priority class.");
+            return;
+        }
+        boolean first = (header & FIRST_FRAGMENT) != 0;
+        boolean last = (header & LAST_FRAGMENT) != 0;
+        synchronized (reassembly[priority]) {
+            if (first && last) {
+                reassembling[priority] = false;
+                deliver(msg);
+                return;
+            }
+            if (first) {
+                reassembling[priority] = true;
+                reassemblyLengths[priority] = 0;
+            } else if (!reassembling[priority]) {
+                //the first fragment was lost
+                errors.record(ErrorCause.MALFORMED);
+                return;
+            }
+            int length = reassemblyLengths[priority];
+            int received = msg.remaining();
+            if (length + received > maxMessageLen) {
+                reassembling[priority] = false;
+                errors.record(ErrorCause.OVERSIZE, "Reassembled message length exceeded.");
+                return;
+            }
+            msg.get(reassembly[priority], length, received);
+            reassemblyLengths[priority] = length + received;
+            if (last) {
+                reassembling[priority] = false;
+                deliver(ByteBuffer.wrap(reassembly[priority], 0, reassemblyLengths[priority]));
+            }
+        }
+    }
+
+    @Override
+    public boolean connect() {
+        //the sender of the last connection may still be writing a fragment, 
+        //and must exit before another shares the fragment buffer
+        Thread previous;
+        synchronized (this) {
+            previous = running ? null : sender;
+        }
+        Utility.joinUninterruptibly(previous);
+        if (!messenger.connect()) {
+            return false;
+        }
+        synchronized (this) {
+            if (!running) {
+                running = true;
+                sender = new Thread(this::runSender, "Priority messenger sender");
+                sender.setDaemon(true);
+                sender.start();
+            }
+        }
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        synchronized (this) {
+            running = false;
+            for (int i = 0; i < queues.length; i++) {
+                free.addAll(queues[i]);
+                queues[i].clear();
+                headOffsets[i] = 0;
+                deficits[i] = 0;
+            }
+            notifyAll();
+        }
+        return messenger.disconnect();
+    }
+    
+    /**
+     * A queued message, copied into a buffer of the maximum message length
+     */
+    private static class Entry {
+        
+        final byte[] data;
+        int length;
+
+        Entry(int capacity) {
+            data = new byte[capacity];
+        }
+        
+    }
+    
+}
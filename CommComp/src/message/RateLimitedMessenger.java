@@ -0,0 +1,247 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import coding.FramingCodec;
+import comm.SerialComm;
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+import util.BufferLease;
+import util.Utility;
+
+/**
+ * A Messenger pacing messages with a token bucket so that bursts do not 
+ * overrun the buffers of a slow link or device.
+ * 
+ * The bucket fills at the byte rate of the link up to the burst size. Sending
+ * a message takes tokens for its length, or for its maximum frame length if 
+ * a FramingCodec is set, and waits until the bucket would have held them. 
+ * Senders reserve their tokens in turn, so concurrent senders are paced 
+ * together. The rate may be given directly or taken from the baud rate and
+ * character framing of a SerialComm.
+ * 
+ * @author Andrew_2
+ */
+public class RateLimitedMessenger extends MessengerWrapper {
+
+    /**
+     * The default burst, the size of the hardware receive buffer of an 
+     * Arduino serial port
+     */
+    public static final int defaultBurst = 64;
+    
+    private static final double ALPHA = 0.125;
+    
+    private final double bytesPerNano;
+    private final int burst;
+    private volatile FramingCodec codec;
+    
+    //the bucket, guarded by this
+    private double tokens;
+    private long lastRefill;
+    private double averageDelay;
+    private long delayedCount;
+
+    /**
+     * Construct a RateLimitedMessenger with the default burst
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param bytesPerSecond the rate of the link in bytes per second
+     */
+    public RateLimitedMessenger(Messenger messenger, double bytesPerSecond) {
+        this(messenger, bytesPerSecond, defaultBurst);
+    }
+    
+    /**
+     * Construct a RateLimitedMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param bytesPerSecond the rate of the link in bytes per second
+     * @param burst the number of bytes that may be sent at once after idling
+     */
+    public RateLimitedMessenger(Messenger messenger, double bytesPerSecond, int burst) {
+        super(messenger);
+        this.bytesPerNano = bytesPerSecond / 1e9;
+        this.burst = burst;
+        this.tokens = burst;
+        this.lastRefill = System.nanoTime();
+    }
+    
+    /**
+     * Create a RateLimitedMessenger paced to the baud rate of a serial port
+     * with the default burst, counting the frame length of each message
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param serialComm the serial port carrying the messages
+     * @param codec the codec framing the messages or null if not framed
+     * @return the created Messenger
+     */
+    public static RateLimitedMessenger createForSerial(Messenger messenger, SerialComm serialComm, FramingCodec codec) {
+        RateLimitedMessenger limited = new RateLimitedMessenger(messenger, serialComm.getBytesPerSecond());
+        limited.setFramingCodec(codec);
+        return limited;
+    }
+    
+    /**
+     * Set the codec whose maximum frame length is counted for each message
+     * 
+     * @param codec the framing codec or null to count message lengths
+     */
+    public void setFramingCodec(FramingCodec codec) {
+        this.codec = codec;
+    }
+
+    /**
+     * Send a message once the bucket allows, blocking the caller meanwhile
+     * 
+     * @param msg the message to send
+     * @return whether the message was sent
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return pace(msg.remaining()) && messenger.sendMessage(msg);
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return pace(Utility.remaining(parts)) && messenger.sendMessage(parts);
+    }
+    
+    /**
+     * Send a message only if the bucket allows it to be sent without waiting.
+     * A message costing more than the burst is sent once the bucket is full, 
+     * leaving the bucket in debt for the excess.
+     * 
+     * @param msg the message to send
+     * @return whether the message was sent
+     */
+    public boolean trySend(ByteBuffer msg) {
+        double cost = cost(msg.remaining());
+        synchronized (this) {
+            refill(System.nanoTime());
+            if (tokens < Math.min(cost, burst)) {
+                return false;
+            }
+            tokens -= cost;
+        }
+        return messenger.sendMessage(msg);
+    }
+    
+    /**
+     * Reserve tokens for a message and wait until the bucket would have 
+     * held them. The tokens are returned if the wait is interrupted.
+     * 
+     * @param length the length of the message
+     * @return whether the wait completed without interruption
+     */
+    private boolean pace(int length) {
+        double cost = cost(length);
+        long delay;
+        synchronized (this) {
+            refill(System.nanoTime());
+            tokens -= cost;
+            delay = tokens < 0 ? (long) (-tokens / bytesPerNano) : 0;
+            averageDelay += ALPHA * (delay - averageDelay);
+            if (delay > 0) {
+                delayedCount++;
+            }
+        }
+        if (delay > 0) {
+            try {
+                TimeUnit.NANOSECONDS.sleep(delay);
+            } catch (InterruptedException ex) {
+                synchronized (this) {
+                    refill(System.nanoTime());
+                    tokens = Math.min(burst, tokens + cost);
+                }
+                Thread.currentThread().interrupt();
+                return false;
+            }
+        }
+        return true;
+    }
+    
+    private double cost(int length) {
+        FramingCodec c = codec;
+        return c != null ? c.maxFrameLength(length) : length;
+    }
+    
+    /**
+     * Add the tokens accumulated since the last refill. The caller must hold
+     * the lock on this.
+     */
+    private void refill(long now) {
+        tokens = Math.min(burst, tokens + (now - lastRefill) * bytesPerNano);
+        lastRefill = now;
+    }
+    
+    /**
+     * Get the time a message sent now would wait for the messages already 
+     * reserved to be paced out
+     * 
+     * @return the queueing delay in milliseconds
+     */
+    public synchronized double getQueueingDelay() {
+        refill(System.nanoTime());
+        return tokens < 0 ? -tokens / bytesPerNano / 1e6 : 0;
+    }
+    
+    /**
+     * Get the smoothed delay applied to sent messages
+     * 
+     * @return the average pacing delay in milliseconds
+     */
+    public synchronized double getAverageDelay() {
+        return averageDelay / 1e6;
+    }
+    
+    /**
+     * Get the number of messages delayed by pacing
+     * 
+     * @return the number of delayed messages
+     */
+    public synchronized long getDelayedCount() {
+        return delayedCount;
+    }
+    
+    /**
+     * Get the rate of the link
+     * 
+     * @return the rate in bytes per second
+     */
+    public double getBytesPerSecond() {
+        return bytesPerNano * 1e9;
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        deliver(msg);
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg, BufferLease lease) {
+        deliver(msg, lease);
+    }
+    
+}
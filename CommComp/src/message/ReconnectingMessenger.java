@@ -0,0 +1,474 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+import util.Utility;
+
+/**
+ * A Messenger keeping a session open across outages of the wrapped Messenger.
+ * 
+ * An outage is detected when the wrapped Messenger is found disconnected by a
+ * periodic check, fails to send a message or is reported by 
+ * {@link #reportOutage()}. A channel such as UDP may lose its peer without 
+ * failing, so a LinkMonitor should be wrapped and its dead link reported for
+ * such outages to be detected. The wrapped Messenger is then disconnected 
+ * and connected again after a delay doubling with each failed attempt up to
+ * a maximum, each delay randomized between half and all of its value so that
+ * many clients do not retry in step.
+ * 
+ * During an outage messages are copied into a bounded outbox, discarding the 
+ * oldest when full, and sent in order once reconnected. Messages older than 
+ * the expiry when the outbox is flushed are discarded. The session stays 
+ * connected throughout, until {@link #disconnect()} is called.
+ * 
+ * @author Andrew_2
+ */
+public class ReconnectingMessenger extends MessengerWrapper {
+
+    public static final int defaultMaxMessageLen = 254;
+    public static final int defaultOutboxCapacity = 64;
+    public static final long defaultExpiry = 5000;
+    public static final long defaultMinBackoff = 100;
+    public static final long defaultMaxBackoff = 10000;
+    public static final long defaultCheckInterval = 100;
+    
+    private final int maxMessageLen;
+    private long expiry = TimeUnit.MILLISECONDS.toNanos(defaultExpiry);
+    private long minBackoff = defaultMinBackoff;
+    private long maxBackoff = defaultMaxBackoff;
+    
+    //outbox ring of preallocated entries, guarded by this
+    private final Entry[] outbox;
+    private int head, size;
+    
+    //serializes connecting and disconnecting the wrapped Messenger, taken 
+    //before the lock on this
+    private final Object connectLock = new Object();
+    
+    private ScheduledExecutorService timer;
+    private int generation;
+    private boolean session;
+    private boolean up;
+    private long upTime;
+    private int attempts;
+    private long reconnectCount;
+    private ConnectionStateListener listener;
+
+    /**
+     * Construct a ReconnectingMessenger with the default maximum message 
+     * length and outbox capacity
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public ReconnectingMessenger(Messenger messenger) {
+        this(messenger, defaultMaxMessageLen, defaultOutboxCapacity);
+    }
+    
+    /**
+     * Construct a ReconnectingMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param maxMessageLen the maximum length of a message
+     * @param outboxCapacity the maximum number of messages held during an outage
+     */
+    public ReconnectingMessenger(Messenger messenger, int maxMessageLen, int outboxCapacity) {
+        super(messenger);
+        this.maxMessageLen = maxMessageLen;
+        outbox = new Entry[outboxCapacity];
+        for (int i = 0; i < outboxCapacity; i++) {
+            outbox[i] = new Entry(maxMessageLen);
+        }
+    }
+    
+    /**
+     * Set the time after which a message in the outbox is discarded
+     * 
+     * @param expiry the expiry in milliseconds
+     */
+    public synchronized void setExpiry(long expiry) {
+        this.expiry = TimeUnit.MILLISECONDS.toNanos(expiry);
+    }
+    
+    /**
+     * Set the range of delays before reconnection attempts
+     * 
+     * @param minBackoff the delay before the first attempt in milliseconds
+     * @param maxBackoff the maximum delay in milliseconds
+     */
+    public synchronized void setBackoff(long minBackoff, long maxBackoff) {
+        this.minBackoff = minBackoff;
+        this.maxBackoff = maxBackoff;
+    }
+    
+    /**
+     * Set the listener notified when the wrapped Messenger is lost or 
+     * reconnected
+     * 
+     * @param listener the connection state listener
+     */
+    public void setConnectionStateListener(ConnectionStateListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Send a message, or hold it in the outbox if the wrapped Messenger is 
+     * reconnecting or fails to send it. The message is sent without the lock 
+     * on this, so that a blocking send does not stall reconnection.
+     * 
+     * @param msg the message to send
+     * @return whether the message was sent or held
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return send(msg, null);
+    }
+    
+    /**
+     * Send a message gathered from several parts, passing the parts down 
+     * unchanged, or copy them into the outbox if the wrapped Messenger is 
+     * reconnecting or fails to send them. The parts are marked so that they
+     * can be held after a failed send.
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was sent or held
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return send(null, parts);
+    }
+    
+    /**
+     * Send a message or the parts of a message, holding it on failure
+     * 
+     * @param msg the message, or null to send the parts
+     * @param parts the parts of the message if msg is null
+     * @return whether the message was sent or held
+     */
+    private boolean send(ByteBuffer msg, ByteBuffer[] parts) {
+        int length = msg != null ? msg.remaining() : Utility.remaining(parts);
+        if (length > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in reconnecting messenger.");
+            return false;
+        }
+        synchronized (this) {
+            if (!session) {
+                errors.record(ErrorCause.DISCONNECTED, "Cannot send message when disconnected.");
+                return false;
+            }
+            if (!up || size > 0) {
+                hold(msg, parts);
+                return true;
+            }
+        }
+        if (msg != null) {
+            int position = msg.position();
+            if (messenger.sendMessage(msg)) {
+                return true;
+            }
+            msg.position(position);
+        } else {
+            for (ByteBuffer part : parts) {
+                part.mark();
+            }
+            if (messenger.sendMessage(parts)) {
+                return true;
+            }
+            for (ByteBuffer part : parts) {
+                part.reset();
+            }
+        }
+        synchronized (this) {
+            if (!session) {
+                errors.record(ErrorCause.DISCONNECTED, "Cannot send message when disconnected.");
+                return false;
+            }
+            hold(msg, parts);
+        }
+        reportOutage();
+        return true;
+    }
+    
+    /**
+     * Copy a message or the parts of a message into the outbox, discarding 
+     * the oldest if full. The caller must hold the lock on this.
+     */
+    private void hold(ByteBuffer msg, ByteBuffer[] parts) {
+        if (size == outbox.length) {
+            errors.record(ErrorCause.OVERFLOW, "Outbox full, discarding oldest message.");
+            head = (head + 1) % outbox.length;
+            size--;
+        }
+        Entry entry = outbox[(head + size) % outbox.length];
+        entry.buffer.clear();
+        if (msg != null) {
+            entry.buffer.put(msg);
+        } else {
+            for (ByteBuffer part : parts) {
+                entry.buffer.put(part);
+            }
+        }
+        entry.buffer.flip();
+        entry.time = System.nanoTime();
+        size++;
+    }
+    
+    /**
+     * Send the messages in the outbox in order, discarding expired messages.
+     * The caller must hold the lock on this.
+     * 
+     * @return whether every message was sent
+     */
+    private boolean flushOutbox() {
+        long now = System.nanoTime();
+        while (size > 0) {
+            Entry entry = outbox[head];
+            if (now - entry.time > expiry) {
+                errors.record(ErrorCause.TIMEOUT, "Message expired in outbox.");
+            } else if (!messenger.sendMessage(entry.buffer)) {
+                entry.buffer.rewind();
+                return false;
+            }
+            head = (head + 1) % outbox.length;
+            size--;
+        }
+        return true;
+    }
+    
+    /**
+     * Report an outage of the wrapped Messenger, starting reconnection if it
+     * has not already started
+     */
+    public void reportOutage() {
+        synchronized (this) {
+            if (!session || !up) {
+                return;
+            }
+            up = false;
+            //keep backing off if the link was lost again soon after 
+            //reconnecting, as when connecting succeeds without a peer
+            if (System.nanoTime() - upTime > TimeUnit.MILLISECONDS.toNanos(maxBackoff)) {
+                attempts = 0;
+            }
+            scheduleAttempt();
+        }
+        errors.record(ErrorCause.DISCONNECTED, "Connection lost, reconnecting.");
+        notifyListener(false);
+    }
+    
+    /**
+     * Schedule a reconnection attempt after the backoff delay. The caller must
+     * hold the lock on this.
+     */
+    private void scheduleAttempt() {
+        long delay = minBackoff << Math.min(attempts, 30);
+        if (delay <= 0 || delay > maxBackoff) {
+            delay = maxBackoff;
+        }
+        delay = delay / 2 + ThreadLocalRandom.current().nextLong(delay / 2 + 1);
+        int session = generation;
+        timer.schedule(() -> attempt(session), delay, TimeUnit.MILLISECONDS);
+    }
+    
+    /**
+     * Attempt to reconnect the wrapped Messenger. Run by the timer.
+     * 
+     * @param session the generation of the session the attempt was scheduled
+     * in, so that an attempt outliving its session leaves the wrapped 
+     * Messenger to the next session
+     */
+    private void attempt(int session) {
+        synchronized (connectLock) {
+            synchronized (this) {
+                if (session != generation || !this.session || up) {
+                    return;
+                }
+                attempts++;
+            }
+            //connect without the lock on this so that messages can be held 
+            //meanwhile, the session cannot change while connectLock is held
+            messenger.disconnect();
+            boolean connected = messenger.connect() && messenger.isConnected();
+            synchronized (this) {
+                if (!connected || !flushOutbox()) {
+                    scheduleAttempt();
+                    return;
+                }
+                up = true;
+                upTime = System.nanoTime();
+                reconnectCount++;
+            }
+        }
+        notifyListener(true);
+    }
+    
+    /**
+     * Check the wrapped Messenger for an outage. Run by the timer.
+     */
+    private void check() {
+        boolean lost;
+        synchronized (this) {
+            lost = up && !messenger.isConnected();
+        }
+        if (lost) {
+            reportOutage();
+        }
+    }
+    
+    private void notifyListener(boolean connected) {
+        ConnectionStateListener l = listener;
+        if (l != null) {
+            l.onConnectionStateChanged(this, connected);
+        }
+    }
+    
+    /**
+     * Get whether the wrapped Messenger is connected, rather than reconnecting
+     * 
+     * @return whether the wrapped Messenger is connected
+     */
+    public synchronized boolean isLinkUp() {
+        return up;
+    }
+    
+    /**
+     * Get the number of messages held in the outbox
+     * 
+     * @return the number of messages held
+     */
+    public synchronized int getOutboxSize() {
+        return size;
+    }
+    
+    /**
+     * Get the number of times the wrapped Messenger has been reconnected
+     * 
+     * @return the number of reconnections
+     */
+    public synchronized long getReconnectCount() {
+        return reconnectCount;
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        deliver(msg);
+    }
+
+    /**
+     * Connect the wrapped Messenger and open the session. The session is not
+     * opened if the first connection fails.
+     * 
+     * @return whether the wrapped Messenger connected
+     */
+    @Override
+    public boolean connect() {
+        synchronized (connectLock) {
+            synchronized (this) {
+                if (session) {
+                    return true;
+                }
+                if (!messenger.connect()) {
+                    return false;
+                }
+                generation++;
+                session = true;
+                up = true;
+                timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Reconnect timer"));
+                timer.scheduleWithFixedDelay(this::check, defaultCheckInterval, defaultCheckInterval, TimeUnit.MILLISECONDS);
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Close the session, discarding the outbox, and disconnect the wrapped 
+     * Messenger
+     * 
+     * @return whether the wrapped Messenger disconnected
+     */
+    @Override
+    public boolean disconnect() {
+        synchronized (connectLock) {
+            synchronized (this) {
+                if (timer != null) {
+                    timer.shutdownNow();
+                    timer = null;
+                }
+                generation++;
+                session = false;
+                up = false;
+                head = 0;
+                size = 0;
+                return messenger.disconnect();
+            }
+        }
+    }
+
+    /**
+     * Get whether the session is open. The session stays open during outages
+     * of the wrapped Messenger.
+     * 
+     * @return whether the session is open
+     */
+    @Override
+    public synchronized boolean isConnected() {
+        return session;
+    }
+    
+    /**
+     * A message held in the outbox
+     */
+    private static class Entry {
+        
+        final ByteBuffer buffer;
+        long time;
+
+        Entry(int capacity) {
+            buffer = ByteBuffer.allocate(capacity);
+        }
+        
+    }
+    
+    /**
+     * A listener for outages and reconnections of the wrapped Messenger
+     */
+    public interface ConnectionStateListener {
+        
+        /**
+         * Called when the wrapped Messenger is lost or reconnected
+         * 
+         * @param messenger the reconnecting Messenger
+         * @param connected whether the wrapped Messenger is connected
+         */
+        public void onConnectionStateChanged(ReconnectingMessenger messenger, boolean connected);
+        
+    }
+    
+}
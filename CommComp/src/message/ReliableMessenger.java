@@ -0,0 +1,677 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import comm.BlockComm;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+import util.Utility;
+
+/**
+ * A Messenger providing reliable, in order delivery over an unreliable 
+ * Messenger using selective repeat.
+ * 
+ * Each message is sent with a 16 bit sequence number. The receiver buffers
+ * messages arriving out of order and acknowledges every data frame with the 
+ * next expected sequence number and a selective acknowledgement (SACK) bitmap
+ * of the following 32 sequence numbers. The sender keeps a sliding window of
+ * unacknowledged messages and retransmits only the messages that are missing,
+ * either when their retransmission timeout expires or when three later
+ * messages have been acknowledged. The timeout adapts to the smoothed round 
+ * trip time as in RFC 6298, backing off exponentially on each retransmission.
+ * 
+ * Frames are a type byte followed by a big-endian header:
+ * DATA [0x01][epoch][seq:2][behind][payload] and 
+ * ACK [0x02][epoch][next expected seq:2][sack:4].
+ * 
+ * Sequence numbers start at zero in a new random epoch on each connect, and
+ * each data frame carries how far its sequence number is beyond the oldest 
+ * unacknowledged message. A receiver seeing a new epoch, because either end
+ * has reconnected, resynchronizes to that oldest message, and acknowledgements
+ * echo the epoch so that those of an earlier connection are ignored. Either
+ * end may therefore restart without the other. Messages are only released
+ * once acknowledged cumulatively, as a receiver that reconnects forgets the 
+ * messages it acknowledged selectively. Messages delivered just before the 
+ * receiver reconnects may be delivered again if their acknowledgement was 
+ * lost. Sending blocks while the window is full, so messages should not be 
+ * sent from the receive callback of this Messenger faster than they can be
+ * acknowledged.
+ * 
+ * @author Andrew_2
+ */
+public class ReliableMessenger extends MessengerWrapper {
+
+    public static final byte DATA = 0x01;
+    public static final byte ACK = 0x02;
+    public static final int DATA_HEADER_LENGTH = 5;
+    public static final int ACK_LENGTH = 8;
+    
+    /**
+     * The maximum window size, limited by the SACK bitmap
+     */
+    public static final int maxWindowSize = 33;
+    public static final int defaultWindowSize = 32;
+    public static final int defaultMaxMessageLen = 249;
+    public static final long defaultSendTimeout = 5000;
+    
+    public static final long initialRto = 250;
+    public static final long minRto = 20;
+    public static final long maxRto = 4000;
+    public static final long timerPeriod = 5;
+    public static final int fastRetransmitThreshold = 3;
+
+    private final int windowSize;
+    private final int maxMessageLen;
+    private long sendTimeout = defaultSendTimeout;
+    private volatile boolean running;
+    private ScheduledExecutorService timer;
+    
+    //sender state, guarded by this
+    private final Slot[] sendSlots;
+    private int sendBase, sendNext;
+    private int epoch;
+    private boolean rttValid;
+    private double srtt, rttvar;
+    private long rto = initialRto;
+    private final Slot[] timerDue, ackDue;
+    private final LongAdder retransmissions = new LongAdder();
+    
+    //receiver state, guarded by receiveLock
+    private final Object receiveLock = new Object();
+    private final byte[][] receiveSlots;
+    private final int[] receiveLengths;
+    private final boolean[] received;
+    private int receiveNext;
+    //the epoch of the peer's sender or -1 before its first frame
+    private int peerEpoch = -1;
+    private final ByteBuffer ackFrame = ByteBuffer.allocate(ACK_LENGTH);
+
+    /**
+     * Construct a ReliableMessenger over a BlockComm with the default window 
+     * and message sizes
+     * 
+     * @param comm the BlockComm to communicate over
+     */
+    public ReliableMessenger(BlockComm comm) {
+        this(new TransparentBlockMessenger(comm));
+    }
+    
+    /**
+     * Construct a ReliableMessenger wrapping a Messenger with the default 
+     * window and message sizes
+     * 
+     * @param messenger the unreliable Messenger to be wrapped
+     */
+    public ReliableMessenger(Messenger messenger) {
+        this(messenger, defaultWindowSize, defaultMaxMessageLen);
+    }
+    
+    /**
+     * Construct a ReliableMessenger wrapping a Messenger
+     * 
+     * @param messenger the unreliable Messenger to be wrapped
+     * @param windowSize the maximum number of unacknowledged messages
+     * @param maxMessageLen the maximum length of a message
+     */
+    public ReliableMessenger(Messenger messenger, int windowSize, int maxMessageLen) {
+        super(messenger);
+        if (windowSize < 1 || windowSize > maxWindowSize) {
+            throw new IllegalArgumentException("Window size must be between 1 and " + maxWindowSize);
+        }
+        this.windowSize = windowSize;
+        this.maxMessageLen = maxMessageLen;
+        sendSlots = new Slot[windowSize];
+        receiveSlots = new byte[windowSize][];
+        for (int i = 0; i < windowSize; i++) {
+            sendSlots[i] = new Slot(maxMessageLen);
+            receiveSlots[i] = new byte[maxMessageLen];
+        }
+        receiveLengths = new int[windowSize];
+        received = new boolean[windowSize];
+        timerDue = new Slot[windowSize];
+        ackDue = new Slot[windowSize];
+    }
+    
+    /**
+     * Set the maximum time to wait for space in the window when sending
+     * 
+     * @param sendTimeout the send timeout in milliseconds
+     */
+    public void setSendTimeout(long sendTimeout) {
+        this.sendTimeout = sendTimeout;
+    }
+
+    /**
+     * Send a message reliably.
+     * 
+     * The message is copied into the send window, blocking until there is 
+     * space, and returns once it has been transmitted for the first time.
+     * 
+     * @param msg the message to send
+     * @return whether the message was accepted into the window
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        if (msg.remaining() > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in reliable messenger.");
+            return false;
+        }
+        Slot slot = reserveSlot();
+        if (slot == null) {
+            return false;
+        }
+        //the slot is filled without holding the window lock, as a transmission
+        //of its previous message may be waiting on an acknowledgement
+        synchronized (slot) {
+            slot.fillHeader();
+            slot.payload.clear();
+            slot.payload.put(msg);
+            slot.payload.flip();
+        }
+        transmitNew(slot);
+        return true;
+    }
+    
+    /**
+     * Send a message gathered from several parts reliably, copying the parts
+     * into the send window as {@link #sendMessage(ByteBuffer)} copies a 
+     * message.
+     * 
+     * @param parts the parts of the message
+     * @return whether the message was accepted into the window
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        if (Utility.remaining(parts) > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in reliable messenger.");
+            return false;
+        }
+        Slot slot = reserveSlot();
+        if (slot == null) {
+            return false;
+        }
+        synchronized (slot) {
+            slot.fillHeader();
+            slot.payload.clear();
+            for (ByteBuffer part : parts) {
+                slot.payload.put(part);
+            }
+            slot.payload.flip();
+        }
+        transmitNew(slot);
+        return true;
+    }
+    
+    /**
+     * Wait up to the send timeout for space in the send window and take the
+     * slot of the next sequence number
+     * 
+     * @return the slot or null if there was no space or the messenger is
+     * disconnected
+     */
+    private synchronized Slot reserveSlot() {
+        long deadline = System.currentTimeMillis() + sendTimeout;
+        while (running && sendNext - sendBase >= windowSize) {
+            long wait = deadline - System.currentTimeMillis();
+            if (wait <= 0) {
+                errors.record(ErrorCause.OVERFLOW, "Timed out waiting for send window.");
+                return null;
+            }
+            try {
+                wait(wait);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return null;
+            }
+        }
+        if (!running) {
+            errors.record(ErrorCause.DISCONNECTED, "Cannot send when disconnected.");
+            return null;
+        }
+        int seq = sendNext++;
+        Slot slot = sendSlots[index(seq)];
+        slot.seq = seq;
+        slot.epoch = epoch;
+        slot.inUse = false;
+        slot.acked = false;
+        return slot;
+    }
+    
+    /**
+     * Schedule and make the first transmission of a filled slot
+     * 
+     * @param slot the slot of a new message
+     */
+    private void transmitNew(Slot slot) {
+        synchronized (this) {
+            slot.transmissions = 0;
+            schedule(slot, System.nanoTime());
+            slot.inUse = true;
+        }
+        transmit(slot);
+    }
+    
+    /**
+     * Record a transmission of a slot and schedule its retransmission.
+     * Must hold the lock of this
+     * 
+     * @param slot the slot being transmitted
+     * @param now the current time in nanoseconds
+     */
+    private void schedule(Slot slot, long now) {
+        slot.transmissions++;
+        slot.behind = slot.seq - sendBase;
+        slot.missCount = 0;
+        slot.sentAt = now;
+        long timeout = Math.min(maxRto, rto << Math.min(slot.transmissions - 1, 16));
+        slot.deadline = now + TimeUnit.MILLISECONDS.toNanos(timeout);
+    }
+    
+    /**
+     * Send the frame in a slot over the wrapped Messenger if it is still unacknowledged
+     * 
+     * @param slot the slot to transmit
+     */
+    private void transmit(Slot slot) {
+        synchronized (slot) {
+            if (slot.inUse && !slot.acked) {
+                slot.header.put(4, (byte) slot.behind);
+                slot.header.rewind();
+                slot.payload.rewind();
+                messenger.sendMessage(slot.frame);
+            }
+        }
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        if (!msg.hasRemaining()) {
+            errors.record(ErrorCause.MALFORMED, "Empty reliable frame.");
+            return;
+        }
+        byte type = msg.get(msg.position());
+        if (type == DATA && msg.remaining() >= DATA_HEADER_LENGTH) {
+            onData(msg);
+        } else if (type == ACK && msg.remaining() >= ACK_LENGTH) {
+            onAck(msg);
+        } else {
+            errors.record(ErrorCause.MALFORMED, "Unknown reliable frame.");
+        }
+    }
+    
+    /**
+     * Handle a received data frame, delivering it in order and acknowledging it
+     * 
+     * @param frame the data frame
+     */
+    private void onData(ByteBuffer frame) {
+        int position = frame.position();
+        int frameEpoch = frame.get(position + 1) & 0xFF;
+        int seq = ((frame.get(position + 2) & 0xFF) << 8) | (frame.get(position + 3) & 0xFF);
+        int base = seq - (frame.get(position + 4) & 0xFF);
+        frame.position(position + DATA_HEADER_LENGTH);
+        synchronized (receiveLock) {
+            if (frameEpoch != peerEpoch) {
+                //either end has reconnected, so start from the oldest message
+                //the sender has not had acknowledged
+                peerEpoch = frameEpoch;
+                receiveNext = base;
+                for (int i = 0; i < windowSize; i++) {
+                    received[i] = false;
+                }
+            } else if (seqDiff(base, receiveNext) > 0) {
+                //the messages before the base were acknowledged by this end 
+                //before it reconnected, so skip any not received since
+                int skip = seqDiff(base, receiveNext);
+                for (int i = 0; i < skip; i++) {
+                    int index = index(receiveNext + i);
+                    if (received[index]) {
+                        received[index] = false;
+                        deliver(ByteBuffer.wrap(receiveSlots[index], 0, receiveLengths[index]));
+                    }
+                }
+                receiveNext += skip;
+            }
+            int distance = seqDiff(seq, receiveNext);
+            if (distance == 0) {
+                deliver(frame);
+                receiveNext++;
+                int index = index(receiveNext);
+                while (received[index]) {
+                    received[index] = false;
+                    deliver(ByteBuffer.wrap(receiveSlots[index], 0, receiveLengths[index]));
+                    receiveNext++;
+                    index = index(receiveNext);
+                }
+            } else if (distance > 0 && distance < windowSize) {
+                int index = index(receiveNext + distance);
+                if (!received[index]) {
+                    if (frame.remaining() > maxMessageLen) {
+                        errors.record(ErrorCause.OVERSIZE, "Message length exceeded in reliable messenger.");
+                    } else {
+                        receiveLengths[index] = frame.remaining();
+                        frame.get(receiveSlots[index], 0, frame.remaining());
+                        received[index] = true;
+                    }
+                }
+            }
+            //duplicates and frames beyond the window are acknowledged but dropped
+            sendAck();
+        }
+    }
+    
+    /**
+     * Send an acknowledgement of the receive state. Must hold the receive lock
+     */
+    private void sendAck() {
+        int sack = 0;
+        for (int i = 0; i < 32 && i < windowSize - 1; i++) {
+            if (received[index(receiveNext + 1 + i)]) {
+                sack |= 1 << i;
+            }
+        }
+        ackFrame.clear();
+        ackFrame.put(ACK);
+        ackFrame.put((byte) peerEpoch);
+        ackFrame.putShort((short) receiveNext);
+        ackFrame.putInt(sack);
+        ackFrame.flip();
+        messenger.sendMessage(ackFrame);
+    }
+    
+    /**
+     * Handle a received acknowledgement, sliding the window and retransmitting
+     * messages reported missing
+     * 
+     * @param frame the acknowledgement frame
+     */
+    private void onAck(ByteBuffer frame) {
+        int position = frame.position();
+        int ackEpoch = frame.get(position + 1) & 0xFF;
+        int next = frame.getShort(position + 2) & 0xFFFF;
+        int sack = frame.getInt(position + 4);
+        int numDue = 0;
+        synchronized (this) {
+            if (ackEpoch != epoch) {
+                //acknowledgement of an earlier connection
+                return;
+            }
+            int cumulative = sendBase + seqDiff(next, sendBase);
+            if (cumulative < sendBase || cumulative > sendNext) {
+                //stale or invalid acknowledgement
+                return;
+            }
+            long now = System.nanoTime();
+            //the latest transmission time of the messages newly acknowledged
+            long newest = Long.MIN_VALUE;
+            for (int seq = sendBase; seq < cumulative; seq++) {
+                newest = acknowledge(sendSlots[index(seq)], now, newest);
+            }
+            //a receiver that reconnected has forgotten the messages it 
+            //selectively acknowledged, so those no longer reported are resent
+            if (cumulative < sendNext) {
+                sendSlots[index(cumulative)].acked = false;
+            }
+            int highest = -1;
+            for (int i = 0; i < 32; i++) {
+                int seq = cumulative + 1 + i;
+                if (seq >= sendNext) {
+                    break;
+                }
+                if ((sack & (1 << i)) != 0) {
+                    newest = acknowledge(sendSlots[index(seq)], now, newest);
+                    highest = seq;
+                } else {
+                    sendSlots[index(seq)].acked = false;
+                }
+            }
+            //messages below the highest selectively acknowledged message that
+            //were sent before a newly acknowledged message are likely lost, so
+            //retransmit them once enough later messages arrive
+            for (int seq = cumulative; seq < highest; seq++) {
+                Slot slot = sendSlots[index(seq)];
+                if (slot.inUse && !slot.acked && slot.sentAt - newest < 0
+                        && ++slot.missCount == fastRetransmitThreshold) {
+                    schedule(slot, now);
+                    retransmissions.increment();
+                    ackDue[numDue++] = slot;
+                }
+            }
+            while (sendBase < sendNext && sendSlots[index(sendBase)].acked) {
+                sendSlots[index(sendBase)].inUse = false;
+                sendBase++;
+            }
+            notifyAll();
+        }
+        for (int i = 0; i < numDue; i++) {
+            transmit(ackDue[i]);
+            ackDue[i] = null;
+        }
+    }
+    
+    /**
+     * Mark a slot acknowledged, sampling the round trip time if it was only 
+     * transmitted once. Must hold the lock of this
+     * 
+     * @param slot the acknowledged slot
+     * @param now the current time in nanoseconds
+     * @param newest the latest transmission time of acknowledged messages
+     * @return the latest transmission time including this slot
+     */
+    private long acknowledge(Slot slot, long now, long newest) {
+        if (slot.acked || !slot.inUse) {
+            return newest;
+        }
+        slot.acked = true;
+        if (slot.transmissions == 1) {
+            updateRtt((now - slot.sentAt) / 1e6);
+        }
+        return newest == Long.MIN_VALUE || slot.sentAt - newest > 0 ? slot.sentAt : newest;
+    }
+    
+    /**
+     * Update the smoothed round trip time and retransmission timeout with a
+     * sample as in RFC 6298. Must hold the lock of this
+     * 
+     * @param sample the round trip time sample in milliseconds
+     */
+    private void updateRtt(double sample) {
+        if (!rttValid) {
+            srtt = sample;
+            rttvar = sample / 2;
+            rttValid = true;
+        } else {
+            rttvar = 0.75 * rttvar + 0.25 * Math.abs(srtt - sample);
+            srtt = 0.875 * srtt + 0.125 * sample;
+        }
+        rto = Math.max(minRto, Math.min(maxRto, (long) Math.ceil(srtt + Math.max(timerPeriod, 4 * rttvar))));
+    }
+    
+    /**
+     * Retransmit messages whose timeout has expired. Run periodically by the timer
+     */
+    private void onTimer() {
+        int numDue = 0;
+        synchronized (this) {
+            long now = System.nanoTime();
+            for (int seq = sendBase; seq < sendNext; seq++) {
+                Slot slot = sendSlots[index(seq)];
+                if (slot.inUse && !slot.acked && now - slot.deadline >= 0) {
+                    schedule(slot, now);
+                    retransmissions.increment();
+                    timerDue[numDue++] = slot;
+                }
+            }
+        }
+        for (int i = 0; i < numDue; i++) {
+            transmit(timerDue[i]);
+            timerDue[i] = null;
+        }
+    }
+    
+    /**
+     * Reset the sender and receiver state
+     */
+    private void reset() {
+        synchronized (this) {
+            sendBase = 0;
+            sendNext = 0;
+            //a new epoch so that the peer resynchronizes
+            epoch = (epoch + 1 + ThreadLocalRandom.current().nextInt(255)) & 0xFF;
+            for (Slot slot : sendSlots) {
+                slot.inUse = false;
+            }
+            rttValid = false;
+            rto = initialRto;
+            notifyAll();
+        }
+        synchronized (receiveLock) {
+            receiveNext = 0;
+            peerEpoch = -1;
+            for (int i = 0; i < windowSize; i++) {
+                received[i] = false;
+            }
+        }
+    }
+
+    @Override
+    public boolean connect() {
+        reset();
+        if (!messenger.connect()) {
+            return false;
+        }
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+            }
+            running = true;
+            timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("Reliable messenger timer"));
+            timer.scheduleAtFixedRate(this::onTimer, timerPeriod, timerPeriod, TimeUnit.MILLISECONDS);
+        }
+        return true;
+    }
+
+    @Override
+    public boolean disconnect() {
+        synchronized (this) {
+            running = false;
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+        }
+        reset();
+        return messenger.disconnect();
+    }
+    
+    /**
+     * Get the smoothed round trip time
+     * 
+     * @return the smoothed round trip time in milliseconds or NaN if not measured
+     */
+    public synchronized double getSmoothedRtt() {
+        return rttValid ? srtt : Double.NaN;
+    }
+    
+    /**
+     * Get the current retransmission timeout
+     * 
+     * @return the retransmission timeout in milliseconds
+     */
+    public synchronized long getRto() {
+        return rto;
+    }
+    
+    /**
+     * Get the number of messages awaiting acknowledgement
+     * 
+     * @return the number of unacknowledged messages
+     */
+    public synchronized int getUnacknowledgedCount() {
+        return sendNext - sendBase;
+    }
+    
+    /**
+     * Get the total number of retransmissions
+     * 
+     * @return the number of retransmissions
+     */
+    public long getRetransmissionCount() {
+        return retransmissions.sum();
+    }
+    
+    private int index(int seq) {
+        return Math.floorMod(seq, windowSize);
+    }
+    
+    /**
+     * Get the signed distance from b to a in 16 bit sequence space
+     */
+    private static int seqDiff(int a, int b) {
+        return (short) (a - b);
+    }
+    
+    /**
+     * A slot of the send window holding a data frame as its header and 
+     * payload, passed down together
+     */
+    private static class Slot {
+        
+        final ByteBuffer header = ByteBuffer.allocate(DATA_HEADER_LENGTH);
+        final ByteBuffer payload;
+        final ByteBuffer[] frame;
+        int seq;
+        int epoch;
+        int behind;
+        volatile boolean inUse;
+        volatile boolean acked;
+        int transmissions;
+        int missCount;
+        long sentAt;
+        long deadline;
+
+        Slot(int capacity) {
+            payload = ByteBuffer.allocate(capacity);
+            frame = new ByteBuffer[] {header, payload};
+        }
+        
+        /**
+         * Write the type, epoch and sequence number of the slot to its header
+         */
+        void fillHeader() {
+            header.clear();
+            header.put(DATA);
+            header.put((byte) epoch);
+            header.putShort((short) seq);
+        }
+        
+    }
+    
+}
@@ -0,0 +1,353 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import util.DaemonThreadFactory;
+import util.ErrorCause;
+import util.IntObjectMap;
+
+/**
+ * A Messenger adding request/response calls with correlation IDs.
+ * 
+ * {@link #call(ByteBuffer, long)} sends a request and returns a future 
+ * completed with the response, or exceptionally with a TimeoutException if no
+ * response arrives before the deadline. Any number of calls may be in flight
+ * at once, and responses may arrive in any order. Incoming requests are passed
+ * to the RequestHandler, whose response is sent back with the ID of the request.
+ * 
+ * Requests are framed as [0x01][id:2][request] and responses as 
+ * [0x02][id:2][response], the ID being big-endian. Other messages pass through
+ * unchanged, so plain messages must not begin with these bytes. This is
+ * compatible with single letter commands such as those parsed by CommArdu,
+ * whose answerRpc passes the body of each request to a handler on the device.
+ * 
+ * @author Andrew_2
+ */
+public class RpcMessenger extends MessengerWrapper {
+
+    public static final byte REQUEST = 0x01;
+    public static final byte RESPONSE = 0x02;
+    public static final int HEADER_LENGTH = 3;
+    
+    public static final int defaultMaxMessageLen = 251;
+    public static final int defaultMaxPending = 1024;
+    public static final long defaultTimeout = 1000;
+    
+    private final int maxMessageLen;
+    private final int maxPending;
+    
+    //pending calls by ID, guarded by this
+    private final IntObjectMap<PendingCall> pending;
+    private int nextId;
+    private ScheduledExecutorService timer;
+    private final ByteBuffer requestFrame;
+    
+    private volatile RequestHandler requestHandler;
+    private final ByteBuffer responseFrame;
+
+    /**
+     * Construct an RpcMessenger with the default maximum message length and 
+     * number of pending calls
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public RpcMessenger(Messenger messenger) {
+        this(messenger, defaultMaxMessageLen, defaultMaxPending);
+    }
+    
+    /**
+     * Construct an RpcMessenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param maxMessageLen the maximum length of a request or response
+     * @param maxPending the maximum number of calls in flight, at most 65536
+     */
+    public RpcMessenger(Messenger messenger, int maxMessageLen, int maxPending) {
+        super(messenger);
+        this.maxMessageLen = maxMessageLen;
+        this.maxPending = Math.min(maxPending, 1 << 16);
+        pending = new IntObjectMap<>(this.maxPending);
+        requestFrame = ByteBuffer.allocate(HEADER_LENGTH + maxMessageLen);
+        responseFrame = ByteBuffer.allocate(HEADER_LENGTH + maxMessageLen);
+    }
+    
+    /**
+     * Set the handler of incoming requests
+     * 
+     * @param requestHandler the request handler or null to ignore requests
+     */
+    public void setRequestHandler(RequestHandler requestHandler) {
+        this.requestHandler = requestHandler;
+    }
+    
+    /**
+     * Send a plain message without a response
+     * 
+     * @param msg the message to send
+     * @return whether the sending was successful
+     */
+    @Override
+    public boolean sendMessage(ByteBuffer msg) {
+        return messenger.sendMessage(msg);
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        return messenger.sendMessage(parts);
+    }
+    
+    /**
+     * Send a request with the default timeout
+     * 
+     * @param request the request to send
+     * @return a future completed with the response
+     */
+    public CompletableFuture<ByteBuffer> call(ByteBuffer request) {
+        return call(request, defaultTimeout);
+    }
+    
+    /**
+     * Send a request
+     * 
+     * @param request the request to send
+     * @param timeout the time to wait for a response in milliseconds
+     * @return a future completed with the response, or exceptionally if the 
+     * request could not be sent or timed out
+     */
+    public CompletableFuture<ByteBuffer> call(ByteBuffer request, long timeout) {
+        PendingCall call = new PendingCall();
+        if (request.remaining() > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Request length exceeded in RPC messenger.");
+            call.completeExceptionally(new IllegalArgumentException("Request too long"));
+            return call;
+        }
+        synchronized (this) {
+            if (timer == null) {
+                errors.record(ErrorCause.DISCONNECTED, "Cannot call when disconnected.");
+                call.completeExceptionally(new IllegalStateException("Disconnected"));
+                return call;
+            }
+            if (pending.size() >= maxPending) {
+                errors.record(ErrorCause.OVERFLOW, "Too many pending calls.");
+                call.completeExceptionally(new IllegalStateException("Too many pending calls"));
+                return call;
+            }
+            //skip IDs still in use by slow calls
+            while (pending.containsKey(nextId)) {
+                nextId = (nextId + 1) & 0xFFFF;
+            }
+            call.id = nextId;
+            nextId = (nextId + 1) & 0xFFFF;
+            pending.put(call.id, call);
+            call.timeout = timer.schedule(() -> expire(call), timeout, TimeUnit.MILLISECONDS);
+        }
+        boolean sent;
+        synchronized (requestFrame) {
+            requestFrame.clear();
+            requestFrame.put(REQUEST);
+            requestFrame.putShort((short) call.id);
+            requestFrame.put(request);
+            requestFrame.flip();
+            sent = messenger.sendMessage(requestFrame);
+        }
+        if (!sent) {
+            synchronized (this) {
+                remove(call);
+            }
+            call.completeExceptionally(new IllegalStateException("Request could not be sent"));
+        }
+        return call;
+    }
+    
+    /**
+     * Fail a call whose deadline has passed
+     * 
+     * @param call the expired call
+     */
+    private void expire(PendingCall call) {
+        synchronized (this) {
+            if (pending.get(call.id) != call) {
+                return;
+            }
+            pending.remove(call.id);
+        }
+        errors.record(ErrorCause.TIMEOUT);
+        call.completeExceptionally(new TimeoutException("No response to request " + call.id));
+    }
+    
+    /**
+     * Remove a pending call and cancel its timeout. Must hold the lock of this
+     * 
+     * @param call the call to remove
+     */
+    private void remove(PendingCall call) {
+        pending.remove(call.id);
+        if (call.timeout != null) {
+            call.timeout.cancel(false);
+        }
+    }
+    
+    /**
+     * Get the number of calls awaiting a response
+     * 
+     * @return the number of pending calls
+     */
+    public synchronized int getPendingCount() {
+        return pending.size();
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        if (!msg.hasRemaining()) {
+            deliver(msg);
+            return;
+        }
+        byte type = msg.get(msg.position());
+        if (type != REQUEST && type != RESPONSE) {
+            deliver(msg);
+            return;
+        }
+        if (msg.remaining() < HEADER_LENGTH) {
+            errors.record(ErrorCause.MALFORMED, "RPC frame too short.");
+            return;
+        }
+        msg.get();
+        int id = msg.getShort() & 0xFFFF;
+        if (type == REQUEST) {
+            onRequest(id, msg);
+        } else {
+            onResponse(id, msg);
+        }
+    }
+    
+    /**
+     * Complete the call matching a response
+     * 
+     * @param id the ID of the call
+     * @param response the response
+     */
+    private void onResponse(int id, ByteBuffer response) {
+        PendingCall call;
+        synchronized (this) {
+            call = pending.get(id);
+            if (call == null) {
+                //the call has already timed out
+                errors.record(ErrorCause.STALE);
+                return;
+            }
+            remove(call);
+        }
+        //the received buffer may be reused so the response is copied
+        ByteBuffer copy = ByteBuffer.allocate(response.remaining());
+        copy.put(response);
+        copy.flip();
+        call.complete(copy);
+    }
+    
+    /**
+     * Pass a request to the handler and send its response
+     * 
+     * @param id the ID of the request
+     * @param request the request
+     */
+    private void onRequest(int id, ByteBuffer request) {
+        RequestHandler handler = requestHandler;
+        if (handler == null) {
+            errors.record(ErrorCause.NO_CALLBACK, "Cannot handle request. Handler is null");
+            return;
+        }
+        synchronized (responseFrame) {
+            responseFrame.clear();
+            responseFrame.put(RESPONSE);
+            responseFrame.putShort((short) id);
+            if (handler.onRequest(request, responseFrame)) {
+                responseFrame.flip();
+                messenger.sendMessage(responseFrame);
+            }
+        }
+    }
+
+    @Override
+    public boolean connect() {
+        synchronized (this) {
+            if (timer == null) {
+                timer = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("RPC timer"));
+            }
+        }
+        return messenger.connect();
+    }
+
+    @Override
+    public boolean disconnect() {
+        PendingCall[] calls;
+        synchronized (this) {
+            if (timer != null) {
+                timer.shutdownNow();
+                timer = null;
+            }
+            calls = new PendingCall[pending.size()];
+            int[] count = {0};
+            pending.forEach((call, id) -> calls[count[0]++] = call);
+            pending.clear();
+        }
+        for (PendingCall call : calls) {
+            call.completeExceptionally(new IllegalStateException("Disconnected"));
+        }
+        return messenger.disconnect();
+    }
+    
+    /**
+     * A handler of incoming requests
+     */
+    public interface RequestHandler {
+        
+        /**
+         * Handle a request, writing the response
+         * 
+         * @param request the request
+         * @param response the buffer to put the response into
+         * @return whether to send the response
+         */
+        public boolean onRequest(ByteBuffer request, ByteBuffer response);
+        
+    }
+    
+    /**
+     * A call awaiting its response
+     */
+    private static class PendingCall extends CompletableFuture<ByteBuffer> {
+        
+        int id;
+        ScheduledFuture<?> timeout;
+        
+    }
+    
+}
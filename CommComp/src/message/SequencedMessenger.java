@@ -0,0 +1,184 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package message;
+
+import comm.BlockComm;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import util.ErrorCause;
+import util.Utility;
+
+/**
+ * A Messenger providing unreliable sequenced delivery, in which only the 
+ * latest message is ever applied.
+ * 
+ * Each message is stamped with a wrapping 16 bit sequence number. Received 
+ * messages older than the newest message already received are discarded
+ * rather than delivered, and lost messages are never retransmitted. This suits
+ * control messages such as joystick states, for which a newer message replaces 
+ * any older one and waiting for a retransmission would only add latency.
+ * 
+ * Frames consist of the sequence number in big-endian order followed by the 
+ * message. If no message is accepted for the resynchronization timeout, the 
+ * next message is accepted regardless of its sequence number, so that a 
+ * restarted sender is not ignored.
+ * 
+ * @author Andrew_2
+ */
+public class SequencedMessenger extends MessengerWrapper {
+
+    public static final int HEADER_LENGTH = 2;
+    public static final int defaultMaxMessageLen = 252;
+    public static final long defaultResyncTimeout = 1000;
+    
+    private final int maxMessageLen;
+    //the header and message passed down together, guarded by this
+    private final ByteBuffer header = ByteBuffer.allocate(HEADER_LENGTH);
+    private final ByteBuffer[] frame = {header, null};
+    private ByteBuffer[] gathered;
+    private int sendSeq;
+    
+    private final Object receiveLock = new Object();
+    private boolean synced;
+    private int receiveSeq;
+    private long lastAccepted;
+    private long resyncTimeout = TimeUnit.MILLISECONDS.toNanos(defaultResyncTimeout);
+    private long staleCount;
+
+    /**
+     * Construct a SequencedMessenger over a BlockComm with the default maximum
+     * message length
+     * 
+     * @param comm the BlockComm to communicate over
+     */
+    public SequencedMessenger(BlockComm comm) {
+        this(new TransparentBlockMessenger(comm));
+    }
+    
+    /**
+     * Construct a SequencedMessenger wrapping a Messenger with the default
+     * maximum message length
+     * 
+     * @param messenger the Messenger to be wrapped
+     */
+    public SequencedMessenger(Messenger messenger) {
+        this(messenger, defaultMaxMessageLen);
+    }
+    
+    /**
+     * Construct a SequencedMessenger wrapping a Messenger
+     * 
+     * @param messenger the Messenger to be wrapped
+     * @param maxMessageLen the maximum length of a message
+     */
+    public SequencedMessenger(Messenger messenger, int maxMessageLen) {
+        super(messenger);
+        this.maxMessageLen = maxMessageLen;
+    }
+    
+    /**
+     * Set the time without an accepted message after which any message is accepted
+     * 
+     * @param resyncTimeout the resynchronization timeout in milliseconds
+     */
+    public void setResyncTimeout(long resyncTimeout) {
+        this.resyncTimeout = TimeUnit.MILLISECONDS.toNanos(resyncTimeout);
+    }
+
+    @Override
+    public synchronized boolean sendMessage(ByteBuffer msg) {
+        if (msg.remaining() > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in sequenced messenger.");
+            return false;
+        }
+        header.clear();
+        header.putShort((short) sendSeq++);
+        header.flip();
+        frame[1] = msg;
+        boolean sent = messenger.sendMessage(frame);
+        frame[1] = null;
+        return sent;
+    }
+
+    @Override
+    public synchronized boolean sendMessage(ByteBuffer... parts) {
+        if (Utility.remaining(parts) > maxMessageLen) {
+            errors.record(ErrorCause.OVERSIZE, "Message length exceeded in sequenced messenger.");
+            return false;
+        }
+        header.clear();
+        header.putShort((short) sendSeq++);
+        header.flip();
+        gathered = Utility.prepend(gathered, header, parts);
+        boolean sent = messenger.sendMessage(gathered);
+        Arrays.fill(gathered, null);
+        return sent;
+    }
+
+    @Override
+    protected void onWrappedMessageReceived(ByteBuffer msg) {
+        if (msg.remaining() < HEADER_LENGTH) {
+            errors.record(ErrorCause.MALFORMED, "Sequenced frame too short.");
+            return;
+        }
+        int seq = msg.getShort() & 0xFFFF;
+        synchronized (receiveLock) {
+            long now = System.nanoTime();
+            if (synced && (short) (seq - receiveSeq) <= 0 && now - lastAccepted < resyncTimeout) {
+                staleCount++;
+                errors.record(ErrorCause.STALE);
+                return;
+            }
+            synced = true;
+            receiveSeq = seq;
+            lastAccepted = now;
+            deliver(msg);
+        }
+    }
+    
+    /**
+     * Get the number of messages discarded as stale since connecting
+     * 
+     * @return the number of stale messages
+     */
+    public long getStaleCount() {
+        synchronized (receiveLock) {
+            return staleCount;
+        }
+    }
+
+    @Override
+    public boolean connect() {
+        synchronized (this) {
+            sendSeq = 0;
+        }
+        synchronized (receiveLock) {
+            synced = false;
+            staleCount = 0;
+        }
+        return messenger.connect();
+    }
+    
+}
@@ -25,6 +25,7 @@ package message;
 
 import comm.BlockComm;
 import java.nio.ByteBuffer;
+import util.BufferLease;
 
 /**
  * An implementation of a Messenger using a BlockComm block communication channel.
@@ -49,7 +50,13 @@ public class TransparentBlockMessenger implements Messenger {
     @Override
     public boolean sendMessage(ByteBuffer msg) {
         comm.writeBlock(msg);
-        return true;
+        return comm.isConnected();
+    }
+
+    @Override
+    public boolean sendMessage(ByteBuffer... parts) {
+        comm.writeBlock(parts);
+        return comm.isConnected();
     }
 
     @Override
@@ -59,6 +66,11 @@ public class TransparentBlockMessenger implements Messenger {
             public void onBlockReceived(BlockComm comm, ByteBuffer block) {
                 callback.onMessageReceived(TransparentBlockMessenger.this, block);
             }
+
+            @Override
+            public void onBlockReceived(BlockComm comm, ByteBuffer block, BufferLease lease) {
+                callback.onMessageReceived(TransparentBlockMessenger.this, block, lease);
+            }
         });
     }
 
@@ -0,0 +1,221 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package schema;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A generator of C structs and pack/unpack functions for the messages of a
+ * schema, matching the layout of the Java flyweights.
+ * 
+ * A header and a source file named after the schema are generated for use on
+ * embedded devices. Fixed-point fields are stored in their raw integer form,
+ * with a scale macro, to avoid floating point arithmetic on devices without an
+ * FPU. Fields absent from an older message version unpack as zero.
+ * 
+ * @author Andrew_2
+ */
+public class CGenerator {
+
+    private final Schema schema;
+
+    /**
+     * Construct a generator for a schema
+     * 
+     * @param schema the schema to generate code for
+     */
+    public CGenerator(Schema schema) {
+        this.schema = schema;
+    }
+    
+    /**
+     * Write the header and source files of the schema
+     * 
+     * @param directory the directory to write to
+     * @throws IOException if a file could not be written
+     */
+    public void generate(Path directory) throws IOException {
+        Files.createDirectories(directory);
+        String baseName = Names.snake(schema.getName()) + "_messages";
+        Files.write(directory.resolve(baseName + ".h"), generateHeader().getBytes());
+        Files.write(directory.resolve(baseName + ".cpp"), generateSource().getBytes());
+    }
+    
+    private String banner() {
+        return "/*\n * Generated from schema \"" + schema.getName() 
+                + "\" by schema.SchemaCompiler. Do not edit.\n */\n";
+    }
+    
+    /**
+     * Generate the header declaring the structs and functions
+     * 
+     * @return the header source
+     */
+    public String generateHeader() {
+        String guard = Names.constant(schema.getName()) + "_MESSAGES_H_";
+        StringBuilder sb = new StringBuilder(banner());
+        sb.append("\n#ifndef ").append(guard).append("\n#define ").append(guard).append("\n\n");
+        sb.append("#include <stdint.h>\n\n");
+        sb.append("#define MESSAGE_HEADER_LENGTH ").append(MessageDef.HEADER_LENGTH).append("\n\n");
+        for (MessageDef message : schema.getMessages()) {
+            String prefix = Names.constant(message.getName());
+            String struct = Names.snake(message.getName());
+            sb.append("#define ").append(prefix).append("_ID ").append(message.getId()).append("\n");
+            sb.append("#define ").append(prefix).append("_VERSION ").append(message.getVersion()).append("\n");
+            sb.append("#define ").append(prefix).append("_LENGTH ").append(message.getLength(message.getVersion())).append("\n");
+            for (FieldDef field : message.getFields()) {
+                if (field.getKind() == FieldDef.Kind.FIXED) {
+                    sb.append("#define ").append(prefix).append('_').append(Names.constant(field.getName()))
+                            .append("_SCALE ").append((float) field.getScale()).append("f\n");
+                }
+                for (int i = 0; i < field.getFlags().size(); i++) {
+                    sb.append("#define ").append(prefix).append('_').append(Names.constant(field.getFlags().get(i)))
+                            .append(" 0x").append(Long.toHexString(1L << i)).append("\n");
+                }
+            }
+            sb.append("\nstruct ").append(struct).append(" {\n");
+            sb.append("\tuint8_t version;\n");
+            for (FieldDef field : message.getFields()) {
+                sb.append('\t').append(field.getType().getCType()).append(' ').append(Names.snake(field.getName())).append(';');
+                if (field.getKind() == FieldDef.Kind.FIXED) {
+                    sb.append(" // raw fixed-point, divide by ").append(prefix).append('_')
+                            .append(Names.constant(field.getName())).append("_SCALE");
+                }
+                if (field.getSince() > 1) {
+                    sb.append(" // since version ").append(field.getSince());
+                }
+                sb.append('\n');
+            }
+            sb.append("};\n\n");
+            sb.append("int pack_").append(struct).append("(const struct ").append(struct)
+                    .append(" *msg, unsigned char *buf, int len);\n");
+            sb.append("int unpack_").append(struct).append("(struct ").append(struct)
+                    .append(" *msg, const unsigned char *buf, int len);\n\n");
+        }
+        sb.append("#endif /* ").append(guard).append(" */\n");
+        return sb.toString();
+    }
+    
+    /**
+     * Generate the source defining the pack and unpack functions
+     * 
+     * @return the C source
+     */
+    public String generateSource() {
+        StringBuilder sb = new StringBuilder(banner());
+        sb.append("\n#include \"").append(Names.snake(schema.getName())).append("_messages.h\"\n");
+        sb.append("#include <string.h>\n\n");
+        sb.append("static inline void put_u16(unsigned char *buf, uint16_t v) {\n");
+        sb.append("\tbuf[0] = v >> 8;\n\tbuf[1] = v;\n}\n\n");
+        sb.append("static inline void put_u32(unsigned char *buf, uint32_t v) {\n");
+        sb.append("\tbuf[0] = v >> 24;\n\tbuf[1] = v >> 16;\n\tbuf[2] = v >> 8;\n\tbuf[3] = v;\n}\n\n");
+        sb.append("static inline uint16_t get_u16(const unsigned char *buf) {\n");
+        sb.append("\treturn ((uint16_t) buf[0] << 8) | buf[1];\n}\n\n");
+        sb.append("static inline uint32_t get_u32(const unsigned char *buf) {\n");
+        sb.append("\treturn ((uint32_t) buf[0] << 24) | ((uint32_t) buf[1] << 16) | ((uint32_t) buf[2] << 8) | buf[3];\n}\n\n");
+        sb.append("static inline void put_f32(unsigned char *buf, float f) {\n");
+        sb.append("\tuint32_t v;\n\tmemcpy(&v, &f, 4);\n\tput_u32(buf, v);\n}\n\n");
+        sb.append("static inline float get_f32(const unsigned char *buf) {\n");
+        sb.append("\tuint32_t v = get_u32(buf);\n\tfloat f;\n\tmemcpy(&f, &v, 4);\n\treturn f;\n}\n\n");
+        
+        for (MessageDef message : schema.getMessages()) {
+            String prefix = Names.constant(message.getName());
+            String struct = Names.snake(message.getName());
+            sb.append("int pack_").append(struct).append("(const struct ").append(struct)
+                    .append(" *msg, unsigned char *buf, int len) {\n");
+            sb.append("\tif (len < ").append(prefix).append("_LENGTH) {\n\t\treturn -1;\n\t}\n");
+            sb.append("\tbuf[0] = ").append(prefix).append("_ID;\n");
+            sb.append("\tbuf[1] = ").append(prefix).append("_VERSION;\n");
+            for (FieldDef field : message.getFields()) {
+                sb.append('\t').append(packStatement(field)).append('\n');
+            }
+            sb.append("\treturn ").append(prefix).append("_LENGTH;\n}\n\n");
+            
+            sb.append("int unpack_").append(struct).append("(struct ").append(struct)
+                    .append(" *msg, const unsigned char *buf, int len) {\n");
+            sb.append("\tif (len < MESSAGE_HEADER_LENGTH || buf[0] != ").append(prefix)
+                    .append("_ID || buf[1] == 0) {\n\t\treturn -1;\n\t}\n");
+            sb.append("\tuint8_t version = buf[1] < ").append(prefix).append("_VERSION ? buf[1] : ")
+                    .append(prefix).append("_VERSION;\n");
+            for (int v = 1; v <= message.getVersion(); v++) {
+                sb.append("\tif (version == ").append(v).append(" && len < ").append(message.getLength(v))
+                        .append(") {\n\t\treturn -1;\n\t}\n");
+            }
+            sb.append("\tmemset(msg, 0, sizeof(*msg));\n");
+            sb.append("\tmsg->version = version;\n");
+            int since = 1;
+            for (FieldDef field : message.getFields()) {
+                if (field.getSince() > since) {
+                    if (since > 1) {
+                        sb.append("\t}\n");
+                    }
+                    since = field.getSince();
+                    sb.append("\tif (version >= ").append(since).append(") {\n");
+                }
+                sb.append(since > 1 ? "\t\t" : "\t").append(unpackStatement(field)).append('\n');
+            }
+            if (since > 1) {
+                sb.append("\t}\n");
+            }
+            sb.append("\treturn 0;\n}\n\n");
+        }
+        return sb.toString();
+    }
+    
+    private String packStatement(FieldDef field) {
+        String member = "msg->" + Names.snake(field.getName());
+        String at = "buf + " + field.getOffset();
+        switch (field.getType().size()) {
+            case 1:
+                return "buf[" + field.getOffset() + "] = (unsigned char) " + member + ";";
+            case 2:
+                return "put_u16(" + at + ", (uint16_t) " + member + ");";
+            default:
+                if (field.getType() == FieldType.FLOAT32) {
+                    return "put_f32(" + at + ", " + member + ");";
+                }
+                return "put_u32(" + at + ", (uint32_t) " + member + ");";
+        }
+    }
+    
+    private String unpackStatement(FieldDef field) {
+        String member = "msg->" + Names.snake(field.getName());
+        String cast = "(" + field.getType().getCType() + ") ";
+        String at = "buf + " + field.getOffset();
+        switch (field.getType().size()) {
+            case 1:
+                return member + " = " + cast + "buf[" + field.getOffset() + "];";
+            case 2:
+                return member + " = " + cast + "get_u16(" + at + ");";
+            default:
+                if (field.getType() == FieldType.FLOAT32) {
+                    return member + " = get_f32(" + at + ");";
+                }
+                return member + " = " + cast + "get_u32(" + at + ");";
+        }
+    }
+    
+}
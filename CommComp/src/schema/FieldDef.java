@@ -0,0 +1,151 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The definition of a field of a message in a schema.
+ * 
+ * A field is either a plain value, a fixed-point value stored as a scaled 
+ * integer, or a set of bit flags stored in an unsigned integer. Fields added 
+ * in a later version of a message record the version they were added in and
+ * are only present in messages of that version or later.
+ * 
+ * @author Andrew_2
+ */
+public class FieldDef {
+    
+    /**
+     * The kinds of fields
+     */
+    public enum Kind {
+        VALUE, FIXED, FLAGS
+    }
+
+    private final String name;
+    private final Kind kind;
+    private final FieldType type;
+    private final double scale;
+    private final List<String> flags;
+    private final int since;
+    private int offset;
+
+    /**
+     * Construct a plain value field
+     * 
+     * @param name the name of the field
+     * @param type the type of the field
+     * @param since the message version the field was added in
+     */
+    public FieldDef(String name, FieldType type, int since) {
+        this(name, Kind.VALUE, type, 1, Collections.emptyList(), since);
+    }
+    
+    /**
+     * Construct a field
+     * 
+     * @param name the name of the field
+     * @param kind the kind of the field
+     * @param type the storage type of the field
+     * @param scale the number of stored units per unit of a fixed-point value
+     * @param flags the names of the flags from the least significant bit
+     * @param since the message version the field was added in
+     */
+    public FieldDef(String name, Kind kind, FieldType type, double scale, List<String> flags, int since) {
+        if (kind != Kind.VALUE && !type.isInteger()) {
+            throw new IllegalArgumentException("Field " + name + " must have an integer type");
+        }
+        if (kind == Kind.FLAGS && (type.isSigned() || flags.size() > type.size() * 8)) {
+            throw new IllegalArgumentException("Flags of field " + name + " do not fit its type");
+        }
+        if (kind == Kind.FIXED && !(scale > 0)) {
+            throw new IllegalArgumentException("Scale of field " + name + " must be positive");
+        }
+        if (since < 1) {
+            throw new IllegalArgumentException("Version of field " + name + " must be positive");
+        }
+        this.name = name;
+        this.kind = kind;
+        this.type = type;
+        this.scale = scale;
+        this.flags = Collections.unmodifiableList(new ArrayList<>(flags));
+        this.since = since;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public Kind getKind() {
+        return kind;
+    }
+
+    public FieldType getType() {
+        return type;
+    }
+
+    /**
+     * Get the number of stored units per unit of a fixed-point value
+     * 
+     * @return the scale
+     */
+    public double getScale() {
+        return scale;
+    }
+
+    /**
+     * Get the names of the flags of a flags field, from the least significant bit
+     * 
+     * @return the flag names
+     */
+    public List<String> getFlags() {
+        return flags;
+    }
+
+    /**
+     * Get the message version the field was added in
+     * 
+     * @return the version
+     */
+    public int getSince() {
+        return since;
+    }
+
+    /**
+     * Get the offset of the field from the start of the message
+     * 
+     * @return the offset in bytes
+     */
+    public int getOffset() {
+        return offset;
+    }
+
+    void setOffset(int offset) {
+        this.offset = offset;
+    }
+    
+}
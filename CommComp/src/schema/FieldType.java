@@ -0,0 +1,172 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package schema;
+
+/**
+ * The primitive storage types of message fields.
+ * 
+ * Each type has a fixed size in bytes and is encoded big-endian. The Java and
+ * C names are used by the generators for accessors and struct members.
+ * 
+ * @author Andrew_2
+ */
+public enum FieldType {
+    
+    INT8("int8", 1, true, "byte", "", "int8_t"),
+    UINT8("uint8", 1, false, "int", "", "uint8_t"),
+    INT16("int16", 2, true, "short", "Short", "int16_t"),
+    UINT16("uint16", 2, false, "int", "Short", "uint16_t"),
+    INT32("int32", 4, true, "int", "Int", "int32_t"),
+    UINT32("uint32", 4, false, "long", "Int", "uint32_t"),
+    FLOAT32("float32", 4, true, "float", "Float", "float");
+    
+    private final String name;
+    private final int size;
+    private final boolean signed;
+    private final String javaType;
+    private final String bufferSuffix;
+    private final String cType;
+
+    private FieldType(String name, int size, boolean signed, String javaType, String bufferSuffix, String cType) {
+        this.name = name;
+        this.size = size;
+        this.signed = signed;
+        this.javaType = javaType;
+        this.bufferSuffix = bufferSuffix;
+        this.cType = cType;
+    }
+
+    /**
+     * Get the name of the type used in schemas
+     * 
+     * @return the schema name
+     */
+    public String getName() {
+        return name;
+    }
+
+    /**
+     * Get the encoded size of the type
+     * 
+     * @return the size in bytes
+     */
+    public int size() {
+        return size;
+    }
+
+    /**
+     * Check whether the type is signed
+     * 
+     * @return whether the type is signed
+     */
+    public boolean isSigned() {
+        return signed;
+    }
+    
+    /**
+     * Check whether the type is an integer type
+     * 
+     * @return whether the type is an integer type
+     */
+    public boolean isInteger() {
+        return this != FLOAT32;
+    }
+
+    /**
+     * Get the Java type holding a value of this type, widened for unsigned types
+     * 
+     * @return the Java type name
+     */
+    public String getJavaType() {
+        return javaType;
+    }
+
+    /**
+     * Get the suffix of the ByteBuffer get and put methods for this type
+     * 
+     * @return the ByteBuffer method suffix
+     */
+    public String getBufferSuffix() {
+        return bufferSuffix;
+    }
+    
+    /**
+     * Get the Java type read from and written to the ByteBuffer
+     * 
+     * @return the Java storage type name
+     */
+    public String getStorageJavaType() {
+        switch (size) {
+            case 1:
+                return "byte";
+            case 2:
+                return "short";
+            default:
+                return this == FLOAT32 ? "float" : "int";
+        }
+    }
+
+    /**
+     * Get the C type of a struct member of this type
+     * 
+     * @return the C type name
+     */
+    public String getCType() {
+        return cType;
+    }
+    
+    /**
+     * Get the minimum value of an integer type
+     * 
+     * @return the minimum value
+     */
+    public long minValue() {
+        return signed ? -(1L << (size * 8 - 1)) : 0;
+    }
+    
+    /**
+     * Get the maximum value of an integer type
+     * 
+     * @return the maximum value
+     */
+    public long maxValue() {
+        return signed ? (1L << (size * 8 - 1)) - 1 : (1L << (size * 8)) - 1;
+    }
+    
+    /**
+     * Get the type with the given schema name
+     * 
+     * @param name the schema name
+     * @return the type
+     */
+    public static FieldType forName(String name) {
+        for (FieldType type : values()) {
+            if (type.name.equals(name)) {
+                return type;
+            }
+        }
+        throw new IllegalArgumentException("Unknown field type " + name);
+    }
+    
+}
@@ -0,0 +1,212 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package schema;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * A generator of Java flyweight codecs for the messages of a schema.
+ * 
+ * Each message becomes a class reading and writing its fields directly in a
+ * ByteBuffer at absolute positions. A single instance is reused by wrapping 
+ * each buffer in turn, so encoding and decoding allocate nothing. Buffers must
+ * have the default big-endian byte order.
+ * 
+ * @author Andrew_2
+ */
+public class JavaGenerator {
+
+    private final Schema schema;
+    private final String packageName;
+
+    /**
+     * Construct a generator for a schema
+     * 
+     * @param schema the schema to generate codecs for
+     * @param packageName the package of the generated classes
+     */
+    public JavaGenerator(Schema schema, String packageName) {
+        this.schema = schema;
+        this.packageName = packageName;
+    }
+    
+    /**
+     * Write a source file for each message of the schema
+     * 
+     * @param directory the source root directory
+     * @throws IOException if a file could not be written
+     */
+    public void generate(Path directory) throws IOException {
+        Path packageDir = directory.resolve(packageName.replace('.', '/'));
+        Files.createDirectories(packageDir);
+        for (MessageDef message : schema.getMessages()) {
+            Files.write(packageDir.resolve(Names.upperCamel(message.getName()) + ".java"),
+                    generate(message).getBytes());
+        }
+    }
+    
+    /**
+     * Generate the source of the codec class of a message
+     * 
+     * @param message the message definition
+     * @return the Java source
+     */
+    public String generate(MessageDef message) {
+        String className = Names.upperCamel(message.getName());
+        StringBuilder sb = new StringBuilder();
+        sb.append("/*\n * Generated from schema \"").append(schema.getName())
+                .append("\" by schema.SchemaCompiler. Do not edit.\n */\n");
+        sb.append("package ").append(packageName).append(";\n\n");
+        sb.append("import java.nio.ByteBuffer;\n\n");
+        sb.append("/**\n * Flyweight codec of the ").append(message.getName())
+                .append(" message, version ").append(message.getVersion()).append("\n */\n");
+        sb.append("public final class ").append(className).append(" {\n\n");
+        sb.append("    public static final int ID = ").append(message.getId()).append(";\n");
+        sb.append("    public static final int VERSION = ").append(message.getVersion()).append(";\n");
+        sb.append("    public static final int HEADER_LENGTH = ").append(MessageDef.HEADER_LENGTH).append(";\n");
+        sb.append("    public static final int LENGTH = ").append(message.getLength(message.getVersion())).append(";\n");
+        for (FieldDef field : message.getFields()) {
+            String constant = Names.constant(field.getName());
+            sb.append("    public static final int ").append(constant).append("_OFFSET = ")
+                    .append(field.getOffset()).append(";\n");
+            if (field.getKind() == FieldDef.Kind.FIXED) {
+                sb.append("    public static final float ").append(constant).append("_SCALE = ")
+                        .append((float) field.getScale()).append("f;\n");
+            }
+            for (int i = 0; i < field.getFlags().size(); i++) {
+                sb.append("    public static final int ").append(Names.constant(field.getFlags().get(i)))
+                        .append(" = 0x").append(Long.toHexString(1L << i)).append(";\n");
+            }
+        }
+        sb.append("\n    private ByteBuffer buffer;\n");
+        sb.append("    private int offset;\n");
+        sb.append("    private int version;\n\n");
+        
+        sb.append("    /**\n     * Wrap a buffer to encode a message of the current version at its\n");
+        sb.append("     * position, writing the header. The buffer must have LENGTH bytes remaining\n     */\n");
+        sb.append("    public ").append(className).append(" wrapForEncode(ByteBuffer buffer) {\n");
+        sb.append("        this.buffer = buffer;\n");
+        sb.append("        this.offset = buffer.position();\n");
+        sb.append("        this.version = VERSION;\n");
+        sb.append("        buffer.put(offset, (byte) ID);\n");
+        sb.append("        buffer.put(offset + 1, (byte) VERSION);\n");
+        sb.append("        return this;\n    }\n\n");
+        
+        sb.append("    /**\n     * Wrap a buffer to decode a message at its position. Messages of newer\n");
+        sb.append("     * versions are decoded as the current version\n     *\n");
+        sb.append("     * @return whether the buffer holds a complete message of this type\n     */\n");
+        sb.append("    public boolean wrapForDecode(ByteBuffer buffer) {\n");
+        sb.append("        int position = buffer.position();\n");
+        sb.append("        if (buffer.remaining() < HEADER_LENGTH || (buffer.get(position) & 0xFF) != ID) {\n");
+        sb.append("            return false;\n        }\n");
+        sb.append("        int messageVersion = buffer.get(position + 1) & 0xFF;\n");
+        sb.append("        if (messageVersion < 1 || buffer.remaining() < lengthOf(Math.min(messageVersion, VERSION))) {\n");
+        sb.append("            return false;\n        }\n");
+        sb.append("        this.buffer = buffer;\n");
+        sb.append("        this.offset = position;\n");
+        sb.append("        this.version = Math.min(messageVersion, VERSION);\n");
+        sb.append("        return true;\n    }\n\n");
+        
+        sb.append("    /**\n     * Get the encoded length of a message of the given version\n     */\n");
+        sb.append("    public static int lengthOf(int version) {\n");
+        for (int v = message.getVersion(); v > 1; v--) {
+            sb.append("        if (version >= ").append(v).append(") {\n            return ")
+                    .append(message.getLength(v)).append(";\n        }\n");
+        }
+        sb.append("        return ").append(message.getLength(1)).append(";\n    }\n\n");
+        
+        sb.append("    /**\n     * Get the encoded length of the wrapped message\n     */\n");
+        sb.append("    public int encodedLength() {\n        return lengthOf(version);\n    }\n\n");
+        sb.append("    /**\n     * Get the position of the end of the wrapped message in the buffer\n     */\n");
+        sb.append("    public int limit() {\n        return offset + lengthOf(version);\n    }\n\n");
+        sb.append("    /**\n     * Get the version of the wrapped message, at most the current version\n     */\n");
+        sb.append("    public int getVersion() {\n        return version;\n    }\n\n");
+        
+        for (FieldDef field : message.getFields()) {
+            appendAccessors(sb, className, field);
+        }
+        sb.append("}\n");
+        return sb.toString();
+    }
+    
+    private void appendAccessors(StringBuilder sb, String className, FieldDef field) {
+        FieldType type = field.getType();
+        String name = Names.upperCamel(field.getName());
+        String position = "offset + " + Names.constant(field.getName()) + "_OFFSET";
+        String read = "buffer.get" + type.getBufferSuffix() + "(" + position + ")";
+        if (!type.isSigned()) {
+            read = "(" + read + (type == FieldType.UINT32 ? " & 0xFFFFFFFFL)" : type == FieldType.UINT16 ? " & 0xFFFF)" : " & 0xFF)");
+        }
+        String absent = field.getSince() > 1 ? "        if (version < " + field.getSince() + ") {\n            return %s;\n        }\n" : "";
+        String put = "buffer.put" + type.getBufferSuffix() + "(" + position + ", ";
+        String storage = type.getStorageJavaType();
+        
+        if (field.getSince() > 1) {
+            sb.append("    public boolean has").append(name).append("() {\n        return version >= ")
+                    .append(field.getSince()).append(";\n    }\n\n");
+        }
+        if (field.getKind() == FieldDef.Kind.FIXED) {
+            String scale = Names.constant(field.getName()) + "_SCALE";
+            sb.append("    public ").append(type.getJavaType()).append(" get").append(name).append("Raw() {\n");
+            sb.append(String.format(absent, "0"));
+            sb.append("        return ").append(read).append(";\n    }\n\n");
+            sb.append("    public float get").append(name).append("() {\n");
+            sb.append("        return get").append(name).append("Raw() / ").append(scale).append(";\n    }\n\n");
+            sb.append("    public ").append(className).append(" set").append(name).append("Raw(")
+                    .append(type.getJavaType()).append(" value) {\n");
+            sb.append("        ").append(put)
+                    .append(storage.equals(type.getJavaType()) ? "" : "(" + storage + ") ").append("value);\n");
+            sb.append("        return this;\n    }\n\n");
+            sb.append("    /**\n     * Set the value, rounding to the nearest step and saturating at the range\n     */\n");
+            sb.append("    public ").append(className).append(" set").append(name).append("(float value) {\n");
+            sb.append("        long raw = Math.round((double) value * ").append(scale).append(");\n");
+            sb.append("        raw = Math.max(").append(type.minValue()).append("L, Math.min(")
+                    .append(type.maxValue()).append("L, raw));\n");
+            sb.append("        ").append(put).append("(").append(storage).append(") raw);\n");
+            sb.append("        return this;\n    }\n\n");
+            return;
+        }
+        sb.append("    public ").append(type.getJavaType()).append(" get").append(name).append("() {\n");
+        sb.append(String.format(absent, type == FieldType.FLOAT32 ? "0f" : "0"));
+        sb.append("        return ").append(read).append(";\n    }\n\n");
+        sb.append("    public ").append(className).append(" set").append(name).append("(")
+                .append(type.getJavaType()).append(" value) {\n");
+        sb.append("        ").append(put)
+                .append(storage.equals(type.getJavaType()) ? "" : "(" + storage + ") ").append("value);\n");
+        sb.append("        return this;\n    }\n\n");
+        for (String flag : field.getFlags()) {
+            String flagName = Names.upperCamel(flag);
+            String mask = Names.constant(flag);
+            sb.append("    public boolean is").append(flagName).append("() {\n");
+            sb.append("        return (get").append(name).append("() & ").append(mask).append(") != 0;\n    }\n\n");
+            sb.append("    public ").append(className).append(" set").append(flagName).append("(boolean value) {\n");
+            sb.append("        ").append(type.getJavaType()).append(" flags = get").append(name).append("();\n");
+            sb.append("        return set").append(name).append("(value ? flags | ").append(mask)
+                    .append(" : flags & ~").append(mask).append(");\n    }\n\n");
+        }
+    }
+    
+}
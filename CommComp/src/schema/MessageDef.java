@@ -0,0 +1,115 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package schema;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The definition of a message in a schema.
+ * 
+ * Messages are laid out as a header of the message ID and version byte 
+ * followed by the fields in order, each encoded big-endian without padding.
+ * Fields added in later versions must follow the fields of earlier versions,
+ * so a message of an older version is a prefix of the current layout.
+ * 
+ * @author Andrew_2
+ */
+public class MessageDef {
+
+    public static final int HEADER_LENGTH = 2;
+    
+    private final String name;
+    private final int id;
+    private final int version;
+    private final List<FieldDef> fields;
+
+    /**
+     * Construct a message definition, laying out its fields
+     * 
+     * @param name the name of the message
+     * @param id the ID of the message from 0 to 255
+     * @param fields the fields of the message in order
+     */
+    public MessageDef(String name, int id, List<FieldDef> fields) {
+        if (id < 0 || id > 255) {
+            throw new IllegalArgumentException("ID of message " + name + " must be between 0 and 255");
+        }
+        this.name = name;
+        this.id = id;
+        this.fields = Collections.unmodifiableList(new ArrayList<>(fields));
+        int offset = HEADER_LENGTH;
+        int latest = 1;
+        for (FieldDef field : fields) {
+            if (field.getSince() < latest) {
+                throw new IllegalArgumentException("Field " + field.getName() + " of message " + name
+                        + " must follow the fields of later versions");
+            }
+            latest = field.getSince();
+            field.setOffset(offset);
+            offset += field.getType().size();
+        }
+        this.version = latest;
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public int getId() {
+        return id;
+    }
+
+    /**
+     * Get the current version of the message, the latest version a field was
+     * added in
+     * 
+     * @return the version
+     */
+    public int getVersion() {
+        return version;
+    }
+
+    public List<FieldDef> getFields() {
+        return fields;
+    }
+    
+    /**
+     * Get the encoded length of the message at a given version
+     * 
+     * @param version the message version
+     * @return the length in bytes
+     */
+    public int getLength(int version) {
+        int length = HEADER_LENGTH;
+        for (FieldDef field : fields) {
+            if (field.getSince() <= version) {
+                length += field.getType().size();
+            }
+        }
+        return length;
+    }
+    
+}
@@ -0,0 +1,146 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package schema;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import org.json.JSONArray;
+import org.json.JSONObject;
+import org.json.JSONTokener;
+
+/**
+ * A set of message definitions from which codecs are generated.
+ * 
+ * Schemas are read from json of the form
+ * <pre>
+ * {
+ *   "name": "control",
+ *   "messages": [
+ *     {
+ *       "name": "DriveCommand",
+ *       "id": 1,
+ *       "fields": [
+ *         {"name": "forward", "type": "int16", "fixed": 32767},
+ *         {"name": "buttons", "type": "uint8", "flags": ["sweepIn", "sweepOut"]},
+ *         {"name": "throttle", "type": "uint8", "since": 2}
+ *       ]
+ *     }
+ *   ]
+ * }
+ * </pre>
+ * where "fixed" gives the scale of a fixed-point field, "flags" names the bits
+ * of a flags field from the least significant bit, and "since" gives the 
+ * message version a field was added in.
+ * 
+ * @author Andrew_2
+ */
+public class Schema {
+    
+    private final String name;
+    private final List<MessageDef> messages;
+
+    /**
+     * Construct a schema
+     * 
+     * @param name the name of the schema
+     * @param messages the message definitions
+     */
+    public Schema(String name, List<MessageDef> messages) {
+        Set<Integer> ids = new HashSet<>();
+        for (MessageDef message : messages) {
+            if (!ids.add(message.getId())) {
+                throw new IllegalArgumentException("Duplicate message ID " + message.getId());
+            }
+        }
+        this.name = name;
+        this.messages = Collections.unmodifiableList(new ArrayList<>(messages));
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public List<MessageDef> getMessages() {
+        return messages;
+    }
+    
+    /**
+     * Construct a schema from its json
+     * 
+     * @param json the json object of the schema
+     * @return the schema
+     */
+    public static Schema fromJSON(JSONObject json) {
+        List<MessageDef> messages = new ArrayList<>();
+        JSONArray messagesJSON = json.getJSONArray("messages");
+        for (int i = 0; i < messagesJSON.length(); i++) {
+            JSONObject messageJSON = messagesJSON.getJSONObject(i);
+            List<FieldDef> fields = new ArrayList<>();
+            JSONArray fieldsJSON = messageJSON.getJSONArray("fields");
+            for (int j = 0; j < fieldsJSON.length(); j++) {
+                fields.add(fieldFromJSON(fieldsJSON.getJSONObject(j)));
+            }
+            messages.add(new MessageDef(messageJSON.getString("name"), messageJSON.getInt("id"), fields));
+        }
+        return new Schema(json.getString("name"), messages);
+    }
+    
+    private static FieldDef fieldFromJSON(JSONObject json) {
+        String name = json.getString("name");
+        FieldType type = FieldType.forName(json.getString("type"));
+        int since = json.optInt("since", 1);
+        if (json.has("fixed")) {
+            return new FieldDef(name, FieldDef.Kind.FIXED, type, json.getDouble("fixed"),
+                    Collections.emptyList(), since);
+        } else if (json.has("flags")) {
+            List<String> flags = new ArrayList<>();
+            JSONArray flagsJSON = json.getJSONArray("flags");
+            for (int i = 0; i < flagsJSON.length(); i++) {
+                flags.add(flagsJSON.getString(i));
+            }
+            return new FieldDef(name, FieldDef.Kind.FLAGS, type, 1, flags, since);
+        } else {
+            return new FieldDef(name, type, since);
+        }
+    }
+    
+    /**
+     * Load a schema from the json file at the specified path
+     * 
+     * @param path the path of the json file
+     * @return the schema
+     * @throws IOException if the file could not be read
+     */
+    public static Schema loadSchema(Path path) throws IOException {
+        String text = new String(Files.readAllBytes(path));
+        return fromJSON(new JSONObject(new JSONTokener(text)));
+    }
+    
+}
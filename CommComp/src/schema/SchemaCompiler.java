@@ -0,0 +1,56 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package schema;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * A command line program generating Java and C message codecs from a schema.
+ * 
+ * Usage: SchemaCompiler schema.json javaSourceDir javaPackage cOutputDir
+ * 
+ * @author Andrew_2
+ */
+public class SchemaCompiler {
+    
+    public static void main(String[] args) {
+        if (args.length != 4) {
+            System.err.println("Usage: SchemaCompiler schema.json javaSourceDir javaPackage cOutputDir");
+            System.exit(1);
+        }
+        try {
+            Schema schema = Schema.loadSchema(Paths.get(args[0]));
+            Path javaDir = Paths.get(args[1]);
+            new JavaGenerator(schema, args[2]).generate(javaDir);
+            new CGenerator(schema).generate(Paths.get(args[3]));
+            System.out.println("Generated " + schema.getMessages().size() + " messages from " + args[0]);
+        } catch (IOException | RuntimeException ex) {
+            System.err.println("Could not compile schema: " + ex.getMessage());
+            System.exit(1);
+        }
+    }
+    
+}
@@ -0,0 +1,121 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package test;
+
+import coding.COBSCodec;
+import coding.FrameCheck;
+import coding.FrameDecoder;
+import coding.FramingCodec;
+import coding.HDLCCodec;
+import coding.LengthPrefixCodec;
+import coding.SLIPCodec;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares the encoding and decoding throughput and the wire overhead of the
+ * available framing codecs.
+ * 
+ * Each codec encodes a batch of random messages into one buffer and decodes
+ * the buffer in read sized pieces, as a FrameReader would.
+ * 
+ * @author Andrew_2
+ */
+public class FramingBenchmark {
+
+    private static final int[] messageLengths = {8, 64, 254};
+    private static final int messageCount = 4096;
+    private static final int readSize = 1024;
+    private static final int warmupRounds = 20;
+    private static final int rounds = 50;
+    
+    private static long decodedBytes;
+
+    public static void main(String[] args) {
+        FramingCodec[] codecs = {
+            new COBSCodec(), new SLIPCodec(), new HDLCCodec(), new LengthPrefixCodec(),
+            new COBSCodec(FrameCheck.CRC16_CCITT), new COBSCodec(FrameCheck.CRC32C),
+            new LengthPrefixCodec(FrameCheck.CRC32C)
+        };
+        Random random = new Random(0);
+
+        System.out.println(String.format("%-24s %6s %10s %12s %12s",
+                "Codec", "Length", "Overhead", "Encode MB/s", "Decode MB/s"));
+        for (int length : messageLengths) {
+            byte[][] messages = new byte[messageCount][length];
+            for (byte[] message : messages) {
+                random.nextBytes(message);
+            }
+            for (FramingCodec codec : codecs) {
+                benchmark(codec, messages, length);
+            }
+        }
+    }
+
+    private static void benchmark(FramingCodec codec, byte[][] messages, int length) {
+        ByteBuffer frames = ByteBuffer.allocate(messageCount * codec.maxFrameLength(length));
+        FrameDecoder decoder = codec.createDecoder(length);
+        decoder.setBlockAvailableCallback(block -> decodedBytes += block.remaining());
+
+        for (int i = 0; i < warmupRounds; i++) {
+            encode(codec, messages, frames);
+            decode(decoder, frames);
+        }
+
+        long encodeTime = 0, decodeTime = 0;
+        for (int i = 0; i < rounds; i++) {
+            long start = System.nanoTime();
+            encode(codec, messages, frames);
+            long mid = System.nanoTime();
+            decode(decoder, frames);
+            long end = System.nanoTime();
+            encodeTime += mid - start;
+            decodeTime += end - mid;
+        }
+
+        double payload = (double) rounds * messageCount * length;
+        double overhead = (double) frames.limit() / (messageCount * length) - 1;
+        System.out.println(String.format("%-24s %6d %9.2f%% %12.1f %12.1f",
+                codec.getName(), length, 100 * overhead,
+                payload / encodeTime * 1e3, payload / decodeTime * 1e3));
+    }
+
+    private static void encode(FramingCodec codec, byte[][] messages, ByteBuffer frames) {
+        frames.clear();
+        for (byte[] message : messages) {
+            codec.encode(ByteBuffer.wrap(message), frames);
+        }
+        frames.flip();
+    }
+
+    private static void decode(FrameDecoder decoder, ByteBuffer frames) {
+        ByteBuffer piece = frames.duplicate();
+        while (piece.hasRemaining()) {
+            piece.limit(Math.min(piece.position() + readSize, frames.limit()));
+            decoder.decode(piece);
+            piece.limit(frames.limit());
+        }
+    }
+
+}
@@ -23,7 +23,7 @@
  */
 package ui;
 
-import comm.StreamComm;
+import comm.Comm;
 import javax.swing.JPanel;
 
 /**
@@ -38,6 +38,6 @@ public abstract class CommOptionPanel extends JPanel {
      * Create a communication channel using the graphic configuration
      * @return the created communication channel
      */
-    public abstract StreamComm createComm();
+    public abstract Comm createComm();
     
 }
@@ -33,11 +33,17 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.io.IOException;
 import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
 import javax.swing.JScrollPane;
 import javax.swing.JTextArea;
 import javax.swing.JTextField;
+import message.MessageDispatcher;
 import message.Messenger;
 import ui.MessengerPanel.ConnectUICallback;
 
@@ -62,9 +68,14 @@ public class Console extends JFrame implements ConnectUICallback {
     private Messenger messenger;
 
     private ByteBuffer writerBuffer;
+    private final CharsetEncoder writerEncoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
     private WriterWrapper writerWrapper;
 
     private PrintReaderCallback printCallback;
+    private MessageDispatcher dispatcher;
+    private Messenger.MessageReceivedCallback reader;
 
     public static final int maxMessageLen = 254;
 
@@ -128,6 +139,8 @@ public class Console extends JFrame implements ConnectUICallback {
 
         writerWrapper = new WriterWrapper();
         printCallback = new PrintReaderCallback();
+        dispatcher = new MessageDispatcher();
+        dispatcher.subscribeAll(printCallback);
         /*printCallback.setAuxReader(new Messenger.MessageReceivedCallback() {
             @Override
             public void onMessageReceived(Messenger messenger, ByteBuffer msg) {
@@ -176,7 +189,8 @@ public class Console extends JFrame implements ConnectUICallback {
     }
 
     /**
-     * Write user input to the communication channel
+     * Write user input to the communication channel. The modified input is
+     * encoded directly into the writer buffer.
      *
      * @param text the user input string
      */
@@ -184,7 +198,14 @@ public class Console extends JFrame implements ConnectUICallback {
         String modText = modifier.modify(text);
 
         writerBuffer.clear();
-        writerBuffer.put(modText.getBytes());
+        writerEncoder.reset();
+        CoderResult result = writerEncoder.encode(CharBuffer.wrap(modText), writerBuffer, true);
+        if (!result.isUnderflow() || !writerEncoder.flush(writerBuffer).isUnderflow()) {
+            outputText.append("Line too long to be sent: ");
+            outputText.append(text);
+            outputText.append("\n");
+            return;
+        }
         writerBuffer.flip();
         try {
             messenger.sendMessage(writerBuffer);
@@ -219,8 +240,25 @@ public class Console extends JFrame implements ConnectUICallback {
      *
      * @param brc the reader for the incoming comm data
      */
-    public void setReader(Messenger.MessageReceivedCallback brc) {
-        printCallback.setAuxReader(brc);
+    public synchronized void setReader(Messenger.MessageReceivedCallback brc) {
+        if (reader != null) {
+            dispatcher.unsubscribeAll(reader);
+        }
+        reader = brc;
+        if (brc != null) {
+            dispatcher.subscribeAll(brc);
+        }
+    }
+
+    /**
+     * Get the dispatcher of incoming messages, keyed on the first byte of each
+     * message. Allows external classes to subscribe to messages of a given 
+     * type in parallel with output to the console.
+     *
+     * @return the dispatcher of incoming messages
+     */
+    public MessageDispatcher getDispatcher() {
+        return dispatcher;
     }
 
     /**
@@ -235,7 +273,7 @@ public class Console extends JFrame implements ConnectUICallback {
     public void onUIConnect(Messenger messenger) {
 
         this.messenger = messenger;
-        messenger.setMessageReceivedCallback(printCallback);
+        messenger.setMessageReceivedCallback(dispatcher);
 
         writerBuffer = ByteBuffer.allocate(maxMessageLen);
         writerWrapper.setMessenger(messenger);
@@ -257,25 +295,12 @@ public class Console extends JFrame implements ConnectUICallback {
 
     /**
      * A callback for reading data from the communication channel and printing
-     * the data to the console output and to another auxillary callback if it
-     * exists
+     * the data to the console output
      */
     private class PrintReaderCallback implements Messenger.MessageReceivedCallback {
 
-        private Messenger.MessageReceivedCallback aux;
-
-        /**
-         * Set an auxiliary reader callback
-         *
-         * @param aux the auxiliary reader callback
-         */
-        private void setAuxReader(Messenger.MessageReceivedCallback aux) {
-            this.aux = aux;
-        }
-
         /**
-         * The callback function. Prints data to console and to auxiliary reader
-         * if it exists
+         * The callback function. Prints data to console
          *
          * @param messenger The messenger that is relaying the message
          * @param msg The message received
@@ -283,11 +308,7 @@ public class Console extends JFrame implements ConnectUICallback {
          */
         @Override
         public void onMessageReceived(Messenger messenger, ByteBuffer msg) {
-            ByteBuffer copy = msg.duplicate();
             Console.this.onRead(msg);
-            if (aux != null) {
-                aux.onMessageReceived(messenger, copy);
-            }
         }
 
     }
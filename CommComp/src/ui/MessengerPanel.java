@@ -23,11 +23,13 @@
  */
 package ui;
 
+import coding.FrameCheck;
+import coding.Framing;
+import coding.FramingCodec;
 import comm.BlockComm;
 import comm.BlockOverStreamComm;
 import comm.Comm;
 import comm.StreamComm;
-import comm.StreamOverBlockComm;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
@@ -35,11 +37,15 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import javax.swing.DefaultComboBoxModel;
 import javax.swing.JButton;
+import javax.swing.JCheckBox;
 import javax.swing.JComboBox;
 import javax.swing.JPanel;
-import javax.swing.Timer;
-import message.COBSMessenger;
+import javax.swing.SwingUtilities;
+import message.FramedBlockMessenger;
+import message.FramedStreamMessenger;
+import message.LinkMonitor;
 import message.Messenger;
+import message.ReconnectingMessenger;
 import message.TransparentBlockMessenger;
 
 /**
@@ -51,11 +57,9 @@ import message.TransparentBlockMessenger;
 public class MessengerPanel extends JPanel {
     
     private Messenger messenger;
-    private Comm comm;
     private boolean connected;
     
     private final ConnectUICallback ccb;
-    private final Timer connectUpdate;
     
     private final JButton connectButton;
     private final JComboBox<CommType> commTypes;
@@ -64,6 +68,8 @@ public class MessengerPanel extends JPanel {
     private CommOptionPanel cop;
     
     private JComboBox<MessengerType> messengerTypes;
+    private JComboBox<FrameCheck> frameChecks;
+    private JCheckBox keepAlive;
     /**
      * Supported communication types
      */
@@ -90,14 +96,29 @@ public class MessengerPanel extends JPanel {
      */
     private enum MessengerType {
 
-        TRANSPARENT_BLOCK("Transparent Block"),
-        TRANSPARENT_STREAM("Transparent Stream"),
-        COBS("COBS");
+        TRANSPARENT_BLOCK("Transparent Block", null),
+        TRANSPARENT_STREAM("Transparent Stream", null),
+        COBS("COBS", Framing.COBS),
+        SLIP("SLIP", Framing.SLIP),
+        HDLC("HDLC", Framing.HDLC),
+        LENGTH_PREFIX("Length Prefix", Framing.LENGTH_PREFIX);
 
         final String displayName;
+        final Framing framing;
 
-        MessengerType(String displayName) {
+        MessengerType(String displayName, Framing framing) {
             this.displayName = displayName;
+            this.framing = framing;
+        }
+        
+        /**
+         * Create the framing codec used by this Messenger type
+         * 
+         * @param check the integrity check appended to each frame
+         * @return the framing codec or null if messages are not framed
+         */
+        FramingCodec createCodec(FrameCheck check) {
+            return framing != null ? framing.createCodec(check) : null;
         }
 
         @Override
@@ -157,20 +178,27 @@ public class MessengerPanel extends JPanel {
         messengerTypes = new JComboBox();
         messengerTypes.setModel(new DefaultComboBoxModel(MessengerType.values()));
         messengerTypes.setSelectedItem(MessengerType.TRANSPARENT_BLOCK);
-        this.add(messengerTypes, c);
-
-        connectUpdate = new Timer(100, new ActionListener() {
-
+        messengerTypes.addActionListener(new ActionListener() {
             @Override
             public void actionPerformed(ActionEvent e) {
-                if(comm != null) {
-                    if(connected && !comm.isConnected()) {
-                        disconnect();
-                    }
-                }
+                useMessengerType();
             }
         });
-        connectUpdate.start();
+        this.add(messengerTypes, c);
+        
+        //Add frame check configuration combo box
+        c.gridx++;
+        frameChecks = new JComboBox();
+        frameChecks.setModel(new DefaultComboBoxModel(FrameCheck.values()));
+        frameChecks.setSelectedItem(FrameCheck.NONE);
+        this.add(frameChecks, c);
+        
+        //Add heartbeat reconnection option
+        c.gridx++;
+        keepAlive = new JCheckBox("Keep Alive");
+        keepAlive.setToolTipText("Detect outages by heartbeats and reconnect. The peer must answer pings.");
+        this.add(keepAlive, c);
+        useMessengerType();
     }
 
     /**
@@ -183,11 +211,12 @@ public class MessengerPanel extends JPanel {
     private boolean disconnect() {
         boolean status = messenger.disconnect();
         ccb.onUIDisconnect(messenger);
-        comm = null;
         connectButton.setText("Connect");
         commTypes.setEnabled(true);
         cop.setEnabled(true);
         messengerTypes.setEnabled(true);
+        frameChecks.setEnabled(true);
+        useMessengerType();
         connected = false;
         return status;
     }
@@ -205,7 +234,8 @@ public class MessengerPanel extends JPanel {
         //Construct base communication channel. May have to wrap to agree
         //with the messenger type
         Comm baseComm = cop.createComm();
-        switch((MessengerType)messengerTypes.getSelectedItem()) {
+        MessengerType messengerType = (MessengerType)messengerTypes.getSelectedItem();
+        switch(messengerType) {
             case TRANSPARENT_BLOCK : {
                 BlockComm blockComm;
                 if(baseComm instanceof BlockComm) {
@@ -219,32 +249,71 @@ public class MessengerPanel extends JPanel {
                 messenger = new TransparentBlockMessenger(blockComm);
                 break;
             }
-            case COBS : {
-                StreamComm streamComm;
-                if(baseComm instanceof StreamComm) {
-                    streamComm = (StreamComm)baseComm;
-                } else if(baseComm instanceof BlockComm) {
-                    streamComm = new StreamOverBlockComm((BlockComm)baseComm);
+            case COBS :
+            case SLIP :
+            case HDLC :
+            case LENGTH_PREFIX : {
+                //frame directly into blocks when the channel is block based
+                //rather than emulating a stream over it
+                FramingCodec codec = messengerType.createCodec((FrameCheck)frameChecks.getSelectedItem());
+                if(baseComm instanceof BlockComm) {
+                    messenger = new FramedBlockMessenger(codec, (BlockComm)baseComm);
+                } else if(baseComm instanceof StreamComm) {
+                    messenger = FramedStreamMessenger.createFramedStreamMessenger(codec, (StreamComm)baseComm);
                 } else {
                     System.err.println("Communication type not supported");
                     return false;
                 }
-                messenger = COBSMessenger.createCOBSMessenger(streamComm);
                 break;
             }
         }
         
+        if (keepAlive.isEnabled() && keepAlive.isSelected()) {
+            //keep the session open across outages of the channel, detecting 
+            //outages that do not fail the channel by heartbeats
+            LinkMonitor monitor = new LinkMonitor(messenger);
+            ReconnectingMessenger reconnecting = new ReconnectingMessenger(monitor);
+            monitor.setLinkStateListener((m, alive) -> {
+                if (!alive) {
+                    reconnecting.reportOutage();
+                }
+            });
+            reconnecting.setConnectionStateListener((m, linkUp) -> {
+                SwingUtilities.invokeLater(() -> {
+                    if (connected && messenger == m) {
+                        connectButton.setText(linkUp ? "Disconnect" : "Reconnecting...");
+                    }
+                });
+            });
+            messenger = reconnecting;
+        }
+        
         if (messenger.connect()) {
             ccb.onUIConnect(messenger);
             connectButton.setText("Disconnect");
             commTypes.setEnabled(false);
             cop.setEnabled(false);
             messengerTypes.setEnabled(false);
+            frameChecks.setEnabled(false);
+            keepAlive.setEnabled(false);
             connected = true;
         }
         return connected;
     }
 
+    /**
+     * Update the options to the selected Messenger type. Heartbeats are only
+     * offered for framed messages, as a transparent channel cannot tell pings 
+     * from data.
+     */
+    private void useMessengerType() {
+        MessengerType type = (MessengerType) messengerTypes.getSelectedItem();
+        keepAlive.setEnabled(type.framing != null);
+        if (type.framing == null) {
+            keepAlive.setSelected(false);
+        }
+    }
+
     /**
      * Select the type of communication channel to use.
      * Adds the corresponding comm option panel and revalidates
@@ -23,8 +23,8 @@
  */
 package ui;
 
-import comm.StreamComm;
-import comm.UDPStreamComm;
+import comm.Comm;
+import comm.UDPBlockComm;
 import java.awt.GridBagConstraints;
 import java.awt.GridBagLayout;
 import java.awt.Insets;
@@ -77,12 +77,12 @@ public class UDPOptionPanel extends CommOptionPanel {
     }
 
     /**
-     * Create a UDP communication channel from the entered fields
+     * Create a UDP block communication channel from the entered fields
      * 
      * @return the created communication channel
      */
     @Override
-    public StreamComm createComm() {
+    public Comm createComm() {
         InetAddress address = null;
         try {
              address = InetAddress.getByName(targetIPField.getText());
@@ -91,7 +91,7 @@ public class UDPOptionPanel extends CommOptionPanel {
         }
         int port = Integer.parseInt(targetPortField.getText());
         
-        UDPStreamComm comm = UDPStreamComm.createUDPStreamComm(address, port);
+        UDPBlockComm comm = new UDPBlockComm(address, port);
         return comm;
     }
 
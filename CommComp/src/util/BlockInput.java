@@ -39,4 +39,16 @@ public interface BlockInput {
      */
     public boolean writeBlock(ByteBuffer block);
     
+    /**
+     * Write a block gathered from several parts, in order. The default 
+     * implementation concatenates the parts, so implementations able to 
+     * write the parts in place should override it.
+     * 
+     * @param parts the parts of the block to be written
+     * @return whether the write was successful
+     */
+    public default boolean writeBlock(ByteBuffer... parts) {
+        return writeBlock(Utility.concatenate(parts));
+    }
+    
 }
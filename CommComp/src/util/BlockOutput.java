@@ -46,6 +46,17 @@ public interface BlockOutput {
         
         public void onBlockOutput(ByteBuffer block);
         
+        /**
+         * Called when a block backed by a pooled buffer is available. The block
+         * is only valid during the call unless the lease is retained.
+         * 
+         * @param block the block available
+         * @param lease the lease of the buffer backing the block
+         */
+        public default void onBlockOutput(ByteBuffer block, BufferLease lease) {
+            onBlockOutput(block);
+        }
+        
     }
     
 }
@@ -0,0 +1,124 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package util;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A reference counted lease of a buffer from a BufferPool.
+ * 
+ * A received message backed by a lease is only valid during the callback it is
+ * passed to. A consumer holding the message past the callback calls 
+ * {@link #retain()} instead of copying it, and {@link #release()} once done.
+ * The buffer returns to its pool when every reference has been released, after
+ * which it must not be used.
+ * 
+ * @author Andrew_2
+ */
+public class BufferLease {
+
+    private final BufferPool pool;
+    private final ByteBuffer buffer;
+    private final AtomicInteger refCount = new AtomicInteger();
+
+    /**
+     * Construct a lease of a new buffer. Leases are created by their pool
+     * 
+     * @param pool the owning pool
+     * @param capacity the capacity of the buffer
+     * @param direct whether to allocate the buffer directly
+     */
+    BufferLease(BufferPool pool, int capacity, boolean direct) {
+        this.pool = pool;
+        this.buffer = direct ? ByteBuffer.allocateDirect(capacity) : ByteBuffer.allocate(capacity);
+    }
+    
+    /**
+     * Reset the lease when acquired from the pool
+     */
+    void acquired() {
+        buffer.clear();
+        refCount.set(1);
+    }
+    
+    /**
+     * Get the leased buffer
+     * 
+     * @return the buffer
+     */
+    public ByteBuffer buffer() {
+        return buffer;
+    }
+    
+    /**
+     * Add a reference to the lease
+     * 
+     * @return this lease
+     */
+    public BufferLease retain() {
+        int count;
+        do {
+            count = refCount.get();
+            if (count <= 0) {
+                throw new IllegalStateException("Buffer lease already released");
+            }
+        } while (!refCount.compareAndSet(count, count + 1));
+        return this;
+    }
+    
+    /**
+     * Release a reference to the lease, returning the buffer to its pool once
+     * no references remain
+     */
+    public void release() {
+        int count = refCount.decrementAndGet();
+        if (count == 0) {
+            pool.recycle(this);
+        } else if (count < 0) {
+            refCount.incrementAndGet();
+            throw new IllegalStateException("Buffer lease already released");
+        }
+    }
+    
+    /**
+     * Get the number of references to the lease
+     * 
+     * @return the reference count
+     */
+    public int refCount() {
+        return refCount.get();
+    }
+    
+    /**
+     * Check whether references other than the holder's remain, meaning the 
+     * buffer must not be reused by its holder
+     * 
+     * @return whether the lease has more than one reference
+     */
+    public boolean isShared() {
+        return refCount.get() > 1;
+    }
+    
+}
@@ -0,0 +1,139 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package util;
+
+/**
+ * A pool of fixed size buffers handed out as reference counted leases.
+ * 
+ * A lease is returned to the pool when its last reference is released, so a
+ * receive path that acquires a buffer for each message allocates nothing in
+ * steady state. If the pool is empty a new buffer is allocated, and released 
+ * buffers beyond the maximum pooled are left to be garbage collected.
+ * 
+ * @author Andrew_2
+ */
+public class BufferPool {
+
+    public static final int defaultMaxPooled = 16;
+    
+    private final int bufferSize;
+    private final boolean direct;
+    private final BufferLease[] free;
+    private int freeCount;
+    private long allocated;
+
+    /**
+     * Construct a pool of heap buffers with the default maximum pooled
+     * 
+     * @param bufferSize the capacity of each buffer
+     */
+    public BufferPool(int bufferSize) {
+        this(bufferSize, defaultMaxPooled, false);
+    }
+    
+    /**
+     * Construct a pool
+     * 
+     * @param bufferSize the capacity of each buffer
+     * @param maxPooled the maximum number of free buffers kept by the pool
+     * @param direct whether the buffers are allocated directly
+     */
+    public BufferPool(int bufferSize, int maxPooled, boolean direct) {
+        this.bufferSize = bufferSize;
+        this.direct = direct;
+        this.free = new BufferLease[maxPooled];
+    }
+    
+    /**
+     * Acquire a cleared buffer with a single reference
+     * 
+     * @return the lease of the buffer
+     */
+    public BufferLease acquire() {
+        BufferLease lease = null;
+        synchronized (this) {
+            if (freeCount > 0) {
+                lease = free[--freeCount];
+                free[freeCount] = null;
+            } else {
+                allocated++;
+            }
+        }
+        if (lease == null) {
+            lease = new BufferLease(this, bufferSize, direct);
+        }
+        lease.acquired();
+        return lease;
+    }
+    
+    /**
+     * Allocate buffers until the pool holds its maximum number of free buffers,
+     * so that later acquisitions do not allocate
+     */
+    public synchronized void preallocate() {
+        while (freeCount < free.length) {
+            free[freeCount++] = new BufferLease(this, bufferSize, direct);
+            allocated++;
+        }
+    }
+    
+    /**
+     * Return a lease with no references to the pool
+     * 
+     * @param lease the released lease
+     */
+    synchronized void recycle(BufferLease lease) {
+        if (freeCount < free.length) {
+            free[freeCount++] = lease;
+        }
+    }
+    
+    /**
+     * Get the capacity of the buffers of this pool
+     * 
+     * @return the buffer capacity
+     */
+    public int getBufferSize() {
+        return bufferSize;
+    }
+    
+    /**
+     * Get the number of buffers allocated by this pool
+     * 
+     * @return the number of buffers allocated
+     */
+    public synchronized long getAllocatedCount() {
+        return allocated;
+    }
+    
+    /**
+     * Get the number of free buffers held by this pool
+     * 
+     * @return the number of free buffers
+     */
+    public synchronized int getFreeCount() {
+        return freeCount;
+    }
+    
+}
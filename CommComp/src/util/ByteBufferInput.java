@@ -23,7 +23,9 @@
  */
 package util;
 
+import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.nio.ByteBuffer;
 
 /**
@@ -32,6 +34,9 @@ import java.nio.ByteBuffer;
  * through this class, and the buffer can be only read through the
  * InputStream view.
  * 
+ * Reads from the InputStream view block until data is written to the buffer,
+ * the buffer is closed, or the reading thread is interrupted.
+ * 
  * @author Andrew_2
  */
 public class ByteBufferInput {
@@ -44,6 +49,12 @@ public class ByteBufferInput {
      * The read-only InputStream view of the buffer
      */
     private ByteBufferInputStream stream;
+    /**
+     * Whether the buffer has been closed, ending the InputStream view
+     */
+    private boolean closed;
+
+    private static final ErrorStats errors = ErrorStats.forComponent("ByteBufferInput");
 
     private static final int DEFAULT_BUFFER_SIZE = 1024;
 
@@ -86,7 +97,7 @@ public class ByteBufferInput {
     synchronized public boolean write(byte[] data) {
         boolean success = true;
         if (data.length > buffer.capacity()) {
-            System.err.println("Data length exceeded buffer capacity in ByteBufferInput");
+            errors.record(ErrorCause.OVERFLOW, "Data length exceeded buffer capacity in ByteBufferInput");
             buffer.clear();
             //put the last section of data that will fit into the buffer
             buffer.put(data, data.length - buffer.capacity(), buffer.capacity());
@@ -95,7 +106,7 @@ public class ByteBufferInput {
             if (buffer.capacity() - buffer.limit() < data.length) {
                 //write will exceed buffer capacity so shift data if possible
                 if (buffer.capacity() - buffer.limit() + buffer.position() < data.length) {
-                    System.err.println("Uh oh. ByteBufferInput Overflow.");
+                    errors.record(ErrorCause.OVERFLOW, "ByteBufferInput overflow. Unread data overwritten.");
                     buffer.position(-buffer.capacity() + data.length + buffer.limit());
                     success = false;
                 }
@@ -108,17 +119,58 @@ public class ByteBufferInput {
             buffer.put(data);
             buffer.reset();
         }
+        notifyAll();
         return success;
     }
     
+    /**
+     * Close the buffer. Blocked and subsequent reads of the InputStream view 
+     * return the end of stream once the remaining data is read
+     */
+    synchronized public void close() {
+        closed = true;
+        notifyAll();
+    }
+    
+    /**
+     * Reopen a closed buffer, discarding any remaining data
+     */
+    synchronized public void open() {
+        buffer.clear();
+        buffer.limit(0);
+        closed = false;
+    }
+    
+    /**
+     * Wait until data is available in the buffer or the buffer is closed
+     * 
+     * @return whether data is available to be read
+     * @throws InterruptedIOException if the waiting thread is interrupted
+     */
+    synchronized private boolean awaitData() throws InterruptedIOException {
+        while (!buffer.hasRemaining() && !closed) {
+            try {
+                wait();
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("Interrupted reading ByteBufferInput");
+            }
+        }
+        return buffer.hasRemaining();
+    }
+    
     /**
      * Read a single byte from the buffer
      * Must be accessed through the InputStream view for external reading
      * 
-     * @return the byte read
+     * @return the byte read or -1 if the buffer is closed and empty
+     * @throws InterruptedIOException if interrupted while waiting for data
      */
-    synchronized private int read() {
-        return buffer.get();
+    synchronized private int read() throws InterruptedIOException {
+        if (!awaitData()) {
+            return -1;
+        }
+        return buffer.get() & 0xFF;
     }
     
     /**
@@ -126,11 +178,20 @@ public class ByteBufferInput {
      * Must be accessed through the InputStream view for external reading
      * 
      * @param arr the array to read the buffer data into
-     * @return the number of bytes read
+     * @param off the offset in the array to start writing data
+     * @param len the maximum number of bytes to read
+     * @return the number of bytes read or -1 if the buffer is closed and empty
+     * @throws InterruptedIOException if interrupted while waiting for data
      */
-    synchronized private int read(byte[] arr) {
-        int num = Math.min(arr.length, buffer.remaining());
-        buffer.get(arr, 0, num);
+    synchronized private int read(byte[] arr, int off, int len) throws InterruptedIOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!awaitData()) {
+            return -1;
+        }
+        int num = Math.min(len, buffer.remaining());
+        buffer.get(arr, off, num);
         return num;
     }
     
@@ -162,19 +223,29 @@ public class ByteBufferInput {
         }
 
         @Override
-        public int read() {
+        public int read() throws IOException {
             return ByteBufferInput.this.read();
         }
         
         @Override
-        public int read(byte[] arr) {
-            return ByteBufferInput.this.read(arr);
+        public int read(byte[] arr) throws IOException {
+            return ByteBufferInput.this.read(arr, 0, arr.length);
+        }
+        
+        @Override
+        public int read(byte[] arr, int off, int len) throws IOException {
+            return ByteBufferInput.this.read(arr, off, len);
         }
 
         @Override
         public int available() {
             return ByteBufferInput.this.available();
         }
+        
+        @Override
+        public void close() {
+            ByteBufferInput.this.close();
+        }
 
     }
 }
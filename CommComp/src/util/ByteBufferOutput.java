@@ -51,6 +51,8 @@ public class ByteBufferOutput {
      */
     private ByteBufferOutputCallback callback;
 
+    private static final ErrorStats errors = ErrorStats.forComponent("ByteBufferOutput");
+
     private static final int DEFAULT_BUFFER_SIZE = 1024;
 
     /**
@@ -101,7 +103,7 @@ public class ByteBufferOutput {
     synchronized private boolean write(byte[] data) {
         boolean success = true;
         if (data.length > buffer.capacity()) {
-            System.err.println("Data length exceeded buffer capacity in ByteBufferInput");
+            errors.record(ErrorCause.OVERFLOW, "Data length exceeded buffer capacity in ByteBufferOutput");
             buffer.clear();
             //put the last section of data that will fit into the buffer
             buffer.put(data, data.length - buffer.capacity(), buffer.capacity());
@@ -110,7 +112,7 @@ public class ByteBufferOutput {
             if (buffer.capacity() - buffer.limit() < data.length) {
                 //write will exceed buffer capacity so shift data if possible
                 if (buffer.capacity() - buffer.limit() + buffer.position() < data.length) {
-                    System.err.println("Uh oh. ByteBufferOutput Overflow.");
+                    errors.record(ErrorCause.OVERFLOW, "ByteBufferOutput overflow. Unread data overwritten.");
                     buffer.position(-buffer.capacity() + data.length + buffer.limit());
                     success = false;
                 }
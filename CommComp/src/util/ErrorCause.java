@@ -0,0 +1,79 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package util;
+
+/**
+ * The causes of errors and dropped data counted by ErrorStats
+ * 
+ * @author Andrew_2
+ */
+public enum ErrorCause {
+    
+    /**
+     * Data exceeded the maximum length of a message or buffer
+     */
+    OVERSIZE,
+    /**
+     * An empty message or block could not be sent
+     */
+    EMPTY,
+    /**
+     * A frame or message was malformed and could not be decoded
+     */
+    MALFORMED,
+    /**
+     * A frame failed its integrity check
+     */
+    CHECK_FAILED,
+    /**
+     * Buffered data was overwritten before it could be read
+     */
+    OVERFLOW,
+    /**
+     * Data could not be sent because the channel was disconnected
+     */
+    DISCONNECTED,
+    /**
+     * An I/O operation failed
+     */
+    IO_ERROR,
+    /**
+     * A received message was dropped as no callback was set
+     */
+    NO_CALLBACK,
+    /**
+     * A received message was dropped as it was older than one already received
+     * or no longer expected
+     */
+    STALE,
+    /**
+     * An operation did not complete before its deadline
+     */
+    TIMEOUT,
+    /**
+     * A callback threw an exception
+     */
+    CALLBACK_FAILED
+    
+}
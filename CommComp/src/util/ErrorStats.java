@@ -0,0 +1,170 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package util;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters of errors and dropped data for a component, by cause.
+ * 
+ * Recording an error increments a LongAdder, which does not contend between
+ * threads, and passes an optional description to a SampledLogger. The stats of
+ * every component are kept in a registry so they can be queried at runtime.
+ * 
+ * @author Andrew_2
+ */
+public class ErrorStats {
+
+    private static final ConcurrentMap<String, ErrorStats> registry = new ConcurrentSkipListMap<>();
+    
+    private final String component;
+    private final LongAdder[] counts;
+    private final SampledLogger logger;
+
+    private ErrorStats(String component) {
+        this.component = component;
+        this.counts = new LongAdder[ErrorCause.values().length];
+        for (int i = 0; i < counts.length; i++) {
+            counts[i] = new LongAdder();
+        }
+        this.logger = new SampledLogger(component);
+    }
+    
+    /**
+     * Get the stats of the named component, creating them if necessary
+     * 
+     * @param component the name of the component
+     * @return the stats of the component
+     */
+    public static ErrorStats forComponent(String component) {
+        return registry.computeIfAbsent(component, ErrorStats::new);
+    }
+    
+    /**
+     * Get the stats of every component by component name
+     * 
+     * @return an unmodifiable view of the stats of every component
+     */
+    public static Map<String, ErrorStats> getAll() {
+        return Collections.unmodifiableMap(registry);
+    }
+    
+    /**
+     * Record an error
+     * 
+     * @param cause the cause of the error
+     */
+    public void record(ErrorCause cause) {
+        counts[cause.ordinal()].increment();
+    }
+    
+    /**
+     * Record an error and log its description subject to the rate limit
+     * 
+     * @param cause the cause of the error
+     * @param description the description of the error
+     */
+    public void record(ErrorCause cause, String description) {
+        counts[cause.ordinal()].increment();
+        logger.log(description);
+    }
+    
+    /**
+     * Record several errors or dropped bytes at once
+     * 
+     * @param cause the cause of the errors
+     * @param count the number of errors
+     */
+    public void record(ErrorCause cause, long count) {
+        counts[cause.ordinal()].add(count);
+    }
+    
+    /**
+     * Get the count of errors with the given cause
+     * 
+     * @param cause the cause of the errors
+     * @return the count of errors
+     */
+    public long getCount(ErrorCause cause) {
+        return counts[cause.ordinal()].sum();
+    }
+    
+    /**
+     * Get the count of errors of all causes
+     * 
+     * @return the total count of errors
+     */
+    public long getTotal() {
+        long total = 0;
+        for (LongAdder count : counts) {
+            total += count.sum();
+        }
+        return total;
+    }
+    
+    /**
+     * Get the current counts of all causes with nonzero counts
+     * 
+     * @return a map of causes to counts
+     */
+    public Map<ErrorCause, Long> snapshot() {
+        Map<ErrorCause, Long> snapshot = new EnumMap<>(ErrorCause.class);
+        for (ErrorCause cause : ErrorCause.values()) {
+            long count = getCount(cause);
+            if (count != 0) {
+                snapshot.put(cause, count);
+            }
+        }
+        return snapshot;
+    }
+    
+    /**
+     * Reset all counts to zero
+     */
+    public void reset() {
+        for (LongAdder count : counts) {
+            count.reset();
+        }
+    }
+    
+    /**
+     * Get the name of the component
+     * 
+     * @return the name of the component
+     */
+    public String getComponent() {
+        return component;
+    }
+
+    @Override
+    public String toString() {
+        return component + " " + snapshot();
+    }
+    
+}
@@ -0,0 +1,229 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package util;
+
+import java.util.Arrays;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * A hash map from primitive int keys to objects, avoiding the boxing of keys.
+ * 
+ * Entries are stored in parallel arrays using open addressing with linear 
+ * probing, and removal shifts following entries back so no tombstones are
+ * left. Null values are not permitted. This class is not thread safe.
+ * 
+ * @author Andrew_2
+ * @param <V> the type of the values
+ */
+public class IntObjectMap<V> {
+
+    private static final int minCapacity = 8;
+    
+    private int[] keys;
+    private Object[] values;
+    private int size;
+    private int mask;
+
+    /**
+     * Construct an empty map with a default initial capacity
+     */
+    public IntObjectMap() {
+        this(minCapacity);
+    }
+    
+    /**
+     * Construct an empty map able to hold the given number of entries without
+     * resizing
+     * 
+     * @param expectedSize the expected number of entries
+     */
+    public IntObjectMap(int expectedSize) {
+        int capacity = minCapacity;
+        while (capacity < expectedSize * 2) {
+            capacity <<= 1;
+        }
+        allocate(capacity);
+    }
+    
+    private void allocate(int capacity) {
+        keys = new int[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+    
+    private int slot(int key) {
+        //spread the bits of sequential keys
+        int h = key * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & mask;
+    }
+    
+    private int find(int key) {
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                return i;
+            }
+            i = (i + 1) & mask;
+        }
+        return -1;
+    }
+    
+    /**
+     * Get the value mapped to a key
+     * 
+     * @param key the key
+     * @return the value or null if the key is not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V get(int key) {
+        int i = find(key);
+        return i < 0 ? null : (V) values[i];
+    }
+    
+    /**
+     * Check whether a key is mapped
+     * 
+     * @param key the key
+     * @return whether the key is mapped
+     */
+    public boolean containsKey(int key) {
+        return find(key) >= 0;
+    }
+    
+    /**
+     * Map a key to a value
+     * 
+     * @param key the key
+     * @param value the non null value
+     * @return the previous value or null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V put(int key, V value) {
+        if (value == null) {
+            throw new NullPointerException("Null values are not permitted");
+        }
+        int i = slot(key);
+        while (values[i] != null) {
+            if (keys[i] == key) {
+                V previous = (V) values[i];
+                values[i] = value;
+                return previous;
+            }
+            i = (i + 1) & mask;
+        }
+        keys[i] = key;
+        values[i] = value;
+        if (++size * 2 > keys.length) {
+            resize();
+        }
+        return null;
+    }
+    
+    /**
+     * Remove the mapping of a key
+     * 
+     * @param key the key
+     * @return the removed value or null if the key was not mapped
+     */
+    @SuppressWarnings("unchecked")
+    public V remove(int key) {
+        int i = find(key);
+        if (i < 0) {
+            return null;
+        }
+        V removed = (V) values[i];
+        size--;
+        //shift back following entries of the probe sequence into the gap
+        int gap = i;
+        int j = (i + 1) & mask;
+        while (values[j] != null) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+            j = (j + 1) & mask;
+        }
+        values[gap] = null;
+        return removed;
+    }
+    
+    private void resize() {
+        int[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(keys.length * 2);
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                int j = slot(oldKeys[i]);
+                while (values[j] != null) {
+                    j = (j + 1) & mask;
+                }
+                keys[j] = oldKeys[i];
+                values[j] = oldValues[i];
+            }
+        }
+    }
+    
+    /**
+     * Get the number of entries
+     * 
+     * @return the number of entries
+     */
+    public int size() {
+        return size;
+    }
+    
+    /**
+     * Check whether the map is empty
+     * 
+     * @return whether there are no entries
+     */
+    public boolean isEmpty() {
+        return size == 0;
+    }
+    
+    /**
+     * Perform an action for every entry. The map must not be modified by the action
+     * 
+     * @param action the action taking the value and key of each entry
+     */
+    @SuppressWarnings("unchecked")
+    public void forEach(ObjIntConsumer<? super V> action) {
+        for (int i = 0; i < values.length; i++) {
+            if (values[i] != null) {
+                action.accept((V) values[i], keys[i]);
+            }
+        }
+    }
+    
+    /**
+     * Remove every entry
+     */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+    
+}
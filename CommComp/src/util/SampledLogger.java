@@ -0,0 +1,100 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package util;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A rate limited logger printing at most a fixed number of messages to 
+ * System.err per interval.
+ * 
+ * Messages beyond the limit are counted and reported as suppressed when the
+ * next interval begins. Logging does not block on locks, so a burst of errors
+ * on a noisy link cannot stall the thread reporting them on console output.
+ * 
+ * @author Andrew_2
+ */
+public class SampledLogger {
+
+    private final String prefix;
+    private final long intervalNanos;
+    private final int maxPerInterval;
+    
+    private final AtomicLong intervalStart;
+    private final AtomicInteger logged = new AtomicInteger();
+    private final LongAdder suppressed = new LongAdder();
+    
+    public static final int defaultMaxPerInterval = 5;
+    public static final long defaultIntervalMillis = 1000;
+
+    /**
+     * Construct a logger with the default rate limit
+     * 
+     * @param prefix the prefix of each logged message
+     */
+    public SampledLogger(String prefix) {
+        this(prefix, defaultMaxPerInterval, defaultIntervalMillis);
+    }
+    
+    /**
+     * Construct a logger with the specified rate limit
+     * 
+     * @param prefix the prefix of each logged message
+     * @param maxPerInterval the maximum number of messages printed per interval
+     * @param intervalMillis the length of the interval in milliseconds
+     */
+    public SampledLogger(String prefix, int maxPerInterval, long intervalMillis) {
+        this.prefix = prefix;
+        this.maxPerInterval = maxPerInterval;
+        this.intervalNanos = intervalMillis * 1000000L;
+        this.intervalStart = new AtomicLong(System.nanoTime());
+    }
+
+    /**
+     * Log a message if the rate limit allows
+     * 
+     * @param message the message to log
+     * @return whether the message was printed
+     */
+    public boolean log(String message) {
+        long now = System.nanoTime();
+        long start = intervalStart.get();
+        if (now - start >= intervalNanos && intervalStart.compareAndSet(start, now)) {
+            logged.set(0);
+            long count = suppressed.sumThenReset();
+            if (count > 0) {
+                System.err.println(prefix + ": " + count + " messages suppressed");
+            }
+        }
+        if (logged.incrementAndGet() <= maxPerInterval) {
+            System.err.println(prefix + ": " + message);
+            return true;
+        }
+        suppressed.increment();
+        return false;
+    }
+    
+}
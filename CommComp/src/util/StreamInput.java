@@ -23,6 +23,7 @@
  */
 package util;
 
+import java.io.IOException;
 import java.io.InputStream;
 
 /**
@@ -38,4 +39,12 @@ public interface StreamInput {
      */
     public void setInputStream(InputStream in);
     
+    /**
+     * Read data from the InputStream and process it.
+     * Blocks until data is available on the InputStream
+     * 
+     * @throws IOException if the InputStream could not be read or has ended
+     */
+    public void read() throws IOException;
+    
 }
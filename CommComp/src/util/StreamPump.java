@@ -0,0 +1,147 @@
+/*
+ * The MIT License
+ *
+ * Copyright 2017 Andrew_2.
+ *
+ * Permission is hereby granted, free of charge, to any person obtaining a copy
+ * of this software and associated documentation files (the "Software"), to deal
+ * in the Software without restriction, including without limitation the rights
+ * to use, copy, modify, merge, publish, distribute, sublicense, and/or sell
+ * copies of the Software, and to permit persons to whom the Software is
+ * furnished to do so, subject to the following conditions:
+ *
+ * The above copyright notice and this permission notice shall be included in
+ * all copies or substantial portions of the Software.
+ *
+ * THE SOFTWARE IS PROVIDED "AS IS", WITHOUT WARRANTY OF ANY KIND, EXPRESS OR
+ * IMPLIED, INCLUDING BUT NOT LIMITED TO THE WARRANTIES OF MERCHANTABILITY,
+ * FITNESS FOR A PARTICULAR PURPOSE AND NONINFRINGEMENT. IN NO EVENT SHALL THE
+ * AUTHORS OR COPYRIGHT HOLDERS BE LIABLE FOR ANY CLAIM, DAMAGES OR OTHER
+ * LIABILITY, WHETHER IN AN ACTION OF CONTRACT, TORT OR OTHERWISE, ARISING FROM,
+ * OUT OF OR IN CONNECTION WITH THE SOFTWARE OR THE USE OR OTHER DEALINGS IN
+ * THE SOFTWARE.
+ */
+package util;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+
+/**
+ * A utility class for driving a StreamInput from a dedicated thread.
+ * 
+ * The thread blocks reading the StreamInput so data is processed as soon as it
+ * arrives without polling. The pump stops when stopped explicitly, when the 
+ * thread is interrupted, or when the stream ends or fails. An exception thrown
+ * by a callback while processing the data is recorded and pumping continues.
+ * 
+ * @author Andrew_2
+ */
+public class StreamPump implements Runnable {
+
+    private static final ErrorStats errors = ErrorStats.forComponent("StreamPump");
+
+    private final StreamInput input;
+    private final String name;
+    private volatile boolean running;
+    private volatile Thread thread;
+    
+    /**
+     * The maximum time in milliseconds to wait for the pump thread to exit
+     * when stopping
+     */
+    public static final int stopTimeout = 1000;
+
+    /**
+     * Construct a pump for the given StreamInput
+     * 
+     * @param input the StreamInput to be read
+     * @param name the name of the pump thread
+     */
+    public StreamPump(StreamInput input, String name) {
+        this.input = input;
+        this.name = name;
+    }
+
+    /**
+     * Start the pump thread if it is not already running. A thread stopped 
+     * but still blocked in a read is replaced, and exits once its read 
+     * returns.
+     */
+    public synchronized void start() {
+        if (running && thread != null && thread.isAlive()) {
+            return;
+        }
+        running = true;
+        thread = new Thread(this, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Signal the pump thread to stop and interrupt any blocking read.
+     * 
+     * Streams that do not respond to interrupts should be closed after
+     * calling this method, followed by {@link #join()}
+     */
+    public synchronized void stop() {
+        running = false;
+        if (thread != null && thread != Thread.currentThread()) {
+            thread.interrupt();
+        }
+    }
+    
+    /**
+     * Wait for the pump thread to exit after being stopped
+     * 
+     * @return whether the thread exited within the stop timeout
+     */
+    public boolean join() {
+        Thread t;
+        synchronized (this) {
+            t = thread;
+        }
+        if (t == null || t == Thread.currentThread()) {
+            return true;
+        }
+        try {
+            t.join(stopTimeout);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        return !t.isAlive();
+    }
+
+    /**
+     * Returns whether the pump is running
+     * 
+     * @return whether the pump is running
+     */
+    public boolean isRunning() {
+        return running;
+    }
+
+    @Override
+    public void run() {
+        while (running && thread == Thread.currentThread()) {
+            try {
+                input.read();
+            } catch (InterruptedIOException ex) {
+                //interrupted by stop
+                break;
+            } catch (IOException ex) {
+                if (running && thread == Thread.currentThread()) {
+                    errors.record(ErrorCause.IO_ERROR, "Stream pump " + name + " stopped: " + ex.getMessage());
+                }
+                break;
+            } catch (RuntimeException ex) {
+                errors.record(ErrorCause.CALLBACK_FAILED, "Stream pump " + name + " callback failed: " + ex);
+            }
+        }
+        synchronized (this) {
+            if (thread == Thread.currentThread()) {
+                running = false;
+            }
+        }
+    }
+
+}
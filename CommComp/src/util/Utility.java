@@ -38,6 +38,78 @@ public class Utility {
     }
     
     
+    /**
+     * Get the total number of bytes remaining in several buffers
+     * 
+     * @param parts the buffers
+     * @return the sum of the remaining bytes of the buffers
+     */
+    public static int remaining(ByteBuffer... parts) {
+        int length = 0;
+        for (ByteBuffer part : parts) {
+            length += part.remaining();
+        }
+        return length;
+    }
+    
+    /**
+     * Copy the remaining bytes of several buffers, in order, into a new buffer.
+     * The parts are consumed.
+     * 
+     * @param parts the buffers to concatenate
+     * @return a buffer holding the concatenated parts
+     */
+    public static ByteBuffer concatenate(ByteBuffer... parts) {
+        ByteBuffer whole = ByteBuffer.allocate(remaining(parts));
+        for (ByteBuffer part : parts) {
+            whole.put(part);
+        }
+        whole.flip();
+        return whole;
+    }
+    
+    /**
+     * Place a header before the parts of a message for a gathering send. The
+     * given array is reused when it has the right length, so prepending to 
+     * messages of a steady number of parts allocates nothing.
+     * 
+     * @param array the array returned by the last call or null
+     * @param header the header
+     * @param parts the parts of the message
+     * @return an array holding the header followed by the parts
+     */
+    public static ByteBuffer[] prepend(ByteBuffer[] array, ByteBuffer header, ByteBuffer[] parts) {
+        if (array == null || array.length != parts.length + 1) {
+            array = new ByteBuffer[parts.length + 1];
+        }
+        array[0] = header;
+        System.arraycopy(parts, 0, array, 1, parts.length);
+        return array;
+    }
+    
+    /**
+     * Wait for a thread to exit, preserving the interrupt status of the 
+     * calling thread. Does nothing if the thread is null or the calling thread
+     * 
+     * @param thread the thread to wait for
+     */
+    public static void joinUninterruptibly(Thread thread) {
+        if (thread == null || thread == Thread.currentThread()) {
+            return;
+        }
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException ex) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+    
     public static short booleansToShort(boolean[] values) {
         short buttonShort = 0;
         for (int i = 0; i < 16; i++) {